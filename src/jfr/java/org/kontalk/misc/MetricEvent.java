@@ -0,0 +1,69 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.kontalk.misc;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for one timer measurement.
+ *
+ * In its own source set, only compiled if the JDK provides the JFR API (8u262+).
+ * Loaded by {@link Metrics} if present.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+@Name("org.kontalk.Metric")
+@Label("Kontalk Metric")
+@Category("Kontalk")
+@StackTrace(false)
+final class MetricEvent extends Event {
+
+    @Label("Metric")
+    String metric;
+
+    // note: "duration" is reserved for the implicit event field
+    @Label("Elapsed")
+    @Timespan(Timespan.NANOSECONDS)
+    long elapsed;
+
+    @Label("Bytes")
+    @DataAmount(DataAmount.BYTES)
+    long bytes;
+
+    private static final EventType TYPE = EventType.getEventType(MetricEvent.class);
+
+    static void emit(String metric, long duration, long bytes) {
+        // no allocation if not recording
+        if (!TYPE.isEnabled())
+            return;
+
+        MetricEvent event = new MetricEvent();
+
+        event.metric = metric;
+        event.elapsed = duration;
+        event.bytes = bytes;
+        event.commit();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.sig.KeyFlags;
+import org.bouncycastle.openpgp.PGPEncryptedData;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPKeyPair;
+import org.bouncycastle.openpgp.PGPKeyRingGenerator;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.PGPSignatureSubpacketGenerator;
+import org.bouncycastle.openpgp.PGPSignatureSubpacketVector;
+import org.bouncycastle.openpgp.operator.PGPDigestCalculator;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPContentSignerBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPDigestCalculatorProviderBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyPair;
+import org.bouncycastle.openpgp.operator.jcajce.JcePBESecretKeyEncryptorBuilder;
+import org.kontalk.crypto.PGPUtils;
+import org.kontalk.misc.JID;
+import org.kontalk.misc.KonException;
+import org.kontalk.model.Contact;
+import org.kontalk.model.Model;
+import org.kontalk.model.chat.Chat;
+import org.kontalk.persistence.Config;
+import org.kontalk.persistence.Database;
+
+/**
+ * Model setup for benchmarks, using a real database in a temporary
+ * application directory.
+ *
+ * NOTE: the model is a singleton, only one per benchmark JVM.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+public final class BenchFixture {
+
+    private static Path APP_DIR = null;
+
+    private BenchFixture() {}
+
+    /** Create configuration, database and model in a new temporary directory. */
+    public static Model model() throws IOException, KonException {
+        if (APP_DIR != null)
+            throw new IllegalStateException("model already created");
+
+        APP_DIR = Files.createTempDirectory("kontalk_bench");
+        Config.initialize(APP_DIR);
+        return Model.setup(new Database(APP_DIR), APP_DIR);
+    }
+
+    public static JID jid(int i) {
+        return JID.bare("user" + i + "@bench.kontalk.org");
+    }
+
+    /** Create contacts, in one database transaction. */
+    public static List<Contact> contacts(Model model, int count) {
+        List<Contact> contacts = new ArrayList<>(count);
+        Model.database().beginBatch();
+        for (int i = 0; i < count; i++)
+            model.contacts().create(jid(i), "Contact " + i).ifPresent(contacts::add);
+        Model.database().endBatch();
+        return contacts;
+    }
+
+    /** Create a single chat for each contact, in one database transaction. */
+    public static List<Chat> chats(Model model, List<Contact> contacts) {
+        List<Chat> chats = new ArrayList<>(contacts.size());
+        Model.database().beginBatch();
+        for (Contact contact : contacts)
+            chats.add(model.chats().getOrCreate(contact));
+        Model.database().endBatch();
+        return chats;
+    }
+
+    /**
+     * Key ring like the ones created by the server: auth, sign and encrypt
+     * key. Requires a registered BouncyCastle provider.
+     */
+    public static PGPKeyRingGenerator keyRing(String uid, char[] passphrase)
+            throws GeneralSecurityException, PGPException {
+        KeyPairGenerator rsa = KeyPairGenerator.getInstance("RSA", PGPUtils.PROVIDER);
+        rsa.initialize(2048);
+        Date now = new Date();
+        PGPKeyPair authKey = new JcaPGPKeyPair(PGPPublicKey.RSA_GENERAL, rsa.generateKeyPair(), now);
+        PGPKeyPair signKey = new JcaPGPKeyPair(PGPPublicKey.RSA_GENERAL, rsa.generateKeyPair(), now);
+        PGPKeyPair encryptKey = new JcaPGPKeyPair(PGPPublicKey.RSA_GENERAL, rsa.generateKeyPair(), now);
+
+        PGPDigestCalculator sha1Calc = new JcaPGPDigestCalculatorProviderBuilder()
+                .build().get(HashAlgorithmTags.SHA1);
+        PGPKeyRingGenerator generator = new PGPKeyRingGenerator(
+                PGPSignature.POSITIVE_CERTIFICATION,
+                authKey,
+                uid,
+                sha1Calc,
+                keyFlags(KeyFlags.AUTHENTICATION | KeyFlags.CERTIFY_OTHER),
+                null,
+                new JcaPGPContentSignerBuilder(authKey.getPublicKey().getAlgorithm(),
+                        HashAlgorithmTags.SHA256),
+                new JcePBESecretKeyEncryptorBuilder(PGPEncryptedData.AES_256, sha1Calc)
+                        .setProvider(PGPUtils.PROVIDER).build(passphrase));
+        generator.addSubKey(signKey, keyFlags(KeyFlags.SIGN_DATA), null);
+        generator.addSubKey(encryptKey,
+                keyFlags(KeyFlags.ENCRYPT_COMMS | KeyFlags.ENCRYPT_STORAGE), null);
+        return generator;
+    }
+
+    private static PGPSignatureSubpacketVector keyFlags(int flags) {
+        PGPSignatureSubpacketGenerator gen = new PGPSignatureSubpacketGenerator();
+        gen.setKeyFlags(false, flags);
+        return gen.generate();
+    }
+
+    /** Close database and delete the temporary directory. */
+    public static void tearDown() throws IOException {
+        if (APP_DIR == null)
+            return;
+
+        Model.database().close();
+        FileUtils.deleteDirectory(APP_DIR.toFile());
+    }
+}
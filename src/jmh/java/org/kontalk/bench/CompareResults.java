@@ -0,0 +1,155 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.bench;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Compare two JMH result files (JSON format) and report regressions.
+ *
+ * A benchmark regressed if it is slower than the baseline by more than the
+ * threshold (in percent) and the difference is larger than the combined score
+ * errors. Exit status is 1 if any benchmark regressed.
+ *
+ * Usage: CompareResults baseline.json current.json [threshold]
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+public final class CompareResults {
+
+    private static final double DEFAULT_THRESHOLD = 10.0;
+
+    private CompareResults() {}
+
+    private static final class Result {
+        final String mode;
+        final String unit;
+        final double score;
+        final double error;
+
+        Result(String mode, String unit, double score, double error) {
+            this.mode = mode;
+            this.unit = unit;
+            this.score = score;
+            this.error = error;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, ParseException {
+        if (args.length < 2) {
+            System.err.println("usage: CompareResults baseline.json current.json [threshold]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+
+        Map<String, Result> baseline = read(args[0]);
+        Map<String, Result> current = read(args[1]);
+
+        int regressions = 0;
+        for (String key : new TreeSet<>(current.keySet())) {
+            Result now = current.get(key);
+            Result base = baseline.get(key);
+            if (base == null) {
+                System.out.printf("NEW        %s: %.3f %s%n", key, now.score, now.unit);
+                continue;
+            }
+            if (!base.mode.equals(now.mode) || !base.unit.equals(now.unit)) {
+                System.out.printf("SKIPPED    %s: mode/unit changed%n", key);
+                continue;
+            }
+
+            // throughput: higher is better, all other modes: lower is better
+            boolean higherIsBetter = now.mode.equals("thrpt");
+            double diff = higherIsBetter ? base.score - now.score : now.score - base.score;
+            double percent = base.score == 0 ? 0 : diff / base.score * 100;
+            boolean significant = Math.abs(diff) > base.error + now.error;
+
+            String status;
+            if (significant && percent > threshold) {
+                status = "REGRESSED";
+                regressions++;
+            } else if (significant && percent < -threshold) {
+                status = "IMPROVED";
+            } else {
+                status = "OK";
+            }
+            System.out.printf("%-10s %s: %.3f -> %.3f %s (%+.1f%%)%n",
+                    status, key, base.score, now.score, now.unit,
+                    higherIsBetter ? -percent : percent);
+        }
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key))
+                System.out.printf("MISSING    %s%n", key);
+        }
+
+        System.out.println(regressions + " regression(s), threshold: " + threshold + "%");
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+
+    /** Read results, keyed by benchmark name and parameters. */
+    private static Map<String, Result> read(String file) throws IOException, ParseException {
+        JSONArray json;
+        try (Reader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            json = (JSONArray) new JSONParser().parse(reader);
+        }
+
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (Object o : json) {
+            JSONObject entry = (JSONObject) o;
+            String key = (String) entry.get("benchmark");
+            Object params = entry.get("params");
+            if (params instanceof JSONObject)
+                key += new TreeMap<Object, Object>((JSONObject) params).toString();
+
+            JSONObject metric = (JSONObject) entry.get("primaryMetric");
+            results.put(key, new Result(
+                    (String) entry.get("mode"),
+                    (String) metric.get("scoreUnit"),
+                    toDouble(metric.get("score")),
+                    toDouble(metric.get("scoreError"))));
+        }
+        return results;
+    }
+
+    private static double toDouble(Object value) {
+        // "NaN" as string if only one measurement iteration
+        double d;
+        try {
+            d = value instanceof Number ?
+                    ((Number) value).doubleValue() :
+                    Double.parseDouble(String.valueOf(value));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+        return Double.isNaN(d) ? 0 : d;
+    }
+}
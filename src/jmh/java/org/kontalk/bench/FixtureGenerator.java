@@ -0,0 +1,396 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.kontalk.bench;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.kontalk.crypto.Coder;
+import org.kontalk.crypto.PGPUtils;
+import org.kontalk.misc.JID;
+import org.kontalk.model.Avatar;
+import org.kontalk.model.Contact;
+import org.kontalk.model.Model;
+import org.kontalk.model.chat.Chat;
+import org.kontalk.model.chat.GroupMetaData.KonGroupData;
+import org.kontalk.model.chat.ProtoMember;
+import org.kontalk.model.message.InMessage;
+import org.kontalk.model.message.KonMessage;
+import org.kontalk.model.message.MessageContent;
+import org.kontalk.model.message.MessageContent.InAttachment;
+import org.kontalk.model.message.MessageContent.OutAttachment;
+import org.kontalk.model.message.MessageContent.Preview;
+import org.kontalk.model.message.OutMessage;
+import org.kontalk.model.message.ProtoMessage;
+import org.kontalk.persistence.Config;
+import org.kontalk.persistence.Database;
+import org.kontalk.system.AttachmentManager;
+import org.kontalk.util.EncodingUtils;
+
+/**
+ * Generator for a synthetic application directory with a large account, for
+ * benchmarks and startup tests.
+ *
+ * Everything is created through the model classes, so the database rows
+ * match the current schemas and JSON formats: contacts (with public keys
+ * and avatars), single and group chats with members, incoming and outgoing
+ * messages with transmissions, attachment and preview files and a valid
+ * personal key. Messages are not kept in memory, so even accounts with
+ * millions of messages can be created.
+ *
+ * Message counts per chat are skewed (few chats with most messages) and
+ * dates are spread over the last two years. Incoming encrypted messages are
+ * saved like after a successful decryption.
+ *
+ * Usage: FixtureGenerator [dir] [messages] [contacts] [chats] [group chats]
+ * The directory must not exist. Start the client with it as configuration
+ * directory ("--app-dir"), the account password is saved in the configuration.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+public final class FixtureGenerator {
+    private static final char[] PASSPHRASE = "fixture".toCharArray();
+    /** Distinct contact keys, key generation is slow. */
+    private static final int KEY_POOL_SIZE = 4;
+    private static final int BATCH_SIZE = 10_000;
+    private static final int MAX_GROUP_SIZE = 12;
+    private static final long TIME_SPAN = TimeUnit.DAYS.toMillis(2 * 365);
+    private static final String[] WORDS = ("hello ok yes no maybe today tomorrow "
+            + "see you later where are when what why lunch meeting call me back "
+            + "thanks great sure the a to and of in it is that on for with this "
+            + "kontalk encrypted message photo file link home work weekend")
+            .split(" ");
+
+    private final Model mModel;
+    private final Path mAppDir;
+    private final Random mRandom = new Random(42);
+
+    private final List<Contact> mContacts = new ArrayList<>();
+    private final List<Chat> mChats = new ArrayList<>();
+    /** Cumulative chat weights for picking a chat of a message. */
+    private double[] mChatWeights;
+
+    private byte[] mImageData;
+    private byte[] mPreviewData;
+    private String mEncryptedData;
+    private int mAttachments = 0;
+
+    private FixtureGenerator(Model model, Path appDir) {
+        mModel = model;
+        mAppDir = appDir;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path appDir = Paths.get(args.length > 0 ? args[0] : "build/fixture");
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int contacts = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int chats = args.length > 3 ? Integer.parseInt(args[3]) : Math.min(contacts, 100);
+        int groups = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+        if (chats > contacts)
+            throw new IllegalArgumentException("more chats than contacts");
+
+        if (Files.exists(appDir))
+            throw new IllegalArgumentException("directory exists: " + appDir);
+
+        Logger.getLogger("").setLevel(Level.WARNING);
+        System.setProperty("java.awt.headless", "true");
+        PGPUtils.registerProvider();
+
+        Files.createDirectories(appDir);
+        Files.createDirectories(appDir.resolve(AttachmentManager.ATT_DIRNAME));
+        Files.createDirectories(appDir.resolve(AttachmentManager.PREVIEW_DIRNAME));
+        Config.initialize(appDir);
+        Database db = new Database(appDir);
+        Model model = Model.setup(db, appDir);
+
+        long start = System.currentTimeMillis();
+        FixtureGenerator generator = new FixtureGenerator(model, appDir);
+        generator.account();
+        generator.contacts(contacts);
+        generator.chats(chats, groups);
+        long lastID = generator.messages(messages);
+
+        Config.getInstance().saveToFile();
+        db.close();
+        spreadDates(appDir, messages, lastID);
+
+        System.out.printf("created %d contacts, %d chats, %d messages, %d attachments in %d s: %s%n",
+                contacts, chats + groups, messages, generator.mAttachments,
+                TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - start),
+                appDir.toAbsolutePath());
+    }
+
+    private void account() throws Exception {
+        mModel.account().setAccount(
+                BenchFixture.keyRing("Fixture <fixture@bench.kontalk.org>", PASSPHRASE)
+                        .generateSecretKeyRing().getEncoded(),
+                PASSPHRASE);
+        mModel.setUserJID(JID.bare("fixture@bench.kontalk.org"));
+    }
+
+    private void contacts(int count) throws Exception {
+        List<byte[]> keys = new ArrayList<>(KEY_POOL_SIZE);
+        for (int i = 0; i < KEY_POOL_SIZE; i++)
+            keys.add(BenchFixture.keyRing("Key " + i + " <key" + i + "@bench.kontalk.org>",
+                    PASSPHRASE).generatePublicKeyRing().getEncoded());
+        List<String> fingerprints = new ArrayList<>(KEY_POOL_SIZE);
+        for (byte[] key : keys)
+            fingerprints.add(PGPUtils.readPublicKey(key).get().fingerprint);
+
+        Model.database().beginBatch();
+        for (int i = 0; i < count; i++) {
+            Contact contact = mModel.contacts().create(BenchFixture.jid(i),
+                    "Contact " + i).orElse(null);
+            if (contact == null)
+                throw new IllegalStateException("can't create contact");
+
+            contact.setSubscriptionStatus(Contact.Subscription.SUBSCRIBED);
+            contact.setStatusText(this.text(1, 6));
+            contact.setLastSeen(new Date(System.currentTimeMillis()
+                    - (long) (mRandom.nextDouble() * TIME_SPAN)), "");
+            // some contacts without key, unencrypted chats
+            if (i % 10 != 9)
+                contact.setKey(keys.get(i % keys.size()), fingerprints.get(i % keys.size()));
+            if (i % 3 == 0)
+                contact.setAvatar(this.avatar(i));
+            mContacts.add(contact);
+        }
+        Model.database().endBatch();
+    }
+
+    private void chats(int singleChats, int groupChats) {
+        Contact me = mModel.contacts().getMe().orElseThrow(IllegalStateException::new);
+        Model.database().beginBatch();
+        for (int i = 0; i < singleChats; i++)
+            mChats.add(mModel.chats().getOrCreate(mContacts.get(i)));
+
+        for (int i = 0; i < groupChats; i++) {
+            List<ProtoMember> members = new ArrayList<>();
+            members.add(new ProtoMember(me, ProtoMember.Role.OWNER));
+            int size = 2 + mRandom.nextInt(MAX_GROUP_SIZE - 1);
+            List<Contact> shuffled = new ArrayList<>(mContacts);
+            Collections.shuffle(shuffled, mRandom);
+            shuffled.stream().limit(size).forEach(c -> members.add(new ProtoMember(c)));
+            mChats.add(mModel.chats().createNew(members,
+                    new KonGroupData(me.getJID(), EncodingUtils.randomString(8)),
+                    "Group " + i));
+        }
+        Model.database().endBatch();
+
+        // Zipf-like: chat i gets a share proportional to 1/(i+1)
+        mChatWeights = new double[mChats.size()];
+        double sum = 0;
+        for (int i = 0; i < mChatWeights.length; i++)
+            mChatWeights[i] = sum += 1.0 / (i + 1);
+        for (int i = 0; i < mChatWeights.length; i++)
+            mChatWeights[i] /= sum;
+    }
+
+    /** @return the database ID of the last message */
+    private long messages(int count) throws IOException {
+        mImageData = image(640, 480, Color.ORANGE, "jpg");
+        mPreviewData = image(AttachmentManager.THUMBNAIL_DIM.width,
+                AttachmentManager.THUMBNAIL_DIM.height, Color.ORANGE, "jpg");
+        byte[] random = new byte[768];
+        mRandom.nextBytes(random);
+        mEncryptedData = EncodingUtils.bytesToBase64(random);
+
+        long start = System.currentTimeMillis() - TIME_SPAN;
+        long step = TIME_SPAN / Math.max(count, 1);
+        int lastID = 0;
+        Model.database().beginBatch();
+        for (int i = 0; i < count; i++) {
+            long date = start + i * step;
+            Chat chat = this.pickChat();
+            KonMessage message = mRandom.nextBoolean() ?
+                    this.inMessage(chat, date) :
+                    this.outMessage(chat, date);
+            lastID = message.getID();
+
+            if ((i + 1) % BATCH_SIZE == 0) {
+                Model.database().endBatch();
+                Model.database().beginBatch();
+            }
+            if ((i + 1) % 100_000 == 0)
+                System.out.println((i + 1) + " messages...");
+        }
+        Model.database().endBatch();
+        return lastID;
+    }
+
+    private KonMessage inMessage(Chat chat, long date) throws IOException {
+        List<Contact> contacts = chat.getValidContacts();
+        Contact contact = contacts.get(mRandom.nextInt(contacts.size()));
+        boolean encrypted = contact.hasKey();
+
+        MessageContent.Builder builder = new MessageContent.Builder();
+        Optional<String> previewMime = Optional.empty();
+        if (this.withAttachment()) {
+            String filename = "att_" + mAttachments + ".jpg";
+            Files.write(mAppDir.resolve(AttachmentManager.ATT_DIRNAME).resolve(filename), mImageData);
+            InAttachment attachment = new InAttachment(
+                    URI.create("https://bench.kontalk.org/download/" + filename));
+            attachment.setFile(filename, false);
+            builder.attachment(attachment).preview(new Preview(mPreviewData, "image/jpeg"));
+            previewMime = Optional.of("image/jpeg");
+        }
+        MessageContent text = MessageContent.plainText(this.text(1, 40));
+        ProtoMessage proto;
+        if (encrypted) {
+            proto = new ProtoMessage(contact, builder.encrypted(mEncryptedData).build());
+            proto.setDecryptedContent(text);
+            proto.setSigning(Coder.Signing.VERIFIED);
+        } else {
+            proto = new ProtoMessage(contact, builder.body(text.getPlainText()).build());
+        }
+
+        InMessage message = new InMessage(proto, chat, contact.getJID(),
+                "Kon_" + EncodingUtils.randomString(8),
+                Optional.of(new Date(date)));
+        if (previewMime.isPresent())
+            Files.write(mAppDir.resolve(AttachmentManager.PREVIEW_DIRNAME).resolve(
+                    AttachmentManager.previewFilename(message.getID(), previewMime.get())),
+                    mPreviewData);
+        return message;
+    }
+
+    private KonMessage outMessage(Chat chat, long date) throws IOException {
+        String text = this.text(1, 40);
+        MessageContent content;
+        if (this.withAttachment()) {
+            String filename = "att_" + mAttachments + ".jpg";
+            Path file = mAppDir.resolve(AttachmentManager.ATT_DIRNAME).resolve(filename);
+            Files.write(file, mImageData);
+            OutAttachment attachment = new OutAttachment(file, "image/jpeg");
+            attachment.setUploaded(URI.create("https://bench.kontalk.org/download/" + filename),
+                    "image/jpeg", mImageData.length);
+            content = MessageContent.outgoing(text, attachment);
+        } else {
+            content = MessageContent.plainText(text);
+        }
+
+        List<Contact> contacts = chat.getValidContacts();
+        OutMessage message = new OutMessage(chat, contacts, content, chat.isSendEncrypted());
+        message.setStatus(KonMessage.Status.SENT);
+        // most messages were received, recent ones maybe not
+        for (Contact contact : contacts) {
+            if (mRandom.nextInt(10) != 0)
+                message.setReceived(contact.getJID(), new Date(date + mRandom.nextInt(60_000)));
+        }
+        return message;
+    }
+
+    private Chat pickChat() {
+        int i = Arrays.binarySearch(mChatWeights, mRandom.nextDouble());
+        return mChats.get(Math.min(i >= 0 ? i : -i - 1, mChats.size() - 1));
+    }
+
+    private boolean withAttachment() {
+        if (mRandom.nextInt(50) != 0)
+            return false;
+        mAttachments++;
+        return true;
+    }
+
+    private String text(int minWords, int maxWords) {
+        int n = minWords + mRandom.nextInt(maxWords - minWords + 1);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            if (i > 0)
+                sb.append(' ');
+            sb.append(WORDS[mRandom.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private Avatar.DefaultAvatar avatar(int i) throws IOException {
+        Color color = Color.getHSBColor(i * 0.618f % 1, 0.6f, 0.9f);
+        BufferedImage image = new BufferedImage(40, 40, BufferedImage.TYPE_INT_RGB);
+        paint(image, color);
+        // ID is the SHA-1 of the image data, like for published avatars
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return new Avatar.DefaultAvatar(DigestUtils.sha1Hex(out.toByteArray()), image);
+    }
+
+    private static byte[] image(int width, int height, Color color, String format)
+            throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        paint(image, color);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+
+    private static void paint(BufferedImage image, Color color) {
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, color, image.getWidth(), image.getHeight(), Color.WHITE));
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.dispose();
+    }
+
+    /**
+     * The model sets the creation (and sent) date of new messages to now,
+     * spread them linearly over the time span instead (message IDs are in
+     * creation order).
+     */
+    private static void spreadDates(Path appDir, int count, long lastID) throws SQLException {
+        if (count == 0)
+            return;
+
+        long start = System.currentTimeMillis() - TIME_SPAN;
+        long step = TIME_SPAN / count;
+        long firstID = lastID - count + 1;
+        String url = "jdbc:sqlite:" + appDir.resolve(Database.FILENAME);
+        try (Connection conn = DriverManager.getConnection(url);
+                PreparedStatement stat = conn.prepareStatement(
+                        "UPDATE " + KonMessage.TABLE + " SET "
+                        + KonMessage.COL_DATE + " = ?1 + (_id - ?2) * ?3, "
+                        + KonMessage.COL_SERV_DATE + " = CASE WHEN "
+                        + KonMessage.COL_SERV_DATE + " IS NULL THEN NULL ELSE ?1 + (_id - ?2) * ?3 END")) {
+            stat.setLong(1, start);
+            stat.setLong(2, firstID);
+            stat.setLong(3, step);
+            stat.executeUpdate();
+        }
+    }
+}
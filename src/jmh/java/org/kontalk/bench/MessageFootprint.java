@@ -0,0 +1,106 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.kontalk.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import org.kontalk.crypto.PGPUtils;
+import org.kontalk.model.Contact;
+import org.kontalk.model.Model;
+import org.kontalk.model.chat.Chat;
+import org.kontalk.model.message.KonMessage;
+import org.kontalk.persistence.Config;
+import org.kontalk.persistence.Database;
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * Print the memory footprint of all messages of an account, measured with JOL.
+ *
+ * The account (e.g. created with {@link FixtureGenerator}) is loaded like on
+ * startup. Objects shared with contacts are not counted. The chat with the
+ * most messages is measured separately, e.g. for a fixture with a single
+ * chat of 100k messages.
+ *
+ * Usage: MessageFootprint [directory] [-v]
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+public final class MessageFootprint {
+
+    private MessageFootprint() {}
+
+    public static void main(String[] args) throws Exception {
+        Path appDir = Paths.get(args.length > 0 ? args[0] : "build/fixture");
+        boolean verbose = args.length > 1 && args[1].equals("-v");
+        if (!Files.isDirectory(appDir))
+            throw new IllegalArgumentException("not a directory: " + appDir);
+
+        Logger.getLogger("").setLevel(Level.WARNING);
+        PGPUtils.registerProvider();
+
+        Config.initialize(appDir);
+        Database db = new Database(appDir);
+        Model model = Model.setup(db, appDir);
+        model.loadContacts();
+        model.loadChats();
+
+        List<KonMessage> messages = model.chats().getAll().stream()
+                .flatMap(chat -> chat.getMessages().getAll().stream())
+                .collect(Collectors.toList());
+        if (messages.isEmpty())
+            throw new IllegalArgumentException("no messages: " + appDir);
+
+        // messages reference their chats and through them all other messages;
+        // contacts reference their observers (e.g. chats), forget them or
+        // the messages would be subtracted too
+        Set<Contact> contacts = model.contacts().getAll(true, true);
+        contacts.forEach(Contact::deleteObservers);
+        GraphLayout contactLayout = GraphLayout.parseInstance(contacts.toArray());
+
+        GraphLayout layout = GraphLayout.parseInstance(messages.toArray())
+                .subtract(contactLayout);
+        if (verbose)
+            System.out.println(layout.toFootprint());
+        print("all chats", messages.size(), layout);
+
+        Chat largest = model.chats().getAll().stream()
+                .max(Comparator.comparingInt(chat -> chat.getMessages().size()))
+                .orElseThrow(IllegalStateException::new);
+        Set<KonMessage> chatMessages = largest.getMessages().getAll();
+        // the chat itself (with its message container) is part of the graph
+        GraphLayout chatLayout = GraphLayout.parseInstance(chatMessages.toArray())
+                .subtract(contactLayout);
+        print("largest chat", chatMessages.size(), chatLayout);
+
+        db.close();
+    }
+
+    private static void print(String name, int messages, GraphLayout layout) {
+        System.out.printf("%s: %d messages, %d objects, %d bytes, %.1f bytes per message%n",
+                name, messages, layout.totalCount(), layout.totalSize(),
+                layout.totalSize() / (double) messages);
+    }
+}
@@ -0,0 +1,435 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.bench;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.util.StringUtils;
+import org.kontalk.client.PublicKeyPublish;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Minimal in-process XMPP server for one client connection on the loopback
+ * interface.
+ *
+ * Supports what the client needs to log in: STARTTLS with a self-signed
+ * certificate (client must not validate certificates), SASL (any mechanism in
+ * {@link #SASL_MECHANISMS} is accepted) and resource binding. Roster and
+ * service discovery requests get empty results, public key requests are
+ * answered with keys set by {@link #setPublicKey}, all other IQ requests get
+ * a "service-unavailable" error.
+ *
+ * Stanzas (XML strings) can be injected with {@link #send}. Messages with body
+ * sent by the client are recorded, see {@link #takeSent}.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+public final class StubServer implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(StubServer.class.getName());
+
+    private static final String NS_TLS = "urn:ietf:params:xml:ns:xmpp-tls";
+    private static final String NS_SASL = "urn:ietf:params:xml:ns:xmpp-sasl";
+    private static final String NS_BIND = "urn:ietf:params:xml:ns:xmpp-bind";
+    private static final String NS_SESSION = "urn:ietf:params:xml:ns:xmpp-session";
+    private static final String NS_ROSTER = "jabber:iq:roster";
+    private static final String NS_DISCO_INFO = "http://jabber.org/protocol/disco#info";
+    private static final String NS_DISCO_ITEMS = "http://jabber.org/protocol/disco#items";
+    private static final String NS_STANZAS = "urn:ietf:params:xml:ns:xmpp-stanzas";
+
+    private static final List<String> SASL_MECHANISMS = Arrays.asList("EXTERNAL", "ANONYMOUS");
+
+    private static final char[] KEYSTORE_PASS = "stub".toCharArray();
+
+    /** Outgoing message of the client. */
+    public static final class Sent {
+        public final String id;
+        public final String to;
+
+        Sent(String id, String to) {
+            this.id = id;
+            this.to = to;
+        }
+    }
+
+    private final String mDomain;
+    private final String mUser;
+    private final ServerSocket mServerSocket;
+    private final SSLContext mSSLContext;
+    private final Map<String, byte[]> mPublicKeys = new ConcurrentHashMap<>();
+    private final LinkedBlockingQueue<Sent> mSent = new LinkedBlockingQueue<>();
+    private final CountDownLatch mAvailable = new CountDownLatch(1);
+    private final AtomicInteger mStreamID = new AtomicInteger();
+
+    private List<String> mOnAvailable = Collections.emptyList();
+
+    private volatile Socket mSocket = null;
+    // guarded by itself
+    private volatile Writer mWriter = null;
+    private volatile String mBoundJID = null;
+    private volatile long mAvailableNanos = 0;
+
+    /**
+     * Start a server for a XMPP domain ("network"), the client is bound to
+     * 'user'@'domain'.
+     */
+    public StubServer(String domain, String user) throws IOException, GeneralSecurityException {
+        mDomain = domain;
+        mUser = user;
+        mSSLContext = createSSLContext(domain);
+        mServerSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+
+        Thread thread = new Thread(this::accept, "Stub Server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        return mServerSocket.getLocalPort();
+    }
+
+    public String getDomain() {
+        return mDomain;
+    }
+
+    /** The full JID the client is bound to, null if not bound. */
+    public String getBoundJID() {
+        return mBoundJID;
+    }
+
+    /**
+     * Stanzas sent right after the client sent its first presence, like a
+     * server delivers offline messages.
+     */
+    public void setOnAvailable(List<String> stanzas) {
+        mOnAvailable = stanzas;
+    }
+
+    /** Time (nanoseconds) the stanzas for an available client were sent. */
+    public long getAvailableNanos() {
+        return mAvailableNanos;
+    }
+
+    /** Public key returned for key requests to a bare JID. */
+    public void setPublicKey(String jid, byte[] keyData) {
+        mPublicKeys.put(jid, keyData);
+    }
+
+    /** Wait until the client is logged in and sent its presence. */
+    public boolean awaitAvailable(long timeout, TimeUnit unit) throws InterruptedException {
+        return mAvailable.await(timeout, unit);
+    }
+
+    /** Send stanzas to the client, flushed once. */
+    public void send(List<String> stanzas) throws IOException {
+        Writer writer = mWriter;
+        if (writer == null)
+            throw new IOException("no client connected");
+
+        synchronized (writer) {
+            for (String stanza : stanzas)
+                writer.write(stanza);
+            writer.flush();
+        }
+    }
+
+    public void send(String stanza) throws IOException {
+        this.send(Collections.singletonList(stanza));
+    }
+
+    /** Wait for the next message with body sent by the client. */
+    public Sent takeSent(long timeout, TimeUnit unit) throws InterruptedException {
+        return mSent.poll(timeout, unit);
+    }
+
+    @Override
+    public void close() throws IOException {
+        Socket socket = mSocket;
+        if (socket != null)
+            socket.close();
+        mServerSocket.close();
+    }
+
+    private void accept() {
+        try (Socket socket = mServerSocket.accept()) {
+            mSocket = socket;
+            socket.setTcpNoDelay(true);
+            this.serve(socket);
+        } catch (IOException | XmlPullParserException ex) {
+            if (!mServerSocket.isClosed())
+                LOGGER.log(Level.WARNING, "connection failed", ex);
+        }
+        LOGGER.info("client disconnected");
+    }
+
+    private void serve(Socket socket) throws IOException, XmlPullParserException {
+        XmlPullParser parser = this.openStream(socket);
+        // plain stream: only STARTTLS
+        this.writeRaw("<stream:features><starttls xmlns='" + NS_TLS + "'><required/></starttls>"
+                + "</stream:features>");
+        nextElement(parser);
+        if (!parser.getName().equals("starttls"))
+            throw new IOException("expected starttls, got " + parser.getName());
+        this.writeRaw("<proceed xmlns='" + NS_TLS + "'/>");
+
+        SSLSocket sslSocket = (SSLSocket) mSSLContext.getSocketFactory().createSocket(
+                socket, socket.getInetAddress().getHostAddress(), socket.getPort(), true);
+        sslSocket.setUseClientMode(false);
+        sslSocket.startHandshake();
+
+        // encrypted stream: authentication
+        parser = this.openStream(sslSocket);
+        StringBuilder features = new StringBuilder("<stream:features><mechanisms xmlns='" + NS_SASL + "'>");
+        for (String mechanism : SASL_MECHANISMS)
+            features.append("<mechanism>").append(mechanism).append("</mechanism>");
+        this.writeRaw(features.append("</mechanisms></stream:features>").toString());
+        nextElement(parser);
+        if (!parser.getName().equals("auth"))
+            throw new IOException("expected auth, got " + parser.getName());
+        LOGGER.config("authenticated, mechanism: " + parser.getAttributeValue(null, "mechanism"));
+        skip(parser);
+        this.writeRaw("<success xmlns='" + NS_SASL + "'/>");
+
+        // authenticated stream: stanzas
+        parser = this.openStream(sslSocket);
+        this.writeRaw("<stream:features><bind xmlns='" + NS_BIND + "'/>"
+                + "<session xmlns='" + NS_SESSION + "'><optional/></session></stream:features>");
+        while (nextElement(parser)) {
+            switch (parser.getName()) {
+                case "iq":
+                    this.handleIQ(parser);
+                    break;
+                case "message":
+                    this.handleMessage(parser);
+                    break;
+                case "presence":
+                    this.handlePresence(parser);
+                    break;
+                default:
+                    LOGGER.config("ignoring element: " + parser.getName());
+                    skip(parser);
+            }
+        }
+        this.writeRaw("</stream:stream>");
+    }
+
+    /** Wait for the client stream header and answer it. */
+    private XmlPullParser openStream(Socket socket) throws IOException, XmlPullParserException {
+        Reader reader = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
+        Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+        XmlPullParser parser = PacketParserUtils.newXmppParser(reader);
+        int event;
+        while ((event = parser.next()) != XmlPullParser.START_TAG) {
+            if (event == XmlPullParser.END_DOCUMENT)
+                throw new IOException("stream closed");
+        }
+        if (!parser.getName().equals("stream"))
+            throw new IOException("expected stream header, got " + parser.getName());
+
+        mWriter = writer;
+        this.writeRaw("<?xml version='1.0' encoding='UTF-8'?>"
+                + "<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'"
+                + " from='" + mDomain + "' id='stub" + mStreamID.incrementAndGet() + "'"
+                + " version='1.0' xml:lang='en'>");
+        return parser;
+    }
+
+    private void handleIQ(XmlPullParser parser) throws IOException, XmlPullParserException {
+        String id = escapedAttribute(parser, "id");
+        String type = parser.getAttributeValue(null, "type");
+        String to = parser.getAttributeValue(null, "to");
+        String from = to == null ? mDomain : escapedAttribute(parser, "to");
+
+        String childName = "";
+        String childNS = "";
+        String childText = "";
+        int depth = parser.getDepth();
+        while (!(parser.next() == XmlPullParser.END_TAG && parser.getDepth() == depth)) {
+            if (parser.getEventType() == XmlPullParser.START_TAG && childName.isEmpty()) {
+                childName = parser.getName();
+                childNS = parser.getNamespace();
+            } else if (parser.getEventType() == XmlPullParser.START_TAG
+                    && parser.getName().equals("resource")) {
+                childText = parser.nextText();
+            }
+        }
+
+        if ("result".equals(type) || "error".equals(type))
+            return;
+
+        String response;
+        if (childNS.equals(NS_BIND)) {
+            mBoundJID = mUser + "@" + mDomain + "/"
+                    + (childText.isEmpty() ? "stub" : childText);
+            response = "<bind xmlns='" + NS_BIND + "'><jid>"
+                    + StringUtils.escapeForXmlText(mBoundJID).toString() + "</jid></bind>";
+        } else if (childNS.equals(NS_SESSION)) {
+            response = "";
+        } else if (childNS.equals(NS_ROSTER) && "get".equals(type)) {
+            response = "<query xmlns='" + NS_ROSTER + "'/>";
+        } else if (childNS.equals(NS_DISCO_INFO) || childNS.equals(NS_DISCO_ITEMS)) {
+            response = "<query xmlns='" + childNS + "'/>";
+        } else if (childName.equals(PublicKeyPublish.ELEMENT_NAME)
+                && childNS.equals(PublicKeyPublish.NAMESPACE)
+                && to != null && mPublicKeys.containsKey(to)) {
+            response = "<" + childName + " xmlns='" + childNS + "'>"
+                    + Base64.getEncoder().encodeToString(mPublicKeys.get(to))
+                    + "</" + childName + ">";
+        } else {
+            this.writeRaw("<iq type='error' id='" + id + "' from='" + from + "'>"
+                    + "<error type='cancel'><service-unavailable xmlns='" + NS_STANZAS + "'/>"
+                    + "</error></iq>");
+            return;
+        }
+        this.writeRaw("<iq type='result' id='" + id + "' from='" + from + "'>" + response + "</iq>");
+    }
+
+    private void handleMessage(XmlPullParser parser) throws IOException, XmlPullParserException {
+        String id = parser.getAttributeValue(null, "id");
+        String to = parser.getAttributeValue(null, "to");
+        boolean hasBody = false;
+        int depth = parser.getDepth();
+        while (!(parser.next() == XmlPullParser.END_TAG && parser.getDepth() == depth)) {
+            if (parser.getEventType() == XmlPullParser.START_TAG
+                    && parser.getDepth() == depth + 1
+                    && parser.getName().equals("body"))
+                hasBody = true;
+        }
+        if (hasBody && id != null && to != null)
+            mSent.offer(new Sent(id, to));
+    }
+
+    private void handlePresence(XmlPullParser parser) throws IOException, XmlPullParserException {
+        boolean initial = parser.getAttributeValue(null, "to") == null
+                && parser.getAttributeValue(null, "type") == null;
+        skip(parser);
+        if (initial && mAvailable.getCount() > 0) {
+            mAvailableNanos = System.nanoTime();
+            this.send(mOnAvailable);
+            mAvailable.countDown();
+        }
+    }
+
+    private void writeRaw(String xml) throws IOException {
+        Writer writer = mWriter;
+        synchronized (writer) {
+            writer.write(xml);
+            writer.flush();
+        }
+    }
+
+    private static String escapedAttribute(XmlPullParser parser, String name) {
+        String value = parser.getAttributeValue(null, name);
+        return value == null ? "" : StringUtils.escapeForXmlAttributeApos(value).toString();
+    }
+
+    /** Move to the next top-level element (depth 2), false if stream ended. */
+    private static boolean nextElement(XmlPullParser parser)
+            throws IOException, XmlPullParserException {
+        while (true) {
+            int event = parser.next();
+            if (event == XmlPullParser.END_DOCUMENT)
+                return false;
+            if (event == XmlPullParser.END_TAG && parser.getDepth() == 1)
+                return false;
+            if (event == XmlPullParser.START_TAG && parser.getDepth() == 2)
+                return true;
+        }
+    }
+
+    private static void skip(XmlPullParser parser) throws IOException, XmlPullParserException {
+        int depth = parser.getDepth();
+        while (!(parser.next() == XmlPullParser.END_TAG && parser.getDepth() == depth)) {
+            if (parser.getEventType() == XmlPullParser.END_DOCUMENT)
+                throw new IOException("stream closed");
+        }
+    }
+
+    private static SSLContext createSSLContext(String domain)
+            throws GeneralSecurityException, IOException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+
+        X500Name name = new X500Name("CN=" + domain);
+        Date now = new Date();
+        X509Certificate cert;
+        try {
+            cert = new JcaX509CertificateConverter().getCertificate(
+                    new JcaX509v3CertificateBuilder(name,
+                            BigInteger.valueOf(now.getTime()),
+                            new Date(now.getTime() - TimeUnit.DAYS.toMillis(1)),
+                            new Date(now.getTime() + TimeUnit.DAYS.toMillis(1)),
+                            name,
+                            keyPair.getPublic())
+                            .build(new JcaContentSignerBuilder("SHA256withRSA")
+                                    .build(keyPair.getPrivate())));
+        } catch (OperatorCreationException ex) {
+            throw new GeneralSecurityException(ex);
+        }
+
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        keyStore.setKeyEntry("stub", keyPair.getPrivate(), KEYSTORE_PASS, new Certificate[]{cert});
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, KEYSTORE_PASS);
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), null, null);
+        return context;
+    }
+}
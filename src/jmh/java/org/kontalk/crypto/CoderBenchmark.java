@@ -0,0 +1,104 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.openpgp.PGPKeyRingGenerator;
+import org.kontalk.bench.BenchFixture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PGP encryption with signing and decryption with verification, the path all
+ * encrypted messages (small) and attachments (large) take.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CoderBenchmark {
+
+    private static final char[] PASSPHRASE = "bench".toCharArray();
+
+    /** Plain data size in bytes: a text message and an attachment. */
+    @Param({"256", "1048576"})
+    public int size;
+
+    private PersonalKey mKey;
+    private List<PGPUtils.PGPCoderKey> mReceiverKeys;
+    private byte[] mPlainData;
+    private byte[] mEncryptedData;
+
+    @Setup
+    public void setup() throws Exception {
+        PGPUtils.registerProvider();
+
+        PGPKeyRingGenerator generator = BenchFixture.keyRing("Bench <bench@kontalk.org>", PASSPHRASE);
+        mKey = PersonalKey.load(generator.generateSecretKeyRing().getEncoded(), PASSPHRASE);
+        // encrypt for ourself
+        mReceiverKeys = Collections.singletonList(
+                PGPUtils.readPublicKey(generator.generatePublicKeyRing().getEncoded())
+                        .orElseThrow(IllegalStateException::new));
+
+        // random data does not compress, worst case
+        mPlainData = new byte[size];
+        new Random(42).nextBytes(mPlainData);
+        mEncryptedData = this.encrypt();
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size + 1024);
+        Encryptor.encryptAndSign(new ByteArrayInputStream(mPlainData), out,
+                mKey, mReceiverKeys);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public Object decrypt() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        Decryptor.DecryptionResult result = Decryptor.decryptAndVerify(
+                new ByteArrayInputStream(mEncryptedData), out,
+                mKey.getPrivateEncryptionKey(),
+                Optional.of(mReceiverKeys.get(0).signKey));
+        if (!result.errors.isEmpty())
+            throw new IllegalStateException("decryption errors: " + result.errors);
+        return out;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.model.chat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.kontalk.bench.BenchFixture;
+import org.kontalk.model.Contact;
+import org.kontalk.model.Model;
+import org.kontalk.model.message.KonMessage;
+import org.kontalk.model.message.MessageContent;
+import org.kontalk.model.message.OutMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Message lookups in a large chat: pending messages (on every connect), last
+ * message by XMPP ID (on every receipt) and windowing for the message view.
+ *
+ * The window benchmarks do the model work of the message list on the EDT:
+ * the newest messages when a chat is opened and one page of older messages
+ * per scroll frame, compared to all messages like before windowing. The
+ * memory footprint of such a chat is measured with {@link
+ * org.kontalk.bench.MessageFootprint}.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ChatMessagesBenchmark {
+
+    /** Like the initial window and page size of the message list. */
+    private static final int WINDOW = 100;
+
+    @Param({"10000", "100000"})
+    public int messages;
+
+    private Chat mChat;
+    private List<OutMessage> mMessages;
+    private OutMessage mOldest;
+    private OutMessage mMiddle;
+    /** Oldest message shown while scrolling up, page by page. */
+    private KonMessage mScrollOldest;
+
+    @Setup
+    public void setup() throws Exception {
+        Model model = BenchFixture.model();
+        List<Contact> contacts = BenchFixture.contacts(model, 1);
+        mChat = BenchFixture.chats(model, contacts).get(0);
+
+        mMessages = new ArrayList<>(messages);
+        Model.database().beginBatch();
+        for (int i = 0; i < messages; i++) {
+            OutMessage message = model.createOutMessage(mChat, contacts,
+                    MessageContent.plainText("message " + i))
+                    .orElseThrow(IllegalStateException::new);
+            // most messages are sent, some are still pending
+            if (i % 2 == 0)
+                message.setStatus(KonMessage.Status.SENT);
+            mMessages.add(message);
+        }
+        Model.database().endBatch();
+
+        mOldest = mMessages.get(0);
+        mMiddle = mMessages.get(messages / 2);
+        mScrollOldest = mMessages.get(messages - 1);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        BenchFixture.tearDown();
+    }
+
+    /** Add all messages to a new container, like when loading a chat. */
+    @Benchmark
+    public ChatMessages add() {
+        ChatMessages chatMessages = new ChatMessages();
+        for (OutMessage message : mMessages)
+            chatMessages.add(message);
+        return chatMessages;
+    }
+
+    @Benchmark
+    public Object getPending() {
+        return mChat.getMessages().getPending();
+    }
+
+    /** Receipt for the oldest message, worst case. */
+    @Benchmark
+    public Object getLastOldest() {
+        return mChat.getMessages().getLast(mOldest.getXMPPID());
+    }
+
+    @Benchmark
+    public Object getLastUnknown() {
+        return mChat.getMessages().getLast("unknown");
+    }
+
+    @Benchmark
+    public List<KonMessage> getNewest() {
+        return mChat.getMessages().getNewest(WINDOW);
+    }
+
+    @Benchmark
+    public List<KonMessage> getBefore() {
+        return mChat.getMessages().getBefore(mMiddle, WINDOW);
+    }
+
+    /**
+     * Frame time of scrolling up through the whole chat, one page per frame.
+     * Sampled, for the distribution of all pages and not only the average.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public List<KonMessage> scrollFrame() {
+        List<KonMessage> page = mChat.getMessages().getBefore(mScrollOldest, WINDOW);
+        // start again at the bottom after reaching the top
+        mScrollOldest = page.isEmpty() ? mMessages.get(messages - 1) : page.get(0);
+        return page;
+    }
+
+    /** Opening the chat before windowing: all messages for the list. */
+    @Benchmark
+    public List<KonMessage> sortAll() {
+        List<KonMessage> all = new ArrayList<>(mChat.getMessages().getAll());
+        Collections.reverse(all);
+        return all;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.model.message;
+
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Message content (de-)serialization, done for every message saved to and
+ * loaded from the database.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MessageContentBenchmark {
+
+    private MessageContent mText;
+    private MessageContent mAttachment;
+    private String mTextJSON;
+    private String mAttachmentJSON;
+
+    @Setup
+    public void setup() {
+        String text = StringUtils.repeat("Hello, \"world\" with ünïcödé! ", 10);
+        mText = MessageContent.plainText(text);
+        mAttachment = MessageContent.outgoing(text,
+                new MessageContent.OutAttachment(Paths.get("/tmp/file.jpg"), "image/jpeg"));
+        mTextJSON = mText.toJSON();
+        mAttachmentJSON = mAttachment.toJSON();
+    }
+
+    @Benchmark
+    public String toJSONText() {
+        return mText.toJSON();
+    }
+
+    @Benchmark
+    public String toJSONAttachment() {
+        return mAttachment.toJSON();
+    }
+
+    @Benchmark
+    public MessageContent fromJSONText() {
+        return MessageContent.fromJSONString(mTextJSON);
+    }
+
+    @Benchmark
+    public MessageContent fromJSONAttachment() {
+        return MessageContent.fromJSONString(mAttachmentJSON);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.persistence;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.kontalk.bench.BenchFixture;
+import org.kontalk.misc.KonException;
+import org.kontalk.model.Contact;
+import org.kontalk.model.Model;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Inserts and updates of single rows, each committed on its own and in a
+ * batch.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DatabaseBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    private Database mDB;
+    private int mCounter = 0;
+    private int mRowID;
+
+    @Setup
+    public void setup() throws IOException, KonException {
+        BenchFixture.model();
+        mDB = Model.database();
+        mRowID = this.insert();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchFixture.tearDown();
+    }
+
+    @Benchmark
+    public int insert() {
+        List<Object> values = Arrays.asList(
+                BenchFixture.jid(mCounter++), "name", "status", null, true,
+                null, null, null, null);
+        return mDB.execInsert(Contact.TABLE, values);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void insertBatch() {
+        mDB.beginBatch();
+        for (int i = 0; i < BATCH_SIZE; i++)
+            this.insert();
+        mDB.endBatch();
+    }
+
+    @Benchmark
+    public void update() {
+        Map<String, Object> set = Collections.singletonMap(Contact.COL_NAME,
+                "name " + mCounter++);
+        mDB.execUpdate(Contact.TABLE, set, mRowID);
+    }
+}
@@ -0,0 +1,416 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.system;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.TimeZone;
+import java.util.function.IntFunction;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+import org.kontalk.bench.BenchFixture;
+import org.kontalk.bench.StubServer;
+import org.kontalk.client.PublicKeyPublish;
+import org.kontalk.crypto.PGPUtils;
+import org.kontalk.misc.JID;
+import org.kontalk.misc.ViewEvent;
+import org.kontalk.model.Contact;
+import org.kontalk.model.Model;
+import org.kontalk.model.chat.Chat;
+import org.kontalk.model.message.InMessage;
+import org.kontalk.model.message.OutMessage;
+import org.kontalk.persistence.Config;
+import org.kontalk.view.ObserverTrait;
+
+/**
+ * End-to-end load test of the running client (without UI) against a local
+ * {@link StubServer}.
+ *
+ * Measured phases:
+ * - offline sync: a backlog of delayed messages delivered right after login
+ * - live message bursts
+ * - bursts of chat states, presences and public keys, each followed by a
+ *   marker message to wait for
+ * - receipts for outgoing messages
+ * - messages to a group chat, sent as one stanza to each member (the stub
+ *   server has no XEP-0033 support)
+ *
+ * For messages the latency from writing to the socket until the message is
+ * saved (model notification after the database transaction) and until the
+ * notification is delivered on the EDT is reported.
+ *
+ * Experimental: the test has not been run against the full client yet, the
+ * stub server may lack something the client needs and the reported numbers
+ * are not validated.
+ *
+ * Usage: LoadTest [offline messages] [burst size] [senders] [max offline sync ms] [group size]
+ * Exit status is 1 if the offline sync took longer than the given maximum.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+public final class LoadTest {
+    private static final String SERVER = "localhost";
+    // not a Kontalk domain: senders are not encrypted and keys are not requested
+    private static final String SENDER_DOMAIN = "load.example.org";
+    private static final char[] PASSPHRASE = "load".toCharArray();
+    private static final long TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+    private static final int GROUP_MESSAGES = 50;
+
+    private final StubServer mServer;
+    private final Control mControl;
+    private final int mSenders;
+    private final Probe mProbe = new Probe();
+
+    private int mSeq = 0;
+
+    private LoadTest(StubServer server, Control control, int senders) {
+        mServer = server;
+        mControl = control;
+        mSenders = senders;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int offline = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int burst = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int senders = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        long maxSyncMillis = args.length > 3 ? Long.parseLong(args[3]) : Long.MAX_VALUE;
+        int groupSize = args.length > 4 ? Integer.parseInt(args[4]) : 100;
+
+        // logging of every stanza would dominate the measurement
+        Logger.getLogger("").setLevel(Level.WARNING);
+        System.setProperty("java.awt.headless", "true");
+        PGPUtils.registerProvider();
+
+        Path appDir = Files.createTempDirectory("kontalk_load");
+        StubServer server = new StubServer(SERVER, "load");
+        Control control = new Control(appDir);
+
+        Config config = Config.getInstance();
+        config.setProperty(Config.SERV_HOST, SERVER);
+        config.setProperty(Config.SERV_PORT, server.getPort());
+        config.setProperty(Config.SERV_CERT_VALIDATION, false);
+        config.setProperty(Config.MAIN_CONNECT_STARTUP, false);
+        config.setProperty(Config.NET_RETRY_CONNECT, false);
+        config.setProperty(Config.NET_REQUEST_AVATARS, false);
+        control.getModel().account().setAccount(
+                BenchFixture.keyRing("Load <load@" + SERVER + ">", PASSPHRASE)
+                        .generateSecretKeyRing().getEncoded(),
+                PASSPHRASE);
+
+        LoadTest test = new LoadTest(server, control, senders);
+        boolean passed;
+        try {
+            passed = test.run(offline, burst, maxSyncMillis, groupSize);
+        } finally {
+            control.shutDown(false);
+            server.close();
+            FileUtils.deleteDirectory(appDir.toFile());
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run(int offline, int burst, long maxSyncMillis, int groupSize)
+            throws Exception {
+        mControl.launch(false);
+        mControl.getViewControl().addObserver(mProbe);
+
+        // offline sync
+        List<String> backlog = new ArrayList<>(offline);
+        List<Sample> offlineSamples = new ArrayList<>(offline);
+        for (int i = 0; i < offline; i++) {
+            Sample sample = this.nextSample();
+            backlog.add(this.chatMessage(sample, true));
+            offlineSamples.add(sample);
+        }
+        mServer.setOnAvailable(backlog);
+        mControl.getViewControl().connect();
+        if (!mServer.awaitAvailable(TIMEOUT, TimeUnit.MILLISECONDS))
+            throw new IllegalStateException("client did not log in");
+        long synced = this.await(offlineSamples, mServer.getAvailableNanos());
+        this.report("offline sync", offlineSamples, synced);
+
+        // live messages
+        List<Sample> samples = new ArrayList<>(burst);
+        List<String> stanzas = new ArrayList<>(burst);
+        for (int i = 0; i < burst; i++) {
+            Sample sample = this.nextSample();
+            stanzas.add(this.chatMessage(sample, false));
+            samples.add(sample);
+        }
+        this.report("live messages", samples, this.await(samples, this.send(stanzas)));
+
+        // chat states, presences and public keys
+        String[] states = {"composing", "paused", "active", "inactive"};
+        this.fenced("chat states", burst, i -> "<message type='chat' from='" + this.sender(i) + "/load'>"
+                + "<" + states[i % states.length] + " xmlns='http://jabber.org/protocol/chatstates'/>"
+                + "</message>");
+        this.fenced("presences", burst, i -> "<presence from='" + this.sender(i) + "/load'"
+                + (i % 2 == 1 ? " type='unavailable'" : "") + "/>");
+        String key = Base64.getEncoder().encodeToString(
+                BenchFixture.keyRing("Sender <" + this.sender(0) + ">", PASSPHRASE)
+                        .generatePublicKeyRing().getEncoded());
+        this.fenced("public keys", burst, i -> "<iq type='result' id='key" + i + "'"
+                + " from='" + this.sender(i) + "' to='" + mServer.getBoundJID() + "'>"
+                + "<" + PublicKeyPublish.ELEMENT_NAME + " xmlns='" + PublicKeyPublish.NAMESPACE + "'>"
+                + key + "</" + PublicKeyPublish.ELEMENT_NAME + "></iq>");
+
+        this.receipts(burst);
+
+        this.groupFanOut(groupSize, GROUP_MESSAGES);
+
+        long syncMillis = TimeUnit.NANOSECONDS.toMillis(synced);
+        if (syncMillis > maxSyncMillis) {
+            System.out.println("FAILED: offline sync took " + syncMillis + " ms, max: " + maxSyncMillis);
+            return false;
+        }
+        return true;
+    }
+
+    /** Burst of stanzas that are not saved as message, followed by a marker message. */
+    private void fenced(String name, int count, IntFunction<String> factory) throws Exception {
+        List<String> stanzas = new ArrayList<>(count + 1);
+        for (int i = 0; i < count; i++)
+            stanzas.add(factory.apply(i));
+        Sample marker = this.nextSample();
+        stanzas.add(this.chatMessage(marker, false));
+        long drained = this.await(Arrays.asList(marker), this.send(stanzas));
+        System.out.printf("%-14s %6d stanzas: %6d ms (%.0f/s)%n", name, count,
+                TimeUnit.NANOSECONDS.toMillis(drained), count / (drained / 1e9));
+    }
+
+    /** Send messages to all senders, then inject a receipt for each. */
+    private void receipts(int count) throws Exception {
+        Model model = mControl.getModel();
+        List<Chat> chats = new ArrayList<>(mSenders);
+        for (int i = 0; i < Math.min(mSenders, count); i++) {
+            Contact contact = model.contacts().get(JID.bare(this.sender(i)))
+                    .orElseThrow(() -> new IllegalStateException("sender not in contacts"));
+            chats.add(model.chats().getOrCreate(contact));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+            mControl.getViewControl().sendText(chats.get(i % chats.size()), "out " + i);
+
+        List<String> stanzas = new ArrayList<>(count);
+        List<OutMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StubServer.Sent sent = mServer.takeSent(TIMEOUT, TimeUnit.MILLISECONDS);
+            if (sent == null)
+                throw new IllegalStateException("message not sent");
+            JID jid = JID.full(sent.to).toBare();
+            Chat chat = model.chats().getOrCreate(model.contacts().get(jid).get());
+            messages.add(chat.getMessages().getLast(sent.id)
+                    .orElseThrow(() -> new IllegalStateException("message not found")));
+            stanzas.add("<message type='chat' from='" + jid.string() + "/load'>"
+                    + "<received xmlns='urn:xmpp:receipts' id='" + sent.id + "'/></message>");
+        }
+        long sentTime = System.nanoTime() - start;
+        System.out.printf("%-14s %6d messages: %6d ms (%.0f/s)%n", "sending", count,
+                TimeUnit.NANOSECONDS.toMillis(sentTime), count / (sentTime / 1e9));
+
+        long written = this.send(stanzas);
+        long deadline = written + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+        for (OutMessage message : messages) {
+            while (!message.getTransmissions().iterator().next().getReceivedDate().isPresent()) {
+                if (System.nanoTime() > deadline)
+                    throw new IllegalStateException("receipt not processed: " + message);
+                Thread.sleep(1);
+            }
+        }
+        long drained = System.nanoTime() - written;
+        System.out.printf("%-14s %6d stanzas: %6d ms (%.0f/s)%n", "receipts", count,
+                TimeUnit.NANOSECONDS.toMillis(drained), count / (drained / 1e9));
+    }
+
+    /** Send messages to a new group chat, wait until the server got all stanzas. */
+    private void groupFanOut(int members, int count) throws Exception {
+        List<Contact> contacts = new ArrayList<>(members);
+        for (int i = 0; i < members; i++) {
+            contacts.add(mControl.getOrCreateContact(JID.bare("member" + i + "@" + SENDER_DOMAIN))
+                    .orElseThrow(() -> new IllegalStateException("can't create member")));
+        }
+        Chat chat = mControl.getViewControl().createGroupChat(contacts, "load")
+                .orElseThrow(() -> new IllegalStateException("can't create group"));
+        // group creation command
+        this.takeSent(members);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+            mControl.getViewControl().sendText(chat, "group " + i);
+        this.takeSent(members * count);
+        long time = System.nanoTime() - start;
+        System.out.printf("%-14s %6d stanzas: %6d ms (%.0f/s), %d members%n", "group fan-out",
+                members * count, TimeUnit.NANOSECONDS.toMillis(time),
+                members * count / (time / 1e9), members);
+    }
+
+    private void takeSent(int count) throws InterruptedException {
+        for (int i = 0; i < count; i++) {
+            if (mServer.takeSent(TIMEOUT, TimeUnit.MILLISECONDS) == null)
+                throw new IllegalStateException("message not sent");
+        }
+    }
+
+    private Sample nextSample() {
+        int seq = mSeq++;
+        Sample sample = new Sample(seq, this.sender(seq));
+        mProbe.expect(sample);
+        return sample;
+    }
+
+    private String sender(int i) {
+        return "sender" + (i % mSenders) + "@" + SENDER_DOMAIN;
+    }
+
+    private String chatMessage(Sample sample, boolean delayed) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return "<message type='chat' id='" + Sample.xmppID(sample.seq) + "'"
+                + " from='" + sample.sender + "/load' to='" + mServer.getBoundJID() + "'>"
+                + "<body>load message " + sample.seq + "</body>"
+                + "<request xmlns='urn:xmpp:receipts'/>"
+                + (delayed ?
+                        "<delay xmlns='urn:xmpp:delay' stamp='" + format.format(new Date()) + "'/>" :
+                        "")
+                + "</message>";
+    }
+
+    /** Write stanzas, return the time (nanoseconds) they were written. */
+    private long send(List<String> stanzas) throws IOException {
+        long time = System.nanoTime();
+        mServer.send(stanzas);
+        return time;
+    }
+
+    /** Wait until all samples are rendered; return time until last one was saved. */
+    private long await(List<Sample> samples, long sentNanos) throws InterruptedException {
+        for (Sample sample : samples) {
+            sample.sent = sentNanos;
+            if (!sample.rendered.await(TIMEOUT, TimeUnit.MILLISECONDS))
+                throw new IllegalStateException("message not received: " + sample.seq);
+        }
+        long last = 0;
+        for (Sample sample : samples)
+            last = Math.max(last, sample.saved);
+        return last - sentNanos;
+    }
+
+    private void report(String name, List<Sample> samples, long drained) {
+        long[] saved = samples.stream().mapToLong(s -> s.saved - s.sent).sorted().toArray();
+        long[] rendered = samples.stream().mapToLong(s -> s.shown - s.sent).sorted().toArray();
+        System.out.printf("%-14s %6d messages: %6d ms (%.0f/s)%n", name, samples.size(),
+                TimeUnit.NANOSECONDS.toMillis(drained), samples.size() / (drained / 1e9));
+        System.out.println("  saved    (ms) " + percentiles(saved));
+        System.out.println("  rendered (ms) " + percentiles(rendered));
+    }
+
+    private static String percentiles(long[] sorted) {
+        return String.format("p50=%.1f p90=%.1f p99=%.1f max=%.1f",
+                sorted[sorted.length / 2] / 1e6,
+                sorted[(int) (sorted.length * 0.9)] / 1e6,
+                sorted[(int) (sorted.length * 0.99)] / 1e6,
+                sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static final class Sample {
+        final int seq;
+        final String sender;
+        final CountDownLatch rendered = new CountDownLatch(1);
+        volatile long sent;
+        volatile long saved;
+        volatile long shown;
+
+        Sample(int seq, String sender) {
+            this.seq = seq;
+            this.sender = sender;
+        }
+
+        static String xmppID(int seq) {
+            return "load-" + seq;
+        }
+
+        static int seq(String xmppID) {
+            return xmppID.startsWith("load-") ? Integer.parseInt(xmppID.substring(5)) : -1;
+        }
+    }
+
+    /**
+     * Observer like the view. Only the newest message of a chat in a batch is
+     * notified, all older expected messages of the same sender are done too.
+     */
+    private static final class Probe implements ObserverTrait {
+        // guarded by itself
+        private final Map<String, ArrayDeque<Sample>> mExpected = new HashMap<>();
+        private final Map<Object, List<Sample>> mSaved = new ConcurrentHashMap<>();
+
+        void expect(Sample sample) {
+            synchronized (mExpected) {
+                mExpected.computeIfAbsent(sample.sender, k -> new ArrayDeque<>()).add(sample);
+            }
+        }
+
+        @Override
+        public void update(Observable o, Object arg) {
+            if (arg instanceof ViewEvent.NewMessage) {
+                long now = System.nanoTime();
+                InMessage message = ((ViewEvent.NewMessage) arg).message;
+                int seq = Sample.seq(message.getXMPPID());
+                String sender = message.getSender().map(c -> c.getJID().string()).orElse("");
+                List<Sample> saved = new ArrayList<>();
+                synchronized (mExpected) {
+                    ArrayDeque<Sample> queue = mExpected.get(sender);
+                    while (queue != null && !queue.isEmpty() && queue.peek().seq <= seq)
+                        saved.add(queue.poll());
+                }
+                saved.forEach(s -> s.saved = now);
+                mSaved.put(arg, saved);
+            }
+            ObserverTrait.super.update(o, arg);
+        }
+
+        @Override
+        public void updateOnEDT(Observable o, Object arg) {
+            List<Sample> saved = mSaved.remove(arg);
+            if (saved == null)
+                return;
+
+            long now = System.nanoTime();
+            for (Sample sample : saved) {
+                sample.shown = now;
+                sample.rendered.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.util;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading and scaling of photos for thumbnails, avatars and image attachments.
+ *
+ * The JPEG files in the "images" directory are used, e.g. from a phone
+ * camera. Each call reads the next file from disk, the score is the average
+ * over all files. Thumbnails are created with a full decode (like before
+ * subsampling) and with a subsampled decode.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MediaUtilsBenchmark {
+
+    private static final int THUMBNAIL_WIDTH = 300;
+    private static final int THUMBNAIL_HEIGHT = 200;
+
+    /** Directory with JPEG photos. */
+    @Param({"build/bench-images"})
+    public String images;
+
+    private final List<File> mFiles = new ArrayList<>();
+    private int mNext = 0;
+    /** The first photo, fully decoded. */
+    private BufferedImage mImage;
+
+    @Setup
+    public void setup() throws IOException {
+        Path dir = Paths.get(images);
+        if (!Files.isDirectory(dir))
+            throw new IllegalStateException("no image directory: " + dir.toAbsolutePath());
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.{jpg,jpeg,JPG,JPEG}")) {
+            stream.forEach(path -> mFiles.add(path.toFile()));
+        }
+        if (mFiles.isEmpty())
+            throw new IllegalStateException("no JPEG files in " + dir.toAbsolutePath());
+        mFiles.sort(null);
+
+        mImage = MediaUtils.readImage(mFiles.get(0))
+                .orElseThrow(() -> new IllegalStateException("can't read " + mFiles.get(0)));
+    }
+
+    private File nextFile() {
+        File file = mFiles.get(mNext);
+        mNext = (mNext + 1) % mFiles.size();
+        return file;
+    }
+
+    /** Thumbnail from file, the whole image is decoded. */
+    @Benchmark
+    public BufferedImage thumbnailFullDecode() {
+        BufferedImage image = MediaUtils.readImage(this.nextFile())
+                .orElseThrow(IllegalStateException::new);
+        return MediaUtils.scale(image, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT);
+    }
+
+    /** Thumbnail from file, only every n-th pixel is decoded. */
+    @Benchmark
+    public BufferedImage thumbnailSubsampled() {
+        BufferedImage image = MediaUtils.readImage(this.nextFile(),
+                THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT)
+                .orElseThrow(IllegalStateException::new);
+        return MediaUtils.scale(image, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT);
+    }
+
+    /** Thumbnail in message list, from a decoded photo. */
+    @Benchmark
+    public BufferedImage scaleThumbnail() {
+        return MediaUtils.scale(mImage, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT);
+    }
+
+    /** Avatar, profile size. */
+    @Benchmark
+    public BufferedImage scaleAvatar() {
+        return MediaUtils.scale(mImage, 150, 150);
+    }
+
+    /** Attachment preview limited by pixel count. */
+    @Benchmark
+    public BufferedImage scaleMaxPixels() {
+        return MediaUtils.scale(mImage, 1000 * 1000);
+    }
+}
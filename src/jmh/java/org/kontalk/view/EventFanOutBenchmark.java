@@ -0,0 +1,92 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.view;
+
+import javax.swing.SwingUtilities;
+import java.util.Observable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Burst of model notifications from a background thread (e.g. receiving many
+ * messages) until all are handled on the EDT: coalesced delivery against one
+ * EDT task per notification.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class EventFanOutBenchmark {
+
+    private static final int BURST = 1000;
+    private static final int OBSERVERS = 10;
+
+    private Counter[] mObservers;
+    private Observable mObservable;
+
+    @Setup
+    public void setup() {
+        mObservers = new Counter[OBSERVERS];
+        for (int i = 0; i < OBSERVERS; i++)
+            mObservers[i] = new Counter();
+        mObservable = new Observable();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void coalesced() throws Exception {
+        for (int i = 0; i < BURST; i++)
+            EventCoalescer.post(mObservers[i % OBSERVERS], mObservable, null);
+        SwingUtilities.invokeAndWait(() -> {});
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void invokeLater() throws Exception {
+        for (int i = 0; i < BURST; i++) {
+            Counter observer = mObservers[i % OBSERVERS];
+            SwingUtilities.invokeLater(() -> observer.updateOnEDT(mObservable, null));
+        }
+        SwingUtilities.invokeAndWait(() -> {});
+    }
+
+    private static final class Counter implements ObserverTrait {
+        long mUpdates = 0;
+
+        @Override
+        public void updateOnEDT(Observable o, Object arg) {
+            mUpdates++;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.view;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.kontalk.bench.BenchFixture;
+import org.kontalk.model.Contact;
+import org.kontalk.model.Model;
+import org.kontalk.model.chat.Chat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Filtering the chat list while typing: search index against linear
+ * {@link org.kontalk.misc.Searchable#contains} over all chats.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SearchBenchmark {
+
+    @Param({"1000", "10000"})
+    public int chats;
+
+    /** Selective and broad query. */
+    @Param({"contact 123", "user"})
+    public String query;
+
+    private List<Chat> mChats;
+    private SearchIndex<Chat> mIndex;
+
+    @Setup
+    public void setup() throws Exception {
+        Model model = BenchFixture.model();
+        List<Contact> contacts = BenchFixture.contacts(model, chats);
+        mChats = BenchFixture.chats(model, contacts);
+
+        mIndex = new SearchIndex<>();
+        for (Chat chat : mChats)
+            mIndex.put(chat, Optional.of(keys(chat)));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        BenchFixture.tearDown();
+    }
+
+    @Benchmark
+    public Set<Chat> linear() {
+        return mChats.stream()
+                .filter(c -> c.contains(query))
+                .collect(Collectors.toSet());
+    }
+
+    @Benchmark
+    public Set<Chat> index() {
+        return mIndex.search(query, Optional.empty());
+    }
+
+    /** Typing one more character, only the previous matches are searched. */
+    @Benchmark
+    public Set<Chat> indexNarrowing() {
+        Set<Chat> previous = new HashSet<>(mIndex.search(
+                query.substring(0, query.length() - 1), Optional.empty()));
+        return mIndex.search(query, Optional.of(previous));
+    }
+
+    /** Same keys as in the chat list view. */
+    private static List<String> keys(Chat chat) {
+        List<String> keys = new ArrayList<>();
+        keys.add(chat.getSubject());
+        for (Contact contact : chat.getAllContacts()) {
+            keys.add(contact.getName());
+            keys.add(contact.getJID().string());
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.view;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.StyledDocument;
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.alee.laf.text.WebTextPane;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rendering message texts with the flyweight text pane of the message list:
+ * one page of messages, each shown in the same pane. The size of a text pane
+ * is usually cached by the list, with "layout" it is computed every time.
+ *
+ * Compares link detection on every render, swapping in one cached document
+ * per message and copying the cached styled text into the document of the
+ * pane ({@link StyledTextCache}).
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class StyledTextBenchmark {
+
+    private static final int MESSAGES = 100;
+    private static final int WIDTH = 400;
+    private static final String[] WORDS = ("hello ok yes no maybe today tomorrow "
+            + "see you later where are when what why lunch meeting call me back "
+            + "thanks great sure the a to and of in it is that on for with this")
+            .split(" ");
+
+    @Param({"false", "true"})
+    public boolean layout;
+
+    private final List<String> mTexts = new ArrayList<>(MESSAGES);
+    private final List<StyledDocument> mDocuments = new ArrayList<>(MESSAGES);
+    private WebTextPane mTextPane;
+
+    @Setup
+    public void setup() throws BadLocationException {
+        Random random = new Random(42);
+        for (int i = 0; i < MESSAGES; i++) {
+            StringBuilder text = new StringBuilder();
+            int words = 3 + random.nextInt(40);
+            for (int j = 0; j < words; j++) {
+                if (j > 0)
+                    text.append(' ');
+                text.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            if (i % 3 == 0)
+                text.append(" https://kontalk.org/page/").append(i).append("?q=").append(i);
+            mTexts.add(text.toString());
+
+            DefaultStyledDocument doc = new DefaultStyledDocument();
+            new LinkUtils.Linkifier(doc).linkify(text.toString());
+            mDocuments.add(doc);
+
+            // fill the cache
+            StyledTextCache.get(i, "", text.toString(), false);
+        }
+
+        mTextPane = new WebTextPane();
+        mTextPane.setEditable(false);
+        mTextPane.setOpaque(false);
+    }
+
+    private int layout() {
+        if (!layout)
+            return mTextPane.getDocument().getLength();
+
+        mTextPane.setSize(WIDTH, Short.MAX_VALUE);
+        Dimension size = mTextPane.getPreferredSize();
+        return size.height;
+    }
+
+    /** Link detection and styling on every render. */
+    @Benchmark
+    public int linkify() throws BadLocationException {
+        int height = 0;
+        StyledDocument doc = mTextPane.getStyledDocument();
+        for (String text : mTexts) {
+            doc.remove(0, doc.getLength());
+            new LinkUtils.Linkifier(doc).linkify(text);
+            height += this.layout();
+        }
+        return height;
+    }
+
+    /** A styled document per message, set in the pane on every render. */
+    @Benchmark
+    public int swapDocument() {
+        int height = 0;
+        for (StyledDocument doc : mDocuments) {
+            mTextPane.setStyledDocument(doc);
+            height += this.layout();
+        }
+        return height;
+    }
+
+    /** Cached styled text, copied into the document of the pane. */
+    @Benchmark
+    public int cachedText() {
+        int height = 0;
+        StyledDocument doc = mTextPane.getStyledDocument();
+        for (int i = 0; i < MESSAGES; i++) {
+            StyledTextCache.get(i, "", mTexts.get(i), false).show(doc);
+            height += this.layout();
+        }
+        return height;
+    }
+}
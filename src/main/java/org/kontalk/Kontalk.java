@@ -68,6 +68,13 @@ public final class Kontalk {
     }
 
     int start(boolean ui) {
+        return this.start(ui, 0);
+    }
+
+    /**
+     * @param apiPort port for the local API, 0 to disable
+     */
+    int start(boolean ui, int apiPort) {
         // check if already running
         int port = (1 << 14) + (1 << 15) + mAppDir.hashCode() % (1 << 14);
         try {
@@ -152,6 +159,9 @@ public final class Kontalk {
 
         control.launch(ui);
 
+        if (apiPort > 0 && !control.startLocalAPI(apiPort))
+            return 6;
+
         return 0;
     }
 
@@ -184,6 +194,13 @@ public final class Kontalk {
                 .build()
         );
         options.addOption("c", "no-gui", false, "run without user interface");
+        options.addOption(Option.builder("p")
+                .argName("port")
+                .hasArg()
+                .longOpt("api-port")
+                .desc("send and receive messages over a local socket (JSON lines)")
+                .build()
+        );
 
         CommandLineParser parser = new DefaultParser();
         CommandLine cmd;
@@ -200,11 +217,19 @@ public final class Kontalk {
 
         String appDir = cmd.getOptionValue("d", "");
 
+        int apiPort;
+        try {
+            apiPort = Integer.parseInt(cmd.getOptionValue("p", "0"));
+        } catch (NumberFormatException ex) {
+            showHelp(options);
+            return;
+        }
+
         Kontalk app = !appDir.isEmpty() ?
                 new Kontalk(Paths.get(appDir)) :
                 new Kontalk();
 
-        int returnCode = app.start(!cmd.hasOption("c"));
+        int returnCode = app.start(!cmd.hasOption("c"), apiPort);
         if (returnCode != 0)
             // didn't work
             System.exit(returnCode);
@@ -24,7 +24,6 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.jivesoftware.smack.SmackException;
-import org.jivesoftware.smack.StanzaListener;
 import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.packet.IQ;
@@ -164,7 +163,12 @@ final class AvatarSendReceiver {
         }
     }
 
-    void requestAndListen(final JID jid, final String id) {
+    /** Request avatar data and wait for the response. Blocking */
+    void request(JID jid, String id)
+            throws SmackException.NoResponseException,
+            XMPPException.XMPPErrorException,
+            SmackException.NotConnectedException,
+            InterruptedException {
         // I dont get how to use this here
         //PubSubManager manager = new PubSubManager(conn);
 
@@ -176,58 +180,53 @@ final class AvatarSendReceiver {
                         DATA_NODE,
                         Collections.singletonList(new Item(id))));
 
-        // handle response
-        StanzaListener callback = new StanzaListener() {
-            @Override
-            public void processStanza(Stanza packet)
-                    throws SmackException.NotConnectedException {
-
-                if (!(packet instanceof PubSub)) {
-                    LOGGER.warning("response not a pubsub packet");
-                    return;
-                }
-                PubSub pubSub = (PubSub) packet;
-
-                ExtensionElement itemsExt = pubSub.getExtension(PubSubElementType.ITEMS);
-                if (!(itemsExt instanceof ItemsExtension)) {
-                    LOGGER.warning("no items extension in response");
-                    return;
-                }
-
-                ItemsExtension items = (ItemsExtension) itemsExt;
-                List<? extends ExtensionElement> itemsList = items.getItems();
-                if (itemsList.isEmpty()) {
-                    // TODO why this happens?
-                    LOGGER.warning("no items in itemlist");
-                    return;
-                }
-
-                // there should be only one item
-                ExtensionElement e = itemsList.get(0);
-                if (!(e instanceof PayloadItem)) {
-                    LOGGER.warning("element not a payloaditem");
-                    return;
-                }
-
-                PayloadItem item = (PayloadItem) e;
-                ExtensionElement dataExt = item.getPayload();
-                if (!(dataExt instanceof AvatarDataExtension)) {
-                    LOGGER.warning("payload not avatar data");
-                    return;
-                }
-
-                AvatarDataExtension avatarExt = (AvatarDataExtension) dataExt;
-
-                byte[] avatarData = avatarExt.getData();
-                if (avatarData.length == 0) {
-                    LOGGER.warning("no avatar data in packet");
-                    return;
-                }
-
-                mHandler.onData(jid, id, avatarData);
-            }
-        };
+        IQ response = mConn.sendAndWait(request);
+        this.processData(jid, id, response);
+    }
+
+    private void processData(JID jid, String id, Stanza packet) {
+        if (!(packet instanceof PubSub)) {
+            LOGGER.warning("response not a pubsub packet");
+            return;
+        }
+        PubSub pubSub = (PubSub) packet;
+
+        ExtensionElement itemsExt = pubSub.getExtension(PubSubElementType.ITEMS);
+        if (!(itemsExt instanceof ItemsExtension)) {
+            LOGGER.warning("no items extension in response");
+            return;
+        }
+
+        ItemsExtension items = (ItemsExtension) itemsExt;
+        List<? extends ExtensionElement> itemsList = items.getItems();
+        if (itemsList.isEmpty()) {
+            // TODO why this happens?
+            LOGGER.warning("no items in itemlist");
+            return;
+        }
+
+        // there should be only one item
+        ExtensionElement e = itemsList.get(0);
+        if (!(e instanceof PayloadItem)) {
+            LOGGER.warning("element not a payloaditem");
+            return;
+        }
+
+        PayloadItem item = (PayloadItem) e;
+        ExtensionElement dataExt = item.getPayload();
+        if (!(dataExt instanceof AvatarDataExtension)) {
+            LOGGER.warning("payload not avatar data");
+            return;
+        }
+
+        AvatarDataExtension avatarExt = (AvatarDataExtension) dataExt;
+
+        byte[] avatarData = avatarExt.getData();
+        if (avatarData.length == 0) {
+            LOGGER.warning("no avatar data in packet");
+            return;
+        }
 
-        mConn.sendWithCallback(request, callback);
+        mHandler.onData(jid, id, avatarData);
     }
 }
@@ -21,13 +21,10 @@ package org.kontalk.client;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.EnumMap;
 import java.util.EnumSet;
-import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -54,6 +51,8 @@ import org.jxmpp.jid.Jid;
 import org.kontalk.crypto.PersonalKey;
 import org.kontalk.misc.JID;
 import org.kontalk.misc.KonException;
+import org.kontalk.misc.Metrics;
+import org.kontalk.model.message.OutMessage;
 import org.kontalk.persistence.Config;
 import org.kontalk.system.AttachmentManager;
 import org.kontalk.system.Control;
@@ -65,23 +64,26 @@ import org.kontalk.util.MessageUtils.SendTask;
  *
  * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
  */
-public final class Client implements StanzaListener, Runnable {
+public final class Client implements StanzaListener {
     private static final Logger LOGGER = Logger.getLogger(Client.class.getName());
 
     private static final String CAPS_CACHE_DIR = "caps_cache";
-    private static final LinkedBlockingQueue<Task> TASK_QUEUE = new LinkedBlockingQueue<>();
 
     public enum PresenceCommand {REQUEST, GRANT, DENY}
 
-    // NOTE: disconnect is instantaneous, all resulting exceptions should be catched
-    private enum Command {CONNECT, LAST_ACTIVITY}
-
     private final Control mControl;
 
     private final KonMessageSender mMessageSender;
+    private final CommandExecutor mExecutor;
     private final EnumMap<FeatureDiscovery.Feature, JID> mFeatures;
+    /** Server features from last discovery, reused on reconnect to same server. */
+    private final EnumMap<FeatureDiscovery.Feature, JID> mCachedFeatures;
+    private String mCachedFeaturesServer = "";
 
     private KonConnection mConn = null;
+    private KonConnectionListener mConnListener = null;
+    /** Key fingerprint and server settings the current connection was created with. */
+    private String mConnSettings = "";
     private AvatarSendReceiver mAvatarSendReceiver = null;
     private HTTPFileSlotRequester mSlotRequester = null;
     private FeatureDiscovery mFeatureDiscovery = null;
@@ -91,11 +93,13 @@ public final class Client implements StanzaListener, Runnable {
         //mLimited = limited;
 
         mMessageSender = new KonMessageSender(this);
+        mExecutor = CommandExecutor.create();
 
         // enable Smack debugging (print raw XML packets)
         //SmackConfiguration.DEBUG = true;
 
         mFeatures = new EnumMap<>(FeatureDiscovery.Feature.class);
+        mCachedFeatures = new EnumMap<>(FeatureDiscovery.Feature.class);
 
         // setting caps cache
         // NOTE: the cache is actually not used right now: only client entity requests (==full JIDs)
@@ -114,37 +118,46 @@ public final class Client implements StanzaListener, Runnable {
     }
 
     public static Client create(Control control, Path appDir) {
-        Client client = new Client(control, appDir);
-
-        Thread clientThread = new Thread(client, "Client Connector");
-        clientThread.setDaemon(true);
-        clientThread.start();
-
-        return client;
+        return new Client(control, appDir);
     }
 
     public void connect(PersonalKey key) {
+        Config config = Config.getInstance();
+        //String network = config.getString(KonConf.SERV_NET);
+        String host = config.getString(Config.SERV_HOST);
+        int port = config.getInt(Config.SERV_PORT);
+        boolean validateCertificate = config.getBoolean(Config.SERV_CERT_VALIDATION);
+        String settings = key.getFingerprint() + "|" + host + "|" + port + "|" + validateCertificate;
+
+        if (mConn != null && mConn.isDisconnectedButSmResumptionPossible()
+                && settings.equals(mConnSettings)) {
+            // connection was lost, try to resume stream with same connection
+            LOGGER.config("resuming...");
+            this.newStatus(Control.Status.CONNECTING);
+            mExecutor.submit(CommandExecutor.Kind.CONNECT, () -> {
+                this.connectAsync();
+                return null;
+            });
+            return;
+        }
+
         this.disconnect();
 
         LOGGER.config("connecting...");
         this.newStatus(Control.Status.CONNECTING);
 
-        Config config = Config.getInstance();
-        //String network = config.getString(KonConf.SERV_NET);
-        String host = config.getString(Config.SERV_HOST);
-        int port = config.getInt(Config.SERV_PORT);
         EndpointServer server = new EndpointServer(host, port);
 
-        boolean validateCertificate = config.getBoolean(Config.SERV_CERT_VALIDATION);
-
         // create connection
         mConn = new KonConnection(server,
                         key.getServerLoginKey(),
                         key.getBridgeCertificate(),
                         validateCertificate);
+        mConnSettings = settings;
 
         // connection listener
-        mConn.addConnectionListener(new KonConnectionListener(this, mControl));
+        mConnListener = new KonConnectionListener(this, mControl);
+        mConn.addConnectionListener(mConnListener);
 
         Roster roster = Roster.getInstanceFor(mConn);
         // subscriptions handled by roster handler
@@ -179,7 +192,7 @@ public final class Client implements StanzaListener, Runnable {
         StanzaFilter lastActivityFilter = new StanzaTypeFilter(LastActivity.class);
         mConn.addAsyncStanzaListener(new LastActivityListener(mControl), lastActivityFilter);
 
-        if (config.getBoolean(Config.NET_REQUEST_AVATARS)) {
+        if (!mControl.isHeadless() && config.getBoolean(Config.NET_REQUEST_AVATARS)) {
             // our service discovery: want avatar from other users
             ServiceDiscoveryManager.getInstanceFor(mConn).
                     addFeature(AvatarSendReceiver.NOTIFY_FEATURE);
@@ -191,8 +204,18 @@ public final class Client implements StanzaListener, Runnable {
         // listen to all IQ errors
         mConn.addAsyncStanzaListener(this, IQTypeFilter.ERROR);
 
+        // count all stanzas
+        Metrics.Counter received = Metrics.counter("xmpp.received");
+        mConn.addSyncStanzaListener(stanza -> received.increment(), stanza -> true);
+        Metrics.Counter sent = Metrics.counter("xmpp.sent");
+        mConn.addPacketSendingListener(stanza -> sent.increment(), stanza -> true);
+
         // continue async
-        Client.TASK_QUEUE.offer(new Client.Task(Client.Command.CONNECT, new ArrayList<>(0)));
+        // NOTE: disconnect is instantaneous, all resulting exceptions should be catched
+        mExecutor.submit(CommandExecutor.Kind.CONNECT, () -> {
+            this.connectAsync();
+            return null;
+        });
     }
 
     private void connectAsync() {
@@ -220,10 +243,27 @@ public final class Client implements StanzaListener, Runnable {
             }
         }
 
-        mFeatureDiscovery = new FeatureDiscovery(mConn);
+        boolean resumed = mConn.streamWasResumed();
+        LOGGER.info("logged in, stream resumed: " + resumed);
+        if (!resumed || mFeatureDiscovery == null)
+            mFeatureDiscovery = new FeatureDiscovery(mConn);
+        if (!resumed)
+            mMessageSender.onNewStream();
+
+        String server = mConn.getServer();
+        if (!server.equals(mCachedFeaturesServer)) {
+            // blocking
+            EnumMap<FeatureDiscovery.Feature, JID> features =
+                    mFeatureDiscovery.getServerFeatures();
+            mCachedFeatures.clear();
+            mCachedFeatures.putAll(features);
+            // discovery failed if empty, retry on next login
+            if (!features.isEmpty())
+                mCachedFeaturesServer = server;
+        }
 
         mFeatures.clear();
-        mFeatures.putAll(mFeatureDiscovery.getServerFeatures());
+        mFeatures.putAll(mCachedFeatures);
 
         mSlotRequester = mFeatures.containsKey(FeatureDiscovery.Feature.HTTP_FILE_UPLOAD) ?
                 new HTTPFileSlotRequester(mConn,
@@ -272,12 +312,27 @@ public final class Client implements StanzaListener, Runnable {
 //            Logger.getLogger(Client.class.getName()).log(Level.SEVERE, null, ex);
 //        }
 
-        this.newStatus(Control.Status.CONNECTED);
+        this.newStatus(Control.Status.CONNECTED, resumed);
 
-        this.sendBlocklistRequest();
+        // blocklist and roster state is kept on server when resumed
+        if (!resumed)
+            this.sendBlocklistRequest();
     }
 
     public void disconnect() {
+        if (mConn != null && mConn.isDisconnectedButSmResumptionPossible()) {
+            // already disconnected, forget stream state
+            KonConnection conn = mConn;
+            mConn = null;
+            mConnSettings = "";
+            // no more events from old connection
+            conn.removeConnectionListener(mConnListener);
+            // clean shutdown drops the resumption state
+            conn.disconnect();
+            this.newStatus(Control.Status.DISCONNECTED);
+            return;
+        }
+
         if (mConn != null && mConn.isConnected()) {
             this.newStatus(Control.Status.DISCONNECTING);
             mConn.disconnect();
@@ -285,7 +340,8 @@ public final class Client implements StanzaListener, Runnable {
     }
 
     public boolean isConnected() {
-        return mConn != null && mConn.isAuthenticated();
+        return mConn != null && mConn.isAuthenticated() &&
+                !mConn.isDisconnectedButSmResumptionPossible();
     }
 
     /** The full JID of the user currently logged in. */
@@ -302,6 +358,11 @@ public final class Client implements StanzaListener, Runnable {
         return e;
     }
 
+    /** If the message was sent in the current stream, see KonMessageSender. */
+    public boolean isSentInStream(OutMessage message) {
+        return mMessageSender.isSentInStream(message);
+    }
+
     public boolean sendMessage(SendTask task) {
         Optional<Jid> multiAddressHost =
                 mFeatures.containsKey(FeatureDiscovery.Feature.MULTI_ADDRESSING)
@@ -311,18 +372,26 @@ public final class Client implements StanzaListener, Runnable {
     }
 
     // TODO unused
-    public void sendVCardRequest(JID jid) {
-        VCard4 vcard = new VCard4();
-        vcard.setType(IQ.Type.get);
-        vcard.setTo(jid.toBareSmack());
-        this.sendPacket(vcard);
-    }
-
-    public void sendPublicKeyRequest(JID jid) {
-        LOGGER.info("to "+jid);
-        PublicKeyPublish publicKeyRequest = new PublicKeyPublish();
-        publicKeyRequest.setTo(jid.toBareSmack());
-        this.sendPacket(publicKeyRequest);
+    /** Request vCard. The response is handled by the vCard listener. */
+    public CompletableFuture<Void> sendVCardRequest(JID jid) {
+        return mExecutor.submit(CommandExecutor.Kind.VCARD, () -> {
+            VCard4 vcard = new VCard4();
+            vcard.setType(IQ.Type.get);
+            vcard.setTo(jid.toBareSmack());
+            this.connection().sendAndWait(vcard);
+            return null;
+        });
+    }
+
+    /** Request public key. The response is handled by the public key listener. */
+    public CompletableFuture<Void> sendPublicKeyRequest(JID jid) {
+        return mExecutor.submit(CommandExecutor.Kind.PUBLIC_KEY, () -> {
+            LOGGER.info("to "+jid);
+            PublicKeyPublish publicKeyRequest = new PublicKeyPublish();
+            publicKeyRequest.setTo(jid.toBareSmack());
+            this.connection().sendAndWait(publicKeyRequest);
+            return null;
+        });
     }
 
     private void sendBlocklistRequest() {
@@ -373,31 +442,47 @@ public final class Client implements StanzaListener, Runnable {
         this.sendPacket(message);
     }
 
-    public void sendLastActivityRequest(JID jid) {
-        Client.TASK_QUEUE.offer(new Client.Task(Client.Command.LAST_ACTIVITY,
-                                                       Collections.singletonList(jid)));
+    /**
+     * Request last activity. The response is handled by the last activity
+     * listener.
+     */
+    public CompletableFuture<Void> sendLastActivityRequest(JID jid) {
+        return mExecutor.submit(CommandExecutor.Kind.LAST_ACTIVITY,
+                () -> this.sendLastActivityRequestAsync(jid));
     }
 
-    private void sendLastActivityRequestAsync(JID jid) {
-        if (mFeatureDiscovery == null) {
+    private Void sendLastActivityRequestAsync(JID jid)
+            throws SmackException.NoResponseException,
+            XMPPException.XMPPErrorException,
+            SmackException.NotConnectedException,
+            InterruptedException {
+        KonConnection conn = this.connection();
+
+        FeatureDiscovery featureDiscovery = mFeatureDiscovery;
+        if (featureDiscovery == null) {
             LOGGER.warning("no feature discovery");
-            return;
+            return null;
         }
 
         // blocking
-        if (!mFeatureDiscovery.getFeaturesFor(jid.toDomain())
+        if (!featureDiscovery.getFeaturesFor(jid.toDomain())
                 .containsKey(FeatureDiscovery.Feature.LAST_ACTIVITY))
             // not supported by server
-            return;
+            return null;
 
         LastActivity request = new LastActivity(jid.toBareSmack());
-        this.sendPacket(request);
-    }
-
-    synchronized boolean sendPackets(Stanza[] stanzas) {
-        boolean sent = true;
-        for (Stanza s: stanzas)
-            sent &= this.sendPacket(s);
+        conn.sendAndWait(request);
+        return null;
+    }
+
+    /**
+     * Send all stanzas without other stanzas in between.
+     * @return for each stanza if it was sent
+     */
+    synchronized boolean[] sendPackets(Stanza[] stanzas) {
+        boolean[] sent = new boolean[stanzas.length];
+        for (int i = 0; i < stanzas.length; i++)
+            sent[i] = this.sendPacket(stanzas[i]);
         return sent;
     }
 
@@ -410,6 +495,14 @@ public final class Client implements StanzaListener, Runnable {
         return mConn.send(p);
     }
 
+    private KonConnection connection() throws SmackException.NotConnectedException {
+        KonConnection conn = mConn;
+        if (conn == null || !conn.isAuthenticated() ||
+                conn.isDisconnectedButSmResumptionPossible())
+            throw new SmackException.NotConnectedException("not logged in");
+        return conn;
+    }
+
     @Override
     public void processStanza(Stanza packet) {
         LOGGER.warning("IQ error: "+packet);
@@ -487,12 +580,18 @@ public final class Client implements StanzaListener, Runnable {
         }
     }
 
-    public void requestAvatar(JID jid, String id) {
-        if (mAvatarSendReceiver == null) {
-            LOGGER.warning("no avatar sender");
-            return;
-        }
-        mAvatarSendReceiver.requestAndListen(jid, id);
+    /** Request avatar data. The data is passed to the avatar handler. */
+    public CompletableFuture<Void> requestAvatar(JID jid, String id) {
+        return mExecutor.submit(CommandExecutor.Kind.AVATAR, () -> {
+            AvatarSendReceiver avatarSendReceiver = mAvatarSendReceiver;
+            if (avatarSendReceiver == null) {
+                LOGGER.warning("no avatar sender");
+                return null;
+            }
+            this.connection();
+            avatarSendReceiver.request(jid, id);
+            return null;
+        });
     }
 
     public void publishAvatar(String id, byte[] data) {
@@ -522,59 +621,34 @@ public final class Client implements StanzaListener, Runnable {
         }
     }
 
-    /** Request upload slot (XEP-0636). Blocking */
-    public AttachmentManager.Slot getUploadSlot(String name, long length, String mime) {
-        if (mSlotRequester == null) {
-            LOGGER.warning("no slot requester");
-            return new AttachmentManager.Slot();
-        }
-
-        return mSlotRequester.getSlot(name, length, mime);
+    /** Request upload slot (XEP-0636). */
+    public CompletableFuture<AttachmentManager.Slot> requestUploadSlot(
+            String name, long length, String mime) {
+        return mExecutor.submit(CommandExecutor.Kind.UPLOAD_SLOT, () -> {
+            HTTPFileSlotRequester slotRequester = mSlotRequester;
+            if (slotRequester == null) {
+                LOGGER.warning("no slot requester");
+                return new AttachmentManager.Slot();
+            }
+            this.connection();
+            return slotRequester.getSlot(name, length, mime);
+        });
     }
 
     /* package internal*/
 
     void newStatus(Control.Status status) {
+        this.newStatus(status, false);
+    }
+
+    private void newStatus(Control.Status status, boolean resumed) {
         if (status != Control.Status.CONNECTED)
             mFeatures.clear();
 
-        mControl.onStatusChange(status, this.getServerFeature());
+        mControl.onStatusChange(status, this.getServerFeature(), resumed);
     }
 
     void newException(KonException konException) {
         mControl.onException(konException);
     }
-
-    @Override
-    public void run() {
-        while (true) {
-            Task t;
-            try {
-                // blocking
-                t = TASK_QUEUE.take();
-            } catch (InterruptedException ex) {
-                LOGGER.log(Level.WARNING, "interrupted while waiting ", ex);
-                return;
-            }
-            switch (t.command) {
-                case CONNECT:
-                    this.connectAsync();
-                    break;
-                case LAST_ACTIVITY:
-                    this.sendLastActivityRequestAsync((JID) t.args.get(0));
-                    break;
-            }
-        }
-    }
-
-    private static class Task {
-
-        final Command command;
-        final List<?> args;
-
-        Task(Command c, List<?> a) {
-            command = c;
-            args = a;
-        }
-    }
 }
@@ -0,0 +1,147 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.client;
+
+import java.util.EnumMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous executor for client commands.
+ *
+ * Every kind of command has its own limit for concurrently running commands and
+ * a timeout. Commands of different kinds do not block each other. A command
+ * is stopped (interrupted) when its future is cancelled or timed out.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+final class CommandExecutor {
+    private static final Logger LOGGER = Logger.getLogger(CommandExecutor.class.getName());
+
+    enum Kind {
+        // connecting is serialized and can not time out (handled by Smack)
+        CONNECT(1, 0),
+        LAST_ACTIVITY(4, 15),
+        VCARD(4, 15),
+        PUBLIC_KEY(8, 15),
+        AVATAR(2, 30),
+        UPLOAD_SLOT(2, 15);
+
+        /** Maximum number of commands of this kind running at the same time. */
+        final int maxConcurrent;
+        /** Timeout in seconds for a running command, 0 for no timeout. */
+        final int timeout;
+
+        Kind(int maxConcurrent, int timeout) {
+            this.maxConcurrent = maxConcurrent;
+            this.timeout = timeout;
+        }
+    }
+
+    private final EnumMap<Kind, ThreadPoolExecutor> mPools = new EnumMap<>(Kind.class);
+    private final ScheduledExecutorService mTimer;
+
+    private CommandExecutor() {
+        for (Kind kind : Kind.values()) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                    kind.maxConcurrent, kind.maxConcurrent,
+                    30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    r -> {
+                        Thread thread = new Thread(r, "Client Command " + kind);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            mPools.put(kind, pool);
+        }
+
+        mTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "Client Command Timeout");
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    static CommandExecutor create() {
+        return new CommandExecutor();
+    }
+
+    /**
+     * Queue a command for execution.
+     *
+     * The timeout of the command kind starts when the command is executed, not
+     * when it is queued.
+     */
+    <T> CompletableFuture<T> submit(Kind kind, Callable<T> command) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        Future<?> task;
+        try {
+            task = mPools.get(kind).submit(() -> {
+                if (result.isDone())
+                    // cancelled while queued
+                    return;
+
+                ScheduledFuture<?> timeout = kind.timeout > 0 ?
+                        mTimer.schedule(() -> result.completeExceptionally(
+                                new TimeoutException(kind + " timed out")),
+                                kind.timeout, TimeUnit.SECONDS) :
+                        null;
+                try {
+                    result.complete(command.call());
+                } catch (Exception ex) {
+                    result.completeExceptionally(ex);
+                } finally {
+                    if (timeout != null)
+                        timeout.cancel(false);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            LOGGER.log(Level.WARNING, "can't queue command: " + kind, ex);
+            result.completeExceptionally(ex);
+            return result;
+        }
+
+        result.whenComplete((r, ex) -> {
+            if (ex == null)
+                return;
+
+            // stop running or remove queued command
+            task.cancel(true);
+
+            if (!(ex instanceof CancellationException))
+                LOGGER.log(Level.INFO, "command failed: " + kind, ex);
+        });
+
+        return result;
+    }
+}
@@ -55,6 +55,7 @@ import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.kontalk.misc.KonException;
+import org.kontalk.misc.Metrics;
 import org.kontalk.util.EncodingUtils;
 import org.kontalk.util.MediaUtils;
 import org.kontalk.util.TrustUtils;
@@ -66,6 +67,9 @@ import org.kontalk.util.TrustUtils;
 public class HTTPFileClient {
     private static final Logger LOGGER = Logger.getLogger(HTTPFileClient.class.getName());
 
+    private static final Metrics.Timer DOWNLOAD_TIMER = Metrics.timer("http.download");
+    private static final Metrics.Timer UPLOAD_TIMER = Metrics.timer("http.upload");
+
     /** Regex used to parse content-disposition headers for download. */
     private static final Pattern CONTENT_DISPOSITION_PATTERN = Pattern
             .compile("attachment;\\s*filename\\s*=\\s*\"([^\"]*)\"");
@@ -120,6 +124,7 @@ public class HTTPFileClient {
         mCurrentListener = listener;
 
         // execute request
+        long start = System.nanoTime();
         CloseableHttpResponse response = null;
         try {
             try {
@@ -176,6 +181,7 @@ public class HTTPFileClient {
             mCurrentListener.updateProgress(s < 0 ? -2 : 0);
 
             File outFile = MediaUtils.nonExistingFileForPath(Paths.get(base.toString(), filename));
+            long bytes;
             try (FileOutputStream out = new FileOutputStream(outFile)){
                 CountingOutputStream cOut = new CountingOutputStream(out) {
                     @Override
@@ -189,6 +195,7 @@ public class HTTPFileClient {
                     }
                 };
                 entity.writeTo(cOut);
+                bytes = cOut.getByteCount();
             } catch (IOException ex) {
                 LOGGER.log(Level.WARNING, "can't download file", ex);
                 throw new KonException(KonException.Error.DOWNLOAD_WRITE);
@@ -197,6 +204,7 @@ public class HTTPFileClient {
             // release http connection resource
             EntityUtils.consumeQuietly(entity);
 
+            DOWNLOAD_TIMER.record(start, bytes);
             return outFile.toPath();
         } finally {
             HttpClientUtils.closeQuietly(response);
@@ -226,6 +234,7 @@ public class HTTPFileClient {
         LOGGER.config("to URL=" + uploadURL+ " ...");
 
         // execute request
+        long start = System.nanoTime();
         CloseableHttpResponse response = null;
         try {
             try(FileInputStream in = new FileInputStream(file)) {
@@ -245,6 +254,8 @@ public class HTTPFileClient {
                 LOGGER.warning("unexpected response code: " + code);
                 throw new KonException(KonException.Error.UPLOAD_RESPONSE);
             }
+
+            UPLOAD_TIMER.record(start, file.length());
         } finally {
             HttpClientUtils.closeQuietly(response);
             mCurrentRequest = null;
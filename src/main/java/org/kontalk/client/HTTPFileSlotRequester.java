@@ -20,10 +20,9 @@ package org.kontalk.client;
 
 import java.util.logging.Logger;
 import org.jivesoftware.smack.SmackException;
-import org.jivesoftware.smack.StanzaListener;
-import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.provider.ProviderManager;
-import org.kontalk.misc.Callback;
 import org.kontalk.misc.JID;
 import org.kontalk.system.AttachmentManager;
 import org.kontalk.util.EncodingUtils;
@@ -50,35 +49,25 @@ final class HTTPFileSlotRequester {
         mService = service;
     }
 
-    private HTTPFileUpload.Slot mSlotPacket;
-    synchronized AttachmentManager.Slot getSlot(String filename, long size, String mime) {
+    /** Request an upload slot and wait for the response. Blocking */
+    AttachmentManager.Slot getSlot(String filename, long size, String mime)
+            throws SmackException.NoResponseException,
+            XMPPException.XMPPErrorException,
+            SmackException.NotConnectedException,
+            InterruptedException {
         HTTPFileUpload.Request request = new HTTPFileUpload.Request(filename, size, mime);
         request.setTo(mService.toBareSmack());
 
-        final Callback.Synchronizer syncer = new Callback.Synchronizer();
-        mSlotPacket = null;
-        mConn.sendWithCallback(request, new StanzaListener() {
-            @Override
-            public void processStanza(Stanza packet)
-                    throws SmackException.NotConnectedException {
-                LOGGER.config("response: "+packet);
+        IQ response = mConn.sendAndWait(request);
+        LOGGER.config("response: "+response);
 
-                if (!(packet instanceof HTTPFileUpload.Slot)) {
-                    LOGGER.warning("response not a slot packet: "+packet);
-                    syncer.sync();
-                    return;
-                }
-                mSlotPacket = (HTTPFileUpload.Slot) packet;
-                syncer.sync();
-            }
-        });
-
-        syncer.waitForSync();
-
-        return mSlotPacket != null ?
-                new AttachmentManager.Slot(
-                        EncodingUtils.toURI(mSlotPacket.getPutUrl()),
-                        EncodingUtils.toURI(mSlotPacket.getGetUrl())) :
-                new AttachmentManager.Slot();
+        if (!(response instanceof HTTPFileUpload.Slot)) {
+            LOGGER.warning("response not a slot packet: "+response);
+            return new AttachmentManager.Slot();
+        }
+        HTTPFileUpload.Slot slotPacket = (HTTPFileUpload.Slot) response;
+        return new AttachmentManager.Slot(
+                EncodingUtils.toURI(slotPacket.getPutUrl()),
+                EncodingUtils.toURI(slotPacket.getGetUrl()));
     }
 }
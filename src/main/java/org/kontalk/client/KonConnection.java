@@ -38,6 +38,7 @@ import org.jivesoftware.smack.ExceptionCallback;
 import org.jivesoftware.smack.SASLAuthentication;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.StanzaListener;
+import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.tcp.XMPPTCPConnection;
@@ -77,9 +78,10 @@ final class KonConnection extends XMPPTCPConnection {
         // blacklist PLAIN mechanism
         SASLAuthentication.blacklistSASLMechanism("PLAIN");
 
-        // enable SM without resumption (XEP-0198)
+        // enable SM with resumption (XEP-0198), resumption is only used if
+        // supported by server
         this.setUseStreamManagement(true);
-        this.setUseStreamManagementResumption(false);
+        this.setUseStreamManagementResumption(true);
     }
 
     private static XMPPTCPConnectionConfiguration buildConfiguration(
@@ -181,4 +183,14 @@ final class KonConnection extends XMPPTCPConnection {
             LOGGER.log(Level.WARNING, "not connected", ex);
         }
     }
+
+    /** Send IQ and wait for the response. Blocking */
+    <I extends IQ> I sendAndWait(IQ packet)
+            throws SmackException.NoResponseException,
+            XMPPException.XMPPErrorException,
+            SmackException.NotConnectedException,
+            InterruptedException {
+        LOGGER.config("packet: "+packet);
+        return super.createStanzaCollectorAndSend(packet).nextResultOrThrow();
+    }
 }
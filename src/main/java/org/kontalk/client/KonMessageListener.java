@@ -163,16 +163,19 @@ final class KonMessageListener implements StanzaListener {
             return;
         }
 
-        // add message
-        mControl.onNewInMessage(ids, Optional.ofNullable(delayDate), content);
-
-        // send a 'received' for a receipt request (XEP-0184)
+        // add message, send a 'received' for a receipt request (XEP-0184)
+        // not before the message is saved
         DeliveryReceiptRequest request = DeliveryReceiptRequest.from(m);
-        if (request != null && !ids.xmppID.isEmpty()) {
-            Message received = new Message(m.getFrom(), Message.Type.chat);
-            received.addExtension(new DeliveryReceipt(ids.xmppID));
-            mClient.sendPacket(received);
-        }
+        Runnable onSaved = request != null && !ids.xmppID.isEmpty() ?
+                () -> this.sendReceipt(m, ids) :
+                () -> {};
+        mControl.onNewInMessage(ids, Optional.ofNullable(delayDate), content, onSaved);
+    }
+
+    private void sendReceipt(Message m, MessageIDs ids) {
+        Message received = new Message(m.getFrom(), Message.Type.chat);
+        received.addExtension(new DeliveryReceipt(ids.xmppID));
+        mClient.sendPacket(received);
     }
 
     private void processHeadlineMessage(Message m) {
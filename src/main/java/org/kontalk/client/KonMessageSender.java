@@ -20,14 +20,24 @@ package org.kontalk.client;
 
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smackx.address.packet.MultipleAddresses;
 import org.jivesoftware.smackx.chatstates.ChatState;
 import org.jivesoftware.smackx.chatstates.packet.ChatStateExtension;
@@ -59,10 +69,50 @@ public final class KonMessageSender {
 
     private static final int RPAD_LENGTH_RANGE = 40;
 
+    /** Number of send attempts for each receiver when sending one message to each receiver. */
+    private static final int MAX_SEND_ATTEMPTS = 3;
+    /** Delay before the first retry, doubled for each following one. */
+    private static final int RETRY_BASE_DELAY = 1000; // milliseconds
+
     private final Client mClient;
 
+    /**
+     * Receivers of a message that could not be sent to in the current stream.
+     * If a message is sent again only these receivers get it.
+     */
+    private final Map<OutMessage, Set<Transmission>> mFailed = new ConcurrentHashMap<>();
+    /** Messages that were not handed to the current stream, e.g. when not connected. */
+    private final Set<OutMessage> mNotSent = ConcurrentHashMap.newKeySet();
+    /** Incremented for each new stream, retries for older streams are dropped. */
+    private final AtomicInteger mStream = new AtomicInteger();
+    private final ScheduledExecutorService mRetryTimer;
+
     KonMessageSender(Client client) {
         mClient = client;
+        mRetryTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Message Retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * A new stream was established (not resumed), stanzas of older streams are
+     * lost and all messages must be sent to all receivers again.
+     */
+    void onNewStream() {
+        mStream.incrementAndGet();
+        mFailed.clear();
+        mNotSent.clear();
+    }
+
+    /**
+     * If the message was handed to the current stream for all receivers. A
+     * resumed stream still delivers these messages, they must not be sent
+     * again.
+     */
+    boolean isSentInStream(OutMessage message) {
+        return !mNotSent.contains(message) && !mFailed.containsKey(message);
     }
 
     boolean sendMessage(SendTask task, Optional<Jid> multiAddressHost) {
@@ -72,6 +122,8 @@ public final class KonMessageSender {
         KonMessage.Status status = message.getStatus();
         assert status == KonMessage.Status.PENDING || status == KonMessage.Status.ERROR;
         message.setStatus(KonMessage.Status.PENDING);
+        // until handed to the stream
+        mNotSent.add(message);
 
         if (!mClient.isConnected()) {
             LOGGER.info("not sending message(s), not connected");
@@ -143,18 +195,79 @@ public final class KonMessageSender {
             }
             smackMessage.addExtension(addresses);
 
-            return mClient.sendPacket(smackMessage);
+            boolean sent = mClient.sendPacket(smackMessage);
+            if (sent)
+                mNotSent.remove(message);
+            return sent;
         } else {
-            // only one receiver or fallback: send one message to each receiver
-            ArrayList<Message> sendMessages = new ArrayList<>();
-            for (JID to: JIDs) {
-                Message sendMessage = smackMessage.clone();
-                sendMessage.setTo(to.toBareSmack());
-                sendMessages.add(sendMessage);
-            }
+            // only one receiver or fallback: send one message to each receiver,
+            // failed transmissions are tracked from here on
+            mNotSent.remove(message);
+            return this.sendToEach(smackMessage, message);
+        }
+    }
 
-            return mClient.sendPackets(sendMessages.toArray(new Message[0]));
+    /**
+     * Send a copy of the message to each receiver. The result is tracked for each transmission:
+     * failed transmissions are retried with increasing delay while the stream lasts, and if the
+     * message is sent again, only receivers that did not get it yet are sent to.
+     */
+    private boolean sendToEach(Message smackMessage, OutMessage message) {
+        Set<Transmission> failed = mFailed.get(message);
+        if (failed != null)
+            LOGGER.info("sending only to "+failed.size()+" of "
+                    +message.getTransmissions().size()+" receiver(s)");
+        return this.fanOut(smackMessage, message,
+                failed != null ? failed : message.getTransmissions(), 1);
+    }
+
+    /** Send one stanza for each transmission, in one go. */
+    private boolean fanOut(Message smackMessage, OutMessage message,
+            Collection<Transmission> transmissions, int attempt) {
+        List<Transmission> receivers = new ArrayList<>(transmissions);
+        Stanza[] stanzas = receivers.stream()
+                .map(t -> stanzaFor(smackMessage, t))
+                .toArray(Stanza[]::new);
+        boolean[] sent = mClient.sendPackets(stanzas);
+
+        Set<Transmission> failed = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        for (int i = 0; i < sent.length; i++) {
+            if (!sent[i])
+                failed.add(receivers.get(i));
+        }
+        if (failed.isEmpty()) {
+            mFailed.remove(message);
+            return true;
+        }
+
+        mFailed.put(message, failed);
+        LOGGER.warning("can't send message to "+failed.size()+" of "
+                +message.getTransmissions().size()+" receiver(s), attempt: "+attempt);
+        if (attempt < MAX_SEND_ATTEMPTS) {
+            int stream = mStream.get();
+            mRetryTimer.schedule(() -> this.retry(smackMessage, message, stream, attempt + 1),
+                    RETRY_BASE_DELAY << (attempt - 1), TimeUnit.MILLISECONDS);
+        }
+        return false;
+    }
+
+    private void retry(Message smackMessage, OutMessage message, int stream, int attempt) {
+        Set<Transmission> failed = mFailed.get(message);
+        if (failed == null || stream != mStream.get())
+            // sent in the meantime or stream is gone
+            return;
+        if (!mClient.isConnected()) {
+            LOGGER.info("not retrying, not connected");
+            return;
         }
+        LOGGER.info("retrying "+failed.size()+" transmission(s), attempt: "+attempt);
+        this.fanOut(smackMessage, message, failed, attempt);
+    }
+
+    private static Message stanzaFor(Message smackMessage, Transmission transmission) {
+        Message sendMessage = smackMessage.clone();
+        sendMessage.setTo(transmission.getJID().toBareSmack());
+        return sendMessage;
     }
 
     public static String getEncryptionPayloadRFC3923(MessageContent content, Chat chat) {
@@ -19,11 +19,12 @@
 package org.kontalk.crypto;
 
 import java.io.File;
-import java.util.HashMap;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import org.kontalk.crypto.PGPUtils.PGPCoderKey;
+import org.kontalk.misc.Metrics;
 import org.kontalk.model.Contact;
 import org.kontalk.model.message.DecryptMessage;
 import org.kontalk.model.message.MessageContent.InAttachment;
@@ -37,6 +38,9 @@ import org.kontalk.model.message.OutMessage;
 public final class Coder {
     private static final Logger LOGGER = Logger.getLogger(Coder.class.getName());
 
+    private static final Metrics.Timer ENCRYPT_TIMER = Metrics.timer("coder.encrypt");
+    private static final Metrics.Timer DECRYPT_TIMER = Metrics.timer("coder.decrypt");
+
     private Coder() {
     }
 
@@ -84,7 +88,8 @@ public final class Coder {
         //INVALID_TIMESTAMP,
     }
 
-    private static final HashMap<Contact, PGPCoderKey> KEY_MAP = new HashMap<>();
+    // messages may be decrypted in parallel
+    private static final ConcurrentHashMap<Contact, PGPCoderKey> KEY_MAP = new ConcurrentHashMap<>();
 
     public static Optional<PGPCoderKey> contactkey(Contact contact) {
         if (KEY_MAP.containsKey(contact)) {
@@ -111,7 +116,10 @@ public final class Coder {
      * status of the message and errors that may occur are saved to the message.
      */
     public static boolean decryptMessage(PersonalKey myKey, DecryptMessage message) {
-        return Decryptor.decryptMessage(message, myKey);
+        long start = System.nanoTime();
+        boolean decrypted = Decryptor.decryptMessage(message, myKey);
+        DECRYPT_TIMER.record(start);
+        return decrypted;
     }
 
     /**
@@ -120,7 +128,9 @@ public final class Coder {
      * saved to the attachment.
      */
     public static void decryptAttachment(PersonalKey myKey, InAttachment attachment, Contact sender) {
+        long start = System.nanoTime();
         Decryptor.decryptAttachment(attachment, myKey, sender);
+        DECRYPT_TIMER.record(start);
     }
 
     /**
@@ -129,19 +139,31 @@ public final class Coder {
      * @return the encrypted and signed text.
      */
     public static String encryptMessageRFC3923(PersonalKey myKey, OutMessage message) {
-        return new Encryptor(myKey, message).encryptMessageRFC3923();
+        long start = System.nanoTime();
+        String encrypted = new Encryptor(myKey, message).encryptMessageRFC3923();
+        ENCRYPT_TIMER.record(start);
+        return encrypted;
     }
 
     public static String encryptStanzaRFC3923(PersonalKey myKey, OutMessage message, String xml) {
-        return new Encryptor(myKey, message).encryptStanzaRFC3923(xml);
+        long start = System.nanoTime();
+        String encrypted = new Encryptor(myKey, message).encryptStanzaRFC3923(xml);
+        ENCRYPT_TIMER.record(start);
+        return encrypted;
     }
 
     /** Encrypt an arbitrary UTF-8 string as a Base64 encoded OpenPGP Message. */
     public static String encryptString(PersonalKey myKey, OutMessage message, String plainText) {
-        return new Encryptor(myKey, message).encryptString(plainText);
+        long start = System.nanoTime();
+        String encrypted = new Encryptor(myKey, message).encryptString(plainText);
+        ENCRYPT_TIMER.record(start);
+        return encrypted;
     }
 
     public static Optional<File> encryptAttachment(PersonalKey myKey, OutMessage message, File file) {
-        return new Encryptor(myKey, message).encryptAttachment(file);
+        long start = System.nanoTime();
+        Optional<File> encrypted = new Encryptor(myKey, message).encryptAttachment(file);
+        ENCRYPT_TIMER.record(start, file.length());
+        return encrypted;
     }
 }
@@ -72,7 +72,7 @@ import org.kontalk.util.XMPPParserUtils;
 final class Decryptor {
     private static final Logger LOGGER = Logger.getLogger(Decryptor.class.getName());
 
-    private static class DecryptionResult {
+    static class DecryptionResult {
         final EnumSet<Coder.Error> errors = EnumSet.noneOf(Coder.Error.class);
         Coder.Signing signing = Coder.Signing.UNKNOWN;
     }
@@ -193,7 +193,7 @@ final class Decryptor {
     }
 
     /** Decrypt, verify and write input stream data to output stream. */
-    private static DecryptionResult decryptAndVerify(
+    static DecryptionResult decryptAndVerify(
             InputStream encryptedInput, OutputStream plainOutput,
             PGPPrivateKey myKey, Optional<PGPPublicKey> senderSigningKey)
             throws PGPException, IOException {
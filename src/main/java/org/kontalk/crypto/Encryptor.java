@@ -178,7 +178,7 @@ final class Encryptor {
      * Encrypt, sign and write input stream data to output stream.
      * Input and output stream are closed.
      */
-    private static void encryptAndSign(
+    static void encryptAndSign(
             InputStream plainInput, OutputStream encryptedOutput,
             PersonalKey myKey, List<PGPUtils.PGPCoderKey> receiverKeys)
             throws IOException, PGPException {
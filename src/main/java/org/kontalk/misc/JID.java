@@ -53,9 +53,10 @@ public final class JID {
     private final boolean mValid;
 
     private JID(String local, String domain, String resource) {
-        mLocal = local;
-        mDomain = domain;
-        mResource = resource;
+        // interned, there are many equal JIDs (e.g. one per message transmission)
+        mLocal = local.intern();
+        mDomain = domain.intern();
+        mResource = resource.intern();
 
         mValid = !mLocal.isEmpty() && !mDomain.isEmpty()
                 // NOTE: domain check could be stronger - compliant with RFC 6122, but
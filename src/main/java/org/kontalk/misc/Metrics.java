@@ -0,0 +1,242 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.kontalk.misc;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registry of lightweight runtime metrics for hot paths.
+ *
+ * Timers and counters are cheap enough to be always on (a few atomic
+ * additions per measurement). If the JVM supports Java Flight Recorder every
+ * timer measurement is additionally emitted as a custom JFR event.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+public final class Metrics {
+    private static final Logger LOGGER = Logger.getLogger(Metrics.class.getName());
+
+    private static final ConcurrentHashMap<String, Metric> REGISTRY = new ConcurrentHashMap<>();
+
+    /** Emits a Flight Recorder event for a measurement, null if not supported. */
+    private static final MethodHandle JFR_EMIT = jfrEmitter();
+
+    private Metrics() {}
+
+    /** Get or create the timer for a name. */
+    public static Timer timer(String name) {
+        return (Timer) REGISTRY.computeIfAbsent(name, Timer::new);
+    }
+
+    /** Get or create the counter for a name. */
+    public static Counter counter(String name) {
+        return (Counter) REGISTRY.computeIfAbsent(name, Counter::new);
+    }
+
+    /** Register a value that is read only when taking a snapshot. */
+    public static void gauge(String name, LongSupplier supplier) {
+        REGISTRY.put(name, new Gauge(name, supplier));
+    }
+
+    /** Current state of all metrics as formatted strings, sorted by name. */
+    public static SortedMap<String, String> snapshot() {
+        SortedMap<String, String> snapshot = new TreeMap<>();
+        for (Metric m : REGISTRY.values())
+            snapshot.put(m.mName, m.format());
+        return snapshot;
+    }
+
+    /** The snapshot as text, one metric per line. */
+    public static String snapshotText() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> e : snapshot().entrySet())
+            sb.append(e.getKey()).append(": ").append(e.getValue()).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * Write a snapshot to a new file in the directory.
+     * @return the file written, empty on error
+     */
+    public static Optional<Path> export(Path dir) {
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        Path file = dir.resolve("metrics-" + timestamp + ".txt");
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, String> e : snapshot().entrySet())
+            lines.add(e.getKey() + ": " + e.getValue());
+        try {
+            Files.write(file, lines, StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "can't write metrics file", ex);
+            return Optional.empty();
+        }
+        LOGGER.info("metrics exported to " + file);
+        return Optional.of(file);
+    }
+
+    private static MethodHandle jfrEmitter() {
+        try {
+            // not there if built without JFR API, fails to load if JVM has none
+            Class<?> eventClass = Class.forName("org.kontalk.misc.MetricEvent");
+            return MethodHandles.lookup().findStatic(eventClass, "emit",
+                    MethodType.methodType(void.class, String.class, long.class, long.class));
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException |
+                LinkageError ex) {
+            LOGGER.config("no flight recorder support");
+            return null;
+        }
+    }
+
+    private static void emitEvent(String name, long duration, long bytes) {
+        try {
+            JFR_EMIT.invokeExact(name, duration, bytes);
+        } catch (Throwable ex) {
+            LOGGER.log(Level.WARNING, "can't emit event", ex);
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static abstract class Metric {
+        final String mName;
+
+        Metric(String name) {
+            mName = name;
+        }
+
+        abstract String format();
+    }
+
+    /** Duration (and optionally transferred bytes) of repeated operations. */
+    public static final class Timer extends Metric {
+        private final LongAdder mCount = new LongAdder();
+        private final LongAdder mTotal = new LongAdder();
+        private final LongAdder mBytes = new LongAdder();
+        private final AtomicLong mMax = new AtomicLong();
+
+        private Timer(String name) {
+            super(name);
+        }
+
+        /**
+         * Record one operation.
+         * @param start start time of operation, as returned by {@link System#nanoTime()}
+         */
+        public void record(long start) {
+            this.record(start, 0);
+        }
+
+        /** Record one operation that transferred the given number of bytes. */
+        public void record(long start, long bytes) {
+            long duration = System.nanoTime() - start;
+            mCount.increment();
+            mTotal.add(duration);
+            mMax.accumulateAndGet(duration, Math::max);
+            if (bytes > 0)
+                mBytes.add(bytes);
+
+            if (JFR_EMIT != null)
+                emitEvent(mName, duration, bytes);
+        }
+
+        public long count() {
+            return mCount.sum();
+        }
+
+        public double averageMillis() {
+            long count = mCount.sum();
+            return count == 0 ? 0 : millis(mTotal.sum()) / count;
+        }
+
+        public double maxMillis() {
+            return millis(mMax.get());
+        }
+
+        @Override
+        String format() {
+            String s = String.format("count=%d avg=%.3fms max=%.3fms",
+                    this.count(), this.averageMillis(), this.maxMillis());
+            long bytes = mBytes.sum();
+            if (bytes == 0)
+                return s;
+
+            long total = mTotal.sum();
+            double rate = total == 0 ? 0 :
+                    bytes / 1024.0 / (total / (double) TimeUnit.SECONDS.toNanos(1));
+            return s + String.format(" bytes=%d rate=%.1fKiB/s", bytes, rate);
+        }
+    }
+
+    public static final class Counter extends Metric {
+        private final LongAdder mCount = new LongAdder();
+
+        private Counter(String name) {
+            super(name);
+        }
+
+        public void increment() {
+            mCount.increment();
+        }
+
+        public long count() {
+            return mCount.sum();
+        }
+
+        @Override
+        String format() {
+            return Long.toString(mCount.sum());
+        }
+    }
+
+    private static final class Gauge extends Metric {
+        private final LongSupplier mSupplier;
+
+        private Gauge(String name, LongSupplier supplier) {
+            super(name);
+            mSupplier = supplier;
+        }
+
+        @Override
+        String format() {
+            return Long.toString(mSupplier.getAsLong());
+        }
+    }
+}
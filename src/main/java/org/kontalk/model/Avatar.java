@@ -79,11 +79,12 @@ public abstract class Avatar {
         return mID;
     }
 
+    /**
+     * Return the image, loaded from file if necessary. Loaded images are not
+     * kept, caching is up to the caller.
+     */
     public Optional<BufferedImage> loadImage() {
-        if (mImage == null)
-            mImage = image(mFile);
-
-        return Optional.ofNullable(mImage);
+        return Optional.ofNullable(mImage != null ? mImage : image(mFile));
     }
 
     void delete() {
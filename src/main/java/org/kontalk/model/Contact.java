@@ -76,6 +76,7 @@ public final class Contact extends Observable implements Searchable {
     public static final String COL_PUB_KEY = "public_key";
     public static final String COL_KEY_FP = "key_fingerprint";
     public static final String COL_AVATAR_ID = "avatar_id";
+    public static final String COL_KEY_CHECKED = "key_checked";
     public static final String SCHEMA = "(" +
             Database.SQL_ID +
             COL_JID + " TEXT NOT NULL UNIQUE, " +
@@ -86,7 +87,9 @@ public final class Contact extends Observable implements Searchable {
             COL_ENCR + " INTEGER NOT NULL, " +
             COL_PUB_KEY + " TEXT, " +
             COL_KEY_FP + " TEXT," +
-            COL_AVATAR_ID + " TEXT" +
+            COL_AVATAR_ID + " TEXT, " +
+            // last time the public key was requested from server
+            COL_KEY_CHECKED + " INTEGER" +
             ")";
 
     private final int mID;
@@ -98,6 +101,7 @@ public final class Contact extends Observable implements Searchable {
     private boolean mEncrypted = true;
     private String mKey = "";
     private String mFingerprint = "";
+    private Date mKeyChecked = null;
     private boolean mBlocked = false;
     private Subscription mSubStatus = Subscription.UNKNOWN; // not in database
     //private ItemType mType;
@@ -119,7 +123,8 @@ public final class Contact extends Observable implements Searchable {
                 mEncrypted,
                 null, // key
                 null, // fingerprint
-                null); // avatar id
+                null, // avatar id
+                null); // key checked
         mID = Model.database().execInsert(TABLE, values);
         if (mID < 1)
             LOGGER.log(Level.WARNING, "could not insert contact");
@@ -135,7 +140,8 @@ public final class Contact extends Observable implements Searchable {
             boolean encrypted,
             String publicKey,
             String fingerprint,
-            String avatarID) {
+            String avatarID,
+            Optional<Date> keyChecked) {
         mID = id;
         mJID = jid;
         mName = name;
@@ -144,6 +150,7 @@ public final class Contact extends Observable implements Searchable {
         mEncrypted = encrypted;
         mKey = publicKey;
         mFingerprint = fingerprint.toLowerCase();
+        mKeyChecked = keyChecked.orElse(null);
         mAvatar = avatarID.isEmpty() ?
                 null :
                 Avatar.DefaultAvatar.load(avatarID).orElse(null);
@@ -269,6 +276,16 @@ public final class Contact extends Observable implements Searchable {
         this.changed(ViewChange.KEY);
     }
 
+    /** Time of last successful public key request. */
+    public Optional<Date> getKeyChecked() {
+        return Optional.ofNullable(mKeyChecked);
+    }
+
+    public void setKeyChecked(Date keyChecked) {
+        mKeyChecked = keyChecked;
+        this.save();
+    }
+
     public boolean isBlocked() {
         return mBlocked;
     }
@@ -393,6 +410,7 @@ public final class Contact extends Observable implements Searchable {
         set.put(COL_PUB_KEY, Database.setString(mKey));
         set.put(COL_KEY_FP, Database.setString(mFingerprint));
         set.put(COL_AVATAR_ID, Database.setString(mAvatar != null ? mAvatar.getID() : ""));
+        set.put(COL_KEY_CHECKED, mKeyChecked);
         Model.database().execUpdate(TABLE, set, mID);
 
         mSaveOnShutdown = false;
@@ -443,8 +461,11 @@ public final class Contact extends Observable implements Searchable {
         String key = Database.getString(rs, Contact.COL_PUB_KEY);
         String fp = Database.getString(rs, Contact.COL_KEY_FP);
         String avatarID = Database.getString(rs, Contact.COL_AVATAR_ID);
+        long k = rs.getLong(Contact.COL_KEY_CHECKED);
+        Date keyChecked = k == 0 ? null : new Date(k);
 
         return new Contact(id, jid, name, status,
-                Optional.ofNullable(lastSeen), encr, key, fp, avatarID);
+                Optional.ofNullable(lastSeen), encr, key, fp, avatarID,
+                Optional.ofNullable(keyChecked));
     }
 }
@@ -20,11 +20,12 @@ package org.kontalk.model;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Observable;
+import java.util.Observer;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -35,25 +36,27 @@ import org.kontalk.persistence.Database;
 /**
  * Global list of all contacts.
  *
- * Does not contain deleted contacts.
+ * Does not contain deleted contacts, except for the lookup by database ID.
+ * Thread-safe, reading never blocks.
  *
  * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
  */
-public final class ContactList extends Observable {
+public final class ContactList extends Observable implements Observer {
     private static final Logger LOGGER = Logger.getLogger(ContactList.class.getName());
 
     private enum ViewChange { MODIFIED }
 
-    private final Map<JID, Contact> mJIDMap =
-            Collections.synchronizedMap(new HashMap<JID, Contact>());
+    private final Map<JID, Contact> mJIDMap = new ConcurrentHashMap<>();
+    // including deleted contacts, old messages still reference them
+    private final Map<Integer, Contact> mIDMap = new ConcurrentHashMap<>();
+    // results of getAll(), cleared on any change that affects them
+    private final Map<Integer, Set<Contact>> mSnapshots = new ConcurrentHashMap<>();
 
     ContactList() {}
 
-    Map<Integer, Contact> load() {
+    void load() {
         assert mJIDMap.isEmpty();
 
-        Map<Integer, Contact> contactMap = new HashMap<>();
-
         Database db = Model.database();
         try (ResultSet resultSet = db.execSelectAll(Contact.TABLE)) {
             while (resultSet.next()) {
@@ -64,17 +67,22 @@ public final class ContactList extends Observable {
                     LOGGER.warning("contacts with equal JIDs: " + jid);
                     continue;
                 }
-                if (!contact.isDeleted())
+                if (!contact.isDeleted()) {
                     mJIDMap.put(jid, contact);
+                    contact.addObserver(this);
+                }
 
-                contactMap.put(contact.getID(), contact);
+                mIDMap.put(contact.getID(), contact);
             }
         } catch (SQLException ex) {
             LOGGER.log(Level.WARNING, "can't load contacts from db", ex);
         }
         this.changed(null);
+    }
 
-        return contactMap;
+    /** All contacts by database ID, including deleted contacts. Unmodifiable. */
+    Map<Integer, Contact> byID() {
+        return Collections.unmodifiableMap(mIDMap);
     }
 
     /** Create and add a new contact. */
@@ -89,6 +97,8 @@ public final class ContactList extends Observable {
             return Optional.empty();
 
         mJIDMap.put(newContact.getJID(), newContact);
+        mIDMap.put(newContact.getID(), newContact);
+        newContact.addObserver(this);
 
         this.changed(ViewChange.MODIFIED);
         return Optional.of(newContact);
@@ -113,15 +123,15 @@ public final class ContactList extends Observable {
         return this.get(myJID);
     }
 
+    /** Unmodifiable snapshot, shared by callers until the list changes. */
     public Set<Contact> getAll(boolean withMe, boolean blocked) {
-        synchronized(mJIDMap) {
-            return Collections.unmodifiableSet(
-                    mJIDMap.values().stream()
-                            .filter(c ->
-                                    (blocked || !c.isBlocked()) &&
-                                    (withMe || !c.isMe()))
-                            .collect(Collectors.toSet()));
-        }
+        return mSnapshots.computeIfAbsent((withMe ? 1 : 0) + (blocked ? 2 : 0),
+                k -> Collections.unmodifiableSet(
+                        mJIDMap.values().stream()
+                                .filter(c ->
+                                        (blocked || !c.isBlocked()) &&
+                                        (withMe || !c.isMe()))
+                                .collect(Collectors.toSet())));
     }
 
     public void delete(Contact contact) {
@@ -130,6 +140,7 @@ public final class ContactList extends Observable {
             LOGGER.warning("can't find contact "+contact);
         }
 
+        contact.deleteObserver(this);
         contact.setDeleted();
 
         this.changed(ViewChange.MODIFIED);
@@ -137,7 +148,12 @@ public final class ContactList extends Observable {
 
     void onShutDown() {
         mJIDMap.values().forEach(Contact::onShutDown);
-    }    
+    }
+
+    void onUserJIDChanged() {
+        // "me" is a different contact now
+        mSnapshots.clear();
+    }
 
     /**
      * Return whether a contact with a specified JID exists.
@@ -155,6 +171,7 @@ public final class ContactList extends Observable {
 
         contact.setJID(jid);
 
+        mSnapshots.clear();
         return true;
     }
 
@@ -172,7 +189,22 @@ public final class ContactList extends Observable {
         return true;
     }
 
+    @Override
+    public void update(Observable o, Object arg) {
+        if (arg == Contact.ViewChange.BLOCKING || arg == Contact.ViewChange.JID)
+            mSnapshots.clear();
+
+        if (arg == Contact.ViewChange.AVATAR) {
+            // forward with the contact, for cached avatar pictures
+            this.setChanged();
+            this.notifyObservers(o);
+        }
+    }
+
     private void changed(ViewChange change) {
+        // after every modification of the maps
+        mSnapshots.clear();
+
         this.setChanged();
         this.notifyObservers(change);
     }
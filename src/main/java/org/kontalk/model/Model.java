@@ -21,13 +21,14 @@ package org.kontalk.model;
 import java.nio.file.Path;
 import java.util.Date;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.logging.Logger;
 import org.kontalk.misc.JID;
+import org.kontalk.misc.Metrics;
 import org.kontalk.model.chat.Chat;
 import org.kontalk.model.chat.ChatList;
 import org.kontalk.model.message.InMessage;
+import org.kontalk.model.message.KonMessage;
 import org.kontalk.model.message.MessageContent;
 import org.kontalk.model.message.OutMessage;
 import org.kontalk.model.message.ProtoMessage;
@@ -50,6 +51,8 @@ public final class Model {
     private final ChatList mChatList;
     private final Account mAccount;
 
+    private boolean mContactsLoaded = false;
+
     private Model(Database db, Path appDir) {
         DATABASE = db;
         APP_DIR = appDir;
@@ -82,14 +85,29 @@ public final class Model {
         return mChatList;
     }
 
-    public void load() {
-        // order matters!
-        Map<Integer, Contact> contactMap = mContactList.load();
-        mChatList.load(contactMap);
+    public void loadContacts() {
+        long start = System.nanoTime();
+        mContactList.load();
+        mContactsLoaded = true;
+        Metrics.timer("startup.contacts").record(start);
+    }
+
+    /**
+     * Load chats (and their messages). Contacts must be loaded before.
+     * Observers are notified during loading.
+     */
+    public void loadChats() {
+        if (!mContactsLoaded)
+            throw new IllegalStateException("contacts not loaded");
+
+        long start = System.nanoTime();
+        mChatList.load(mContactList.byID());
+        Metrics.timer("startup.chats").record(start);
     }
 
     public void setUserJID(JID jid) {
         Config.getInstance().setProperty(Config.ACC_JID, jid.string());
+        mContactList.onUserJIDChanged();
 
         if (!mContactList.contains(jid)) {
             LOGGER.info("creating user contact, jid: "+jid);
@@ -97,6 +115,10 @@ public final class Model {
         }
     }
 
+    /**
+     * Create and save a new incoming message. The message is not added to
+     * the chat, call addMessage() after the message was committed.
+     */
     public Optional<InMessage> createInMessage(ProtoMessage protoMessage,
             Chat chat, ClientUtils.MessageIDs ids, Optional<Date> serverDate) {
         InMessage newMessage = new InMessage(protoMessage, chat, ids.jid,
@@ -109,25 +131,31 @@ public final class Model {
             LOGGER.info("message already in chat, dropping this one");
             return Optional.empty();
         }
-        boolean added = chat.addMessage(newMessage);
-        if (!added) {
-            LOGGER.warning("can't add message to chat");
-            return Optional.empty();
-        }
         return Optional.of(newMessage);
     }
 
     public Optional<OutMessage> createOutMessage(Chat chat,
             List<Contact> contacts, MessageContent content) {
-        OutMessage newMessage = new OutMessage(chat, contacts, content,
-                chat.isSendEncrypted());
+        OutMessage newMessage = this.newOutMessage(chat, contacts, content);
+        return this.addMessage(newMessage) ?
+                Optional.of(newMessage) :
+                Optional.empty();
+    }
+
+    /**
+     * Create and save a new outgoing message. The message is not added to
+     * the chat, call addMessage() after the message was committed.
+     */
+    public OutMessage newOutMessage(Chat chat,
+            List<Contact> contacts, MessageContent content) {
+        return new OutMessage(chat, contacts, content, chat.isSendEncrypted());
+    }
 
-        boolean added = chat.addMessage(newMessage);
-        if (!added) {
-            LOGGER.warning("could not add outgoing message to chat");
-            return Optional.empty();
-        }
-        return Optional.of(newMessage);
+    public boolean addMessage(KonMessage message) {
+        boolean added = message.getChat().addMessage(message);
+        if (!added)
+            LOGGER.warning("can't add message to chat: "+message);
+        return added;
     }
 
     public static Path appDir() {
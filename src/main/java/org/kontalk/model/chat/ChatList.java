@@ -25,10 +25,12 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.kontalk.model.Contact;
@@ -46,9 +48,42 @@ public final class ChatList extends Observable implements Observer, Iterable<Cha
         MODIFIED, UNREAD
     }
 
-    private final Set<Chat> mChats = Collections.synchronizedSet(new HashSet<Chat>());
+    /** Observers are notified after loading this many chats. */
+    private static final int LOAD_BATCH_SIZE = 20;
 
-    private boolean mUnread = false;
+    private final Set<Chat> mChats = ConcurrentHashMap.newKeySet();
+    // lookup indexes, updated together with the set
+    private final Map<SingleKey, SingleChat> mSingleChats = new ConcurrentHashMap<>();
+    private final Map<GroupMetaData, GroupChat> mGroupChats = new ConcurrentHashMap<>();
+    // updated when the read status of a chat changes
+    private final Set<Chat> mUnreadChats = ConcurrentHashMap.newKeySet();
+
+    private static final class SingleKey {
+        private final Contact mContact;
+        private final String mXMPPThreadID;
+
+        SingleKey(Contact contact, String xmppThreadID) {
+            mContact = contact;
+            mXMPPThreadID = xmppThreadID;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this)
+                return true;
+
+            if (!(o instanceof SingleKey))
+                return false;
+
+            SingleKey oKey = (SingleKey) o;
+            return mContact.equals(oKey.mContact) && mXMPPThreadID.equals(oKey.mXMPPThreadID);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mContact, mXMPPThreadID);
+        }
+    }
 
     public void load(Map<Integer, Contact> contactMap) {
         assert mChats.isEmpty();
@@ -61,38 +96,30 @@ public final class ChatList extends Observable implements Observer, Iterable<Cha
                     continue;
                 this.putSilent(chat);
 
-                mUnread |= !chat.isRead();
+                if (mChats.size() % LOAD_BATCH_SIZE == 0)
+                    // show the chats already loaded
+                    this.changed(ViewChange.MODIFIED);
             }
         } catch (SQLException ex) {
             LOGGER.log(Level.WARNING, "can't load chats from db", ex);
         }
         this.changed(ViewChange.MODIFIED);
+        if (this.isUnread())
+            this.changed(ViewChange.UNREAD);
     }
 
+    /** Snapshot of all chats. */
     public Set<Chat> getAll() {
-        return Collections.unmodifiableSet(mChats);
+        return new HashSet<>(mChats);
     }
 
     /** Get single chat with contact and XMPPID. */
     public Optional<SingleChat> get(Contact contact, String xmmpThreadID) {
-        synchronized(mChats) {
-            return mChats.stream()
-                    .filter(chat -> chat instanceof SingleChat)
-                    .map(chat -> (SingleChat) chat)
-                    .filter(chat -> chat.getXMPPID().equals(xmmpThreadID)
-                            && chat.getMember().getContact().equals(contact))
-                    .findFirst();
-        }
+        return Optional.ofNullable(mSingleChats.get(new SingleKey(contact, xmmpThreadID)));
     }
 
     public Optional<GroupChat> get(GroupMetaData gData) {
-        synchronized(mChats) {
-            return mChats.stream()
-                    .filter(chat -> chat instanceof GroupChat)
-                    .map(chat -> (GroupChat) chat)
-                    .filter(chat -> chat.getGroupData().equals(gData))
-                    .findFirst();
-        }
+        return Optional.ofNullable(mGroupChats.get(gData));
     }
 
     public SingleChat getOrCreate(Contact contact) {
@@ -134,6 +161,16 @@ public final class ChatList extends Observable implements Observer, Iterable<Cha
             LOGGER.warning("chat already in chat list: "+chat);
             return;
         }
+        if (chat instanceof SingleChat) {
+            SingleChat singleChat = (SingleChat) chat;
+            mSingleChats.putIfAbsent(new SingleKey(singleChat.getMember().getContact(),
+                    singleChat.getXMPPID()), singleChat);
+        } else if (chat instanceof GroupChat) {
+            GroupChat groupChat = (GroupChat) chat;
+            mGroupChats.putIfAbsent(groupChat.getGroupData(), groupChat);
+        }
+        if (!chat.isRead())
+            mUnreadChats.add(chat);
         chat.addObserver(this);
     }
 
@@ -151,14 +188,34 @@ public final class ChatList extends Observable implements Observer, Iterable<Cha
             LOGGER.warning("can't delete chat, not found: "+chat);
             return;
         }
+        if (chat instanceof SingleChat) {
+            SingleChat singleChat = (SingleChat) chat;
+            mSingleChats.remove(new SingleKey(singleChat.getMember().getContact(),
+                    singleChat.getXMPPID()), singleChat);
+        } else if (chat instanceof GroupChat) {
+            GroupChat groupChat = (GroupChat) chat;
+            mGroupChats.remove(groupChat.getGroupData(), groupChat);
+        }
         chat.delete();
         chat.deleteObservers();
         this.changed(ViewChange.MODIFIED);
+
+        boolean changed;
+        synchronized(mUnreadChats) {
+            changed = mUnreadChats.remove(chat) && mUnreadChats.isEmpty();
+        }
+        if (changed)
+            this.changed(ViewChange.UNREAD);
     }
 
     /** Return if any chat is unread. */
     public boolean isUnread() {
-        return mUnread;
+        return !mUnreadChats.isEmpty();
+    }
+
+    /** Return the number of unread chats. */
+    public int getUnreadCount() {
+        return mUnreadChats.size();
     }
 
     private void changed(ViewChange change) {
@@ -171,24 +228,24 @@ public final class ChatList extends Observable implements Observer, Iterable<Cha
         if (arg != Chat.ViewChange.READ || !(o instanceof Chat))
             return;
 
-        boolean unread = !((Chat) o).isRead();
-        if (mUnread == unread)
-            return;
-
-        if (!unread) {
-            // one chat was read, are there still any unread chats?
-            synchronized(mChats) {
-                if (mChats.stream().anyMatch(chat -> !chat.isRead()))
-                    return;
-            }
+        Chat chat = (Chat) o;
+        boolean changed;
+        synchronized(mUnreadChats) {
+            boolean wasUnread = this.isUnread();
+            if (chat.isRead())
+                mUnreadChats.remove(chat);
+            else if (mChats.contains(chat))
+                mUnreadChats.add(chat);
+            changed = this.isUnread() != wasUnread;
         }
 
-        mUnread = !mUnread;
-        this.changed(ViewChange.UNREAD);
+        if (changed)
+            this.changed(ViewChange.UNREAD);
     }
 
     @Override
     public Iterator<Chat> iterator() {
-        return mChats.iterator();
+        // no removal, indexes must stay consistent
+        return Collections.unmodifiableSet(mChats).iterator();
     }
 }
@@ -20,18 +20,24 @@ package org.kontalk.model.chat;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Optional;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.kontalk.model.Contact;
 import org.kontalk.model.message.KonMessage;
@@ -41,6 +47,8 @@ import org.kontalk.persistence.Database;
 /**
  * All messages of a chat.
  *
+ * Thread-safe, reading never blocks.
+ *
  * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
  */
 public final class ChatMessages {
@@ -48,16 +56,24 @@ public final class ChatMessages {
 
     private static final Comparator<KonMessage> MESSAGE_COMPARATOR =
             (KonMessage o1, KonMessage o2) -> {
-                int dateOrder = o1.getDate().compareTo(o2.getDate());
+                int dateOrder = Long.compare(o1.getTime(), o2.getTime());
                 return dateOrder != 0 ? dateOrder : Integer.compare(o1.getID(), o2.getID());
             };
 
-    // comparator inconsistent with .equals(); using one set for ordering...
+    // comparator inconsistent with .equals()
     private final NavigableSet<KonMessage> mSortedSet =
-        Collections.synchronizedNavigableSet(new TreeSet<>(MESSAGE_COMPARATOR));
-    // ... and one set for .contains()
-    private final Set<KonMessage> mContainsSet =
-            Collections.synchronizedSet(new HashSet<>());
+            new ConcurrentSkipListSet<>(MESSAGE_COMPARATOR);
+    // first message for each XMPP ID; equal messages have the same ID
+    private final ConcurrentMap<String, KonMessage> mXMPPIndex =
+            new ConcurrentHashMap<>();
+    // more messages with an already used ID that are not equal to the first
+    // (e.g. in- and outgoing, or from different group members), rare
+    private final ConcurrentMap<String, Set<KonMessage>> mXMPPCollisions =
+            new ConcurrentHashMap<>();
+    // may contain messages that are not pending anymore
+    private final NavigableSet<OutMessage> mPending =
+            new ConcurrentSkipListSet<>(MESSAGE_COMPARATOR);
+    private final AtomicInteger mSize = new AtomicInteger();
 
     ChatMessages() {
     }
@@ -85,12 +101,39 @@ public final class ChatMessages {
     }
 
     private boolean addSilent(KonMessage message) {
-        boolean added = mContainsSet.add(message);
-        if (!added) {
+        String xmppID = message.getXMPPID();
+        // messages without ID are never equal
+        boolean indexed = false;
+        boolean collision = false;
+        if (!xmppID.isEmpty()) {
+            KonMessage present = mXMPPIndex.putIfAbsent(xmppID, message);
+            if (present != null) {
+                if (present.equals(message)) {
+                    LOGGER.warning("message already in chat: " + message);
+                    return false;
+                }
+                LOGGER.info("XMPP ID already used by other message: " + message);
+                if (!mXMPPCollisions.computeIfAbsent(xmppID,
+                        k -> ConcurrentHashMap.newKeySet()).add(message)) {
+                    LOGGER.warning("message already in chat: " + message);
+                    return false;
+                }
+                collision = true;
+            }
+            indexed = present == null;
+        }
+
+        if (!mSortedSet.add(message)) {
+            if (indexed)
+                mXMPPIndex.remove(xmppID, message);
+            if (collision)
+                mXMPPCollisions.get(xmppID).remove(message);
             LOGGER.warning("message already in chat: " + message);
             return false;
         }
-        mSortedSet.add(message);
+        mSize.incrementAndGet();
+        if (message instanceof OutMessage)
+            this.updatePending((OutMessage) message);
         return true;
     }
 
@@ -98,39 +141,107 @@ public final class ChatMessages {
         return Collections.unmodifiableSet(mSortedSet);
     }
 
+    /** Get the newest messages, at most 'count', in ascending order. */
+    public List<KonMessage> getNewest(int count) {
+        return firstOf(mSortedSet.descendingIterator(), count);
+    }
+
+    /** Get the messages before a message, at most 'count', in ascending order. */
+    public List<KonMessage> getBefore(KonMessage message, int count) {
+        return firstOf(mSortedSet.headSet(message, false).descendingIterator(), count);
+    }
+
+    /**
+     * Get the messages before a message that contain the (lower-cased) search
+     * string, at most 'count', in ascending order.
+     */
+    public List<KonMessage> searchBefore(KonMessage message, String search, int count) {
+        ArrayList<KonMessage> found = new ArrayList<>(Math.min(count, 1000));
+        Iterator<KonMessage> descending = mSortedSet.headSet(message, false).descendingIterator();
+        while (descending.hasNext() && found.size() < count) {
+            KonMessage m = descending.next();
+            if (m.contains(search))
+                found.add(m);
+        }
+        Collections.reverse(found);
+        return found;
+    }
+
+    /** Get all messages from 'first' to 'last' (including both), in ascending order. */
+    public List<KonMessage> getBetween(KonMessage first, KonMessage last) {
+        return new ArrayList<>(mSortedSet.subSet(first, true, last, true));
+    }
+
+    /** Get all messages after a message, in ascending order. */
+    public List<KonMessage> getAfter(KonMessage message) {
+        return new ArrayList<>(mSortedSet.tailSet(message, false));
+    }
+
+    private static List<KonMessage> firstOf(Iterator<KonMessage> descending, int count) {
+        ArrayList<KonMessage> messages = new ArrayList<>(Math.min(count, 1000));
+        while (descending.hasNext() && messages.size() < count)
+            messages.add(descending.next());
+        Collections.reverse(messages);
+        return messages;
+    }
+
     /** Get all outgoing messages with status "PENDING" for this chat. */
     public SortedSet<OutMessage> getPending() {
-        synchronized(mSortedSet) {
-            return mSortedSet.stream()
-                    .filter(m -> m.getStatus() == KonMessage.Status.PENDING
-                            && m instanceof OutMessage)
-                    .map(m -> (OutMessage) m)
-                    .collect(Collectors.toCollection(() -> new TreeSet<>(MESSAGE_COMPARATOR)));
+        SortedSet<OutMessage> pending = new TreeSet<>(MESSAGE_COMPARATOR);
+        for (OutMessage message : mPending) {
+            if (message.getStatus() == KonMessage.Status.PENDING)
+                pending.add(message);
+            else
+                mPending.remove(message);
         }
+        return pending;
     }
 
-    /** Get the newest (i.e. last received) outgoing message. */
+    /**
+     * Update the pending index after the status of an outgoing message
+     * changed.
+     */
+    public void updatePending(OutMessage message) {
+        if (message.getStatus() != KonMessage.Status.PENDING)
+            mPending.remove(message);
+        else if (mSortedSet.contains(message))
+            mPending.add(message);
+    }
+
+    /** Get the newest outgoing message with the XMPP ID. */
     public Optional<OutMessage> getLast(String xmppID) {
-        synchronized(mSortedSet) {
-            return mSortedSet.descendingSet().stream()
-                    .filter(m -> m.getXMPPID().equals(xmppID) && m instanceof OutMessage)
-                    .map(m -> (OutMessage) m).findFirst();
-        }
+        KonMessage message = mXMPPIndex.get(xmppID);
+        Set<KonMessage> others = mXMPPCollisions.get(xmppID);
+        if (others == null)
+            return message instanceof OutMessage ?
+                    Optional.of((OutMessage) message) :
+                    Optional.empty();
+
+        return Stream.concat(Stream.of(message), others.stream())
+                .filter(m -> m instanceof OutMessage)
+                .map(m -> (OutMessage) m)
+                .max(MESSAGE_COMPARATOR);
     }
 
     /** Get the last created message. */
     public Optional<KonMessage> getLast() {
+        // messages are never removed
         return mSortedSet.isEmpty() ?
                 Optional.empty() :
                 Optional.of(mSortedSet.last());
     }
 
     public boolean contains(KonMessage message) {
-        return mContainsSet.contains(message);
+        if (mSortedSet.contains(message) ||
+                message.equals(mXMPPIndex.get(message.getXMPPID())))
+            return true;
+
+        Set<KonMessage> others = mXMPPCollisions.get(message.getXMPPID());
+        return others != null && others.contains(message);
     }
 
     public int size() {
-        return mSortedSet.size();
+        return mSize.get();
     }
 
     public boolean isEmpty() {
@@ -138,7 +249,6 @@ public final class ChatMessages {
     }
 
     public Optional<KonMessage> getPredecessor(KonMessage message) {
-        SortedSet<KonMessage> headSet = mSortedSet.headSet(message);
-        return headSet.isEmpty() ? Optional.empty() : Optional.of(headSet.last());
+        return Optional.ofNullable(mSortedSet.lower(message));
     }
 }
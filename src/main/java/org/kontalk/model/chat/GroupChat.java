@@ -159,7 +159,7 @@ public abstract class GroupChat<D extends GroupMetaData> extends Chat {
                 LOGGER.warning("(proto)member not in chat: "+pm);
                 continue;
             }
-            member.getContact().deleteObservers();
+            member.getContact().deleteObserver(this);
             boolean succ = mMemberSet.remove(member);
             if (!succ) {
                 LOGGER.warning("member not in chat: "+member);
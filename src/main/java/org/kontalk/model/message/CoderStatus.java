@@ -20,6 +20,7 @@ package org.kontalk.model.message;
 
 import java.util.EnumSet;
 import org.kontalk.crypto.Coder;
+import org.kontalk.util.EncodingUtils;
 
 /**
  * The encoding/decoding status of a an item (text, attachment, ...) in a
@@ -30,14 +31,15 @@ public class CoderStatus {
 
     private Coder.Encryption mEncryption;
     private Coder.Signing mSigning;
-    private final EnumSet<Coder.Error> mErrors;
+    // bit array, one enum set per message would be wasteful
+    private int mErrors;
 
     public CoderStatus(Coder.Encryption encryption,
             Coder.Signing signing,
             EnumSet<Coder.Error> errors) {
         this.mEncryption = encryption;
         this.mSigning = signing;
-        this.mErrors = errors;
+        this.mErrors = EncodingUtils.enumSetToInt(errors);
     }
 
     public Coder.Encryption getEncryption() {
@@ -83,18 +85,16 @@ public class CoderStatus {
     }
 
     public EnumSet<Coder.Error> getErrors() {
-        // better return a copy
-        return mErrors.clone();
+        return EncodingUtils.intToEnumSet(Coder.Error.class, mErrors);
     }
 
     public void setSecurityErrors(EnumSet<Coder.Error> errors) {
-        mErrors.clear();
-        mErrors.addAll(errors);
+        mErrors = EncodingUtils.enumSetToInt(errors);
     }
 
     @Override
     public String toString() {
-        return "CSTAT:encr="+mEncryption+",sign="+mSigning+",err="+mErrors;
+        return "CSTAT:encr="+mEncryption+",sign="+mSigning+",err="+this.getErrors();
     }
 
     static CoderStatus createInsecure() {
@@ -118,12 +118,13 @@ public abstract class KonMessage extends Observable implements Searchable, Obser
     final int mID;
     private final Chat mChat;
     private final String mXMPPID;
-    private final Date mDate;
+    // timestamps as milliseconds, there are many messages
+    private final long mDate;
     final MessageContent mContent;
 
-    // last timestamp of server transmission packet
+    // last timestamp of server transmission packet, 0 if not set
     // incoming: (delayed) sent; outgoing: sent or error
-    Date mServerDate;
+    long mServerDate;
     Status mStatus;
     final CoderStatus mCoderStatus;
     ServerError mServerError;
@@ -136,14 +137,14 @@ public abstract class KonMessage extends Observable implements Searchable, Obser
                CoderStatus coderStatus) {
         mChat = chat;
         mXMPPID = xmppID;
-        mDate = new Date();
+        mDate = System.currentTimeMillis();
         mContent = content;
         mContent.getAttachment().ifPresent(att -> att.addObserver(this));
 
-        mServerDate = serverDate.orElse(null);
+        mServerDate = serverDate.map(Date::getTime).orElse(0L);
         mStatus = status;
         mCoderStatus = coderStatus;
-        mServerError = new ServerError();
+        mServerError = ServerError.NONE;
 
         // insert
         List<Object> values = Arrays.asList(
@@ -151,7 +152,7 @@ public abstract class KonMessage extends Observable implements Searchable, Obser
                 // database downward compatibility due to bug in version 3.1.2 (and prior)
                 //Database.setString(mXMPPID),
                 mXMPPID,
-                mDate,
+                this.getDate(),
                 mStatus,
         // i simply don't like to save all possible content explicitly in the
         // database, so we use JSON here
@@ -160,7 +161,7 @@ public abstract class KonMessage extends Observable implements Searchable, Obser
                 mCoderStatus.getSigning(),
                 mCoderStatus.getErrors(),
                 mServerError.toJSON(),
-                mServerDate);
+                this.getServerDate());
 
         mID = Model.database().execInsert(TABLE, values);
         if (mID <= 0) {
@@ -206,11 +207,16 @@ public abstract class KonMessage extends Observable implements Searchable, Obser
 
     /** Return (local) creation time of this message. */
     public Date getDate() {
+        return new Date(mDate);
+    }
+
+    /** Return (local) creation time of this message in milliseconds. */
+    public long getTime() {
         return mDate;
     }
 
     public Optional<Date> getServerDate() {
-        return Optional.ofNullable(mServerDate);
+        return mServerDate == 0 ? Optional.empty() : Optional.of(new Date(mServerDate));
     }
 
     public Status getStatus() {
@@ -270,7 +276,7 @@ public abstract class KonMessage extends Observable implements Searchable, Obser
         set.put(COL_SIGN_STAT, mCoderStatus.getSigning());
         set.put(COL_COD_ERR, mCoderStatus.getErrors());
         set.put(COL_SERV_ERR, Database.setString(mServerError.toJSON()));
-        set.put(COL_SERV_DATE, mServerDate);
+        set.put(COL_SERV_DATE, this.getServerDate());
         Model.database().execUpdate(TABLE, set, mID);
     }
 
@@ -325,7 +331,7 @@ public abstract class KonMessage extends Observable implements Searchable, Obser
     public String toString() {
         return "M:id="+mID+",status="+mStatus+",chat="+mChat+",xmppid="+mXMPPID
                 +",transmissions="+this.getTransmissions()
-                +",date="+mDate+",sdate="+mServerDate
+                +",date="+this.getDate()+",sdate="+this.getServerDate().orElse(null)
                 +",cont="+mContent
                 +",codstat="+mCoderStatus+",serverr="+mServerError;
     }
@@ -336,7 +342,7 @@ public abstract class KonMessage extends Observable implements Searchable, Obser
 
         String xmppID = Database.getString(messageRS, KonMessage.COL_XMPP_ID);
 
-        Date date = new Date(messageRS.getLong(KonMessage.COL_DATE));
+        long date = messageRS.getLong(KonMessage.COL_DATE);
 
         int statusIndex = messageRS.getInt(KonMessage.COL_STATUS);
         KonMessage.Status status = KonMessage.Status.values()[statusIndex];
@@ -361,14 +367,12 @@ public abstract class KonMessage extends Observable implements Searchable, Obser
         KonMessage.ServerError serverError =
                 KonMessage.ServerError.fromJSON(jsonServerError);
 
-        long sDate = messageRS.getLong(KonMessage.COL_SERV_DATE);
-        Date serverDate = sDate == 0 ? null : new Date(sDate);
+        long serverDate = messageRS.getLong(KonMessage.COL_SERV_DATE);
 
         KonMessage.Builder builder = new KonMessage.Builder(id, chat, status, date, content);
         builder.transmissions(Transmission.load(id, contactMap));
         builder.xmppID(xmppID);
-        if (serverDate != null)
-            builder.serverDate(serverDate);
+        builder.serverDate(serverDate);
         builder.coderStatus(coderStatus);
         builder.serverError(serverError);
 
@@ -379,13 +383,12 @@ public abstract class KonMessage extends Observable implements Searchable, Obser
         private static final String JSON_COND = "cond";
         private static final String JSON_TEXT = "text";
 
+        /** No error, shared by all messages without one. */
+        static final ServerError NONE = new ServerError("", "");
+
         public final String condition;
         public final String text;
 
-        private ServerError() {
-            this("", "");
-        }
-
         ServerError(String condition, String text) {
             this.condition = condition;
             this.text = text;
@@ -406,9 +409,11 @@ public abstract class KonMessage extends Observable implements Searchable, Obser
         static ServerError fromJSON(String jsonContent) {
             Object obj = JSONValue.parse(jsonContent);
             Map<?, ?> map = (Map) obj;
-            if (map == null) return new ServerError();
+            if (map == null) return NONE;
             String condition = EncodingUtils.getJSONString(map, JSON_COND);
             String text = EncodingUtils.getJSONString(map, JSON_TEXT);
+            if (condition.isEmpty() && text.isEmpty())
+                return NONE;
             return new ServerError(condition, text);
         }
     }
@@ -417,20 +422,20 @@ public abstract class KonMessage extends Observable implements Searchable, Obser
         private final int mID;
         private final Chat mChat;
         private final Status mStatus;
-        private final Date mDate;
+        private final long mDate;
         private final MessageContent mContent;
 
         Set<Transmission> mTransmissions = null;
 
         private String mXMPPID = null;
-        private Date mServerDate = null;
+        private long mServerDate = 0;
         private CoderStatus mCoderStatus = null;
         private ServerError mServerError = null;
 
         private Builder(int id,
                 Chat chat,
                 Status status,
-                Date date,
+                long date,
                 MessageContent content) {
             mID = id;
             mChat = chat;
@@ -442,7 +447,7 @@ public abstract class KonMessage extends Observable implements Searchable, Obser
         private void transmissions(Set<Transmission> transmission) { mTransmissions = transmission; }
 
         private void xmppID(String xmppID) { mXMPPID = xmppID; }
-        private void serverDate(Date date) { mServerDate = date; }
+        private void serverDate(long date) { mServerDate = date; }
         private void coderStatus(CoderStatus coderStatus) { mCoderStatus = coderStatus; }
         private void serverError(ServerError error) { mServerError = error; }
 
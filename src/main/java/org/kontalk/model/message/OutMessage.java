@@ -60,14 +60,14 @@ public final class OutMessage extends KonMessage {
             if (!succ)
                 LOGGER.warning("duplicate contact: " + contact);
         });
-        mTransmissions = Collections.unmodifiableSet(ts);
+        mTransmissions = compact(ts);
     }
 
     // used when loading from database
     OutMessage(KonMessage.Builder builder) {
         super(builder);
 
-        mTransmissions = Collections.unmodifiableSet(builder.mTransmissions);
+        mTransmissions = compact(builder.mTransmissions);
     }
 
     public void setReceived(JID jid, Date date) {
@@ -98,7 +98,8 @@ public final class OutMessage extends KonMessage {
 
         mStatus = status;
         if (status != Status.PENDING)
-            mServerDate = new Date();
+            mServerDate = System.currentTimeMillis();
+        this.getChat().getMessages().updatePending(this);
         this.save();
         this.changed(ViewChange.STATUS);
     }
@@ -121,6 +122,13 @@ public final class OutMessage extends KonMessage {
         return mTransmissions;
     }
 
+    /** Unmodifiable; small for the usual case of one transmission. */
+    private static Set<Transmission> compact(Set<Transmission> transmissions) {
+        return transmissions.size() == 1 ?
+                Collections.singleton(transmissions.iterator().next()) :
+                Collections.unmodifiableSet(transmissions);
+    }
+
     @Override
     public final boolean equals(Object o) {
         if (o == this)
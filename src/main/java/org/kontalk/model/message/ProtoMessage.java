@@ -62,7 +62,7 @@ public final class ProtoMessage implements DecryptMessage {
         return mCoderStatus.isEncrypted();
     }
 
-    MessageContent getContent() {
+    public MessageContent getContent() {
         return mContent;
     }
 
@@ -20,6 +20,7 @@ package org.kontalk.model.message;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
@@ -72,17 +73,18 @@ final public class Transmission {
 
     private final Contact mContact;
     private final JID mJID;
-    private Date mReceivedDate;
+    // 0 if not received yet
+    private long mReceivedDate;
 
     Transmission(Contact contact, JID jid, int messageID) {
         mContact = contact;
         mJID = jid;
-        mReceivedDate = null;
+        mReceivedDate = 0;
 
         mID = this.insert(messageID);
     }
 
-    private Transmission(int id, Contact contact, JID jid, Date receivedDate) {
+    private Transmission(int id, Contact contact, JID jid, long receivedDate) {
         mID = id;
         mContact = contact;
         mJID = jid;
@@ -98,15 +100,15 @@ final public class Transmission {
     }
 
     public Optional<Date> getReceivedDate() {
-        return Optional.ofNullable(mReceivedDate);
+        return mReceivedDate == 0 ? Optional.empty() : Optional.of(new Date(mReceivedDate));
     }
 
     boolean isReceived() {
-        return mReceivedDate != null;
+        return mReceivedDate != 0;
     }
 
     void setReceived(Date date) {
-        mReceivedDate = date;
+        mReceivedDate = date.getTime();
         this.save();
     }
 
@@ -115,7 +117,7 @@ final public class Transmission {
                 messageID,
                 mContact.getID(),
                 mJID,
-                mReceivedDate);
+                this.getReceivedDate());
 
         int id = Model.database().execInsert(TABLE, values);
         if (id <= 0) {
@@ -127,7 +129,7 @@ final public class Transmission {
 
     private void save() {
         Map<String, Object> set = new HashMap<>();
-        set.put(COL_REC_DATE, mReceivedDate);
+        set.put(COL_REC_DATE, this.getReceivedDate());
         Model.database().execUpdate(TABLE, set, mID);
     }
 
@@ -141,13 +143,16 @@ final public class Transmission {
 
     @Override
     public String toString() {
-        return "T:id="+mID+",contact="+mContact+",jid="+mJID+",recdate="+mReceivedDate;
+        return "T:id="+mID+",contact="+mContact+",jid="+mJID+",recdate="+this.getReceivedDate().orElse(null);
     }
 
     static Set<Transmission> load(int messageID, Map<Integer, Contact> contactMap) {
         HashSet<Transmission> ts = new HashSet<>();
         try (ResultSet transmissionRS = Model.database().execSelectWhereInsecure(TABLE,
-                COL_MESSAGE_ID + " == " + messageID)) {
+                COL_MESSAGE_ID + " == " + messageID);
+                // one query per message, the driver keeps the statement
+                // until it is closed
+                Statement stat = transmissionRS.getStatement()) {
             while (transmissionRS.next()) {
                 ts.add(load(transmissionRS, contactMap));
             }
@@ -172,8 +177,10 @@ final public class Transmission {
             return null;
         }
         JID jid = JID.full(resultSet.getString(COL_JID));
-        long rDate = resultSet.getLong(COL_REC_DATE);
-        Date receivedDate = rDate == 0 ? null : new Date(rDate);
+        if (jid.string().equals(contact.getJID().string()))
+            // usually the same for outgoing messages, don't keep a copy
+            jid = contact.getJID();
+        long receivedDate = resultSet.getLong(COL_REC_DATE);
 
         return new Transmission(id, contact, jid, receivedDate);
     }
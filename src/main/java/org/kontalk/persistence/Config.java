@@ -54,6 +54,8 @@ public final class Config extends PropertiesConfiguration {
     public static final String VIEW_USER_CONTACT = "view.user_in_contactlist";
     public static final String VIEW_HIDE_BLOCKED = "view.hide_blocked_contacts";
     public static final String VIEW_MESSAGE_FONT_SIZE = "view.msg_font_size";
+    /** Threshold in ms for logging EDT stalls, disabled if not positive. */
+    public static final String VIEW_EDT_WATCHDOG = "view.edt_watchdog";
     public static final String NET_SEND_CHAT_STATE = "net.chatstate";
     public static final String NET_SEND_ROSTER_NAME = "net.roster_name";
     public static final String NET_STATUS_LIST = "net.status_list";
@@ -103,6 +105,7 @@ public final class Config extends PropertiesConfiguration {
         map.put(VIEW_USER_CONTACT, false);
         map.put(VIEW_HIDE_BLOCKED, false);
         map.put(VIEW_MESSAGE_FONT_SIZE, -1);
+        map.put(VIEW_EDT_WATCHDOG, 0);
         map.put(NET_SEND_CHAT_STATE, true);
         map.put(NET_SEND_ROSTER_NAME, false);
         map.put(NET_STATUS_LIST, new String[]{mDefaultXMPPStatus});
@@ -32,12 +32,16 @@ import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import org.apache.commons.lang.StringUtils;
 import org.kontalk.misc.JID;
 import org.kontalk.misc.KonException;
+import org.kontalk.misc.Metrics;
 import org.kontalk.model.message.KonMessage;
 import org.kontalk.model.chat.Chat;
 import org.kontalk.model.Contact;
@@ -51,7 +55,9 @@ import org.sqlite.SQLiteConfig;
  * Uses the JDBC API and SQLite as DBMS.
  *
  * Database access is not concurrent safe (connection pool is needed). At least
- * writing is synchronized. Hopefully we don't see this no more:
+ * writing is synchronized: all writes, commits and batches hold one write lock.
+ * A batch holds the lock from beginning to end, so writes of other threads wait
+ * until the batch is committed or rolled back. Hopefully we don't see this no more:
  * "SQLException: ResultSet already requested" or "ResultSet closed"
  *
  * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
@@ -59,15 +65,29 @@ import org.sqlite.SQLiteConfig;
 public final class Database {
     private static final Logger LOGGER = Logger.getLogger(Database.class.getName());
 
+    private static final Metrics.Timer INSERT_TIMER = Metrics.timer("db.insert");
+    private static final Metrics.Timer UPDATE_TIMER = Metrics.timer("db.update");
+    private static final Metrics.Timer QUERY_TIMER = Metrics.timer("db.query");
+
     public static final String SQL_ID = "_id INTEGER PRIMARY KEY AUTOINCREMENT, ";
 
-    private static final String FILENAME = "kontalk_db.sqlite";
-    private static final int DB_VERSION = 5;
+    public static final String FILENAME = "kontalk_db.sqlite";
+    private static final int DB_VERSION = 6;
     private static final String SQL_CREATE = "CREATE TABLE IF NOT EXISTS ";
     private static final String SV = "schema_version";
     private static final String UV = "user_version";
 
     private Connection mConn = null;
+    /** Held for every write and for the whole duration of a batch. */
+    private final ReentrantLock mWriteLock = new ReentrantLock();
+    /** Nesting depth of current batch; only accessed by the lock owner. */
+    private int mBatchDepth = 0;
+    /** If the current batch is rolled back when the outermost batch ends. */
+    private boolean mBatchFailed = false;
+    /** Delay (ms) for committing changes outside of batches, 0: immediately. */
+    private long mCommitDelay = 0;
+    private Timer mCommitTimer = null;
+    private boolean mCommitScheduled = false;
 
     public Database(Path appDir) throws KonException {
         // load the sqlite-JDBC driver using the current class loader
@@ -117,6 +137,8 @@ public final class Database {
                 this.createTable(stat, Member.TABLE, Member.SCHEMA);
                 this.createTable(stat, KonMessage.TABLE, KonMessage.SCHEMA);
                 this.createTable(stat, Transmission.TABLE, Transmission.SCHEMA);
+                // a rollback must not remove the tables
+                this.commit();
             } catch (SQLException ex) {
                 LOGGER.log(Level.SEVERE, "can't create tables", ex);
                 throw new KonException(KonException.Error.DB, ex);
@@ -184,6 +206,10 @@ public final class Database {
             mConn.createStatement().execute("ALTER TABLE "+Member.TABLE+
                     " ADD COLUMN "+Member.COL_ROLE+" DEFAULT 0");
         }
+        if (fromVersion < 6) {
+            mConn.createStatement().execute("ALTER TABLE "+Contact.TABLE+
+                    " ADD COLUMN "+Contact.COL_KEY_CHECKED+" DEFAULT NULL");
+        }
 
         // set new version
         mConn.createStatement().execute("PRAGMA "+UV+" = "+DB_VERSION);
@@ -191,15 +217,23 @@ public final class Database {
         LOGGER.info("updated to version "+DB_VERSION);
     }
 
-    public synchronized void close() {
+    /** Close the database, waits for a running batch of another thread. */
+    public void close() {
+        mWriteLock.lock();
         try {
             if(mConn == null || mConn.isClosed())
                 return;
+            if (mCommitTimer != null)
+                mCommitTimer.cancel();
+            if (mBatchDepth > 0)
+                LOGGER.warning("closing with open batch, depth: "+mBatchDepth);
             // just to be sure
             mConn.commit();
             mConn.close();
         } catch(SQLException ex) {
             LOGGER.log(Level.WARNING, "can't close db", ex);
+        } finally {
+            mWriteLock.unlock();
         }
     }
 
@@ -221,11 +255,13 @@ public final class Database {
     }
 
     private ResultSet execQuery(String select) throws SQLException {
+        long start = System.nanoTime();
         try {
             PreparedStatement stat = mConn.prepareStatement(select);
             // does not work, i dont care
             //stat.closeOnCompletion();
             ResultSet resultSet = stat.executeQuery();
+            QUERY_TIMER.record(start);
             return resultSet;
         } catch (SQLException ex) {
             LOGGER.log(Level.WARNING, "can't execute select: " + select, ex);
@@ -239,7 +275,7 @@ public final class Database {
      * @param values all objects / row fields that to insert
      * @return id value of inserted row, -1 if something went wrong
      */
-    public synchronized int execInsert(String table, List<Object> values) {
+    public int execInsert(String table, List<Object> values) {
         // first column is the id
         String insert = "INSERT INTO " + table + " VALUES (NULL,";
 
@@ -249,21 +285,27 @@ public final class Database {
 
         insert += StringUtils.join(vList, ", ") + ")";
 
+        long start = System.nanoTime();
+        mWriteLock.lock();
         try (PreparedStatement stat = mConn.prepareStatement(insert,
                 Statement.RETURN_GENERATED_KEYS)) {
             insertValues(stat, values);
             stat.executeUpdate();
-            mConn.commit();
+            this.mayCommit();
             ResultSet keys = stat.getGeneratedKeys();
-            return keys.getInt(1);
+            int id = keys.getInt(1);
+            INSERT_TIMER.record(start);
+            return id;
         } catch (SQLException ex) {
             LOGGER.log(Level.WARNING, "can't execute insert: " + insert + " " + values, ex);
             return -1;
+        } finally {
+            mWriteLock.unlock();
         }
     }
 
     /** Update values (at most one row). */
-    public synchronized void execUpdate(String table, Map<String, Object> set, int id) {
+    public void execUpdate(String table, Map<String, Object> set, int id) {
         LOGGER.config("table: "+table);
         String update = "UPDATE OR FAIL " + table + " SET ";
 
@@ -277,34 +319,185 @@ public final class Database {
         // note: looks like driver doesn't support "LIMIT"
         //update += " LIMIT 1";
 
+        long start = System.nanoTime();
+        mWriteLock.lock();
         try (PreparedStatement stat = mConn.prepareStatement(update, Statement.RETURN_GENERATED_KEYS)) {
             insertValues(stat, keyList, set);
             stat.executeUpdate();
-            mConn.commit();
+            this.mayCommit();
             stat.getGeneratedKeys();
+            UPDATE_TIMER.record(start);
         } catch (SQLException ex) {
             LOGGER.log(Level.WARNING, "can't execute update: " + update + " " + set, ex);
+        } finally {
+            mWriteLock.unlock();
         }
     }
 
     /** Delete one row. Not commited! Call commit() after deletions. */
     public boolean execDelete(String table, int id) {
         LOGGER.info("deletion, table: " + table + "; id: " + id);
+        mWriteLock.lock();
         try (Statement stat = mConn.createStatement()) {
             stat.executeUpdate("DELETE FROM " + table + " WHERE _id = " + id);
         } catch (SQLException ex) {
             LOGGER.log(Level.WARNING, "can't delete", ex);
             return false;
+        } finally {
+            mWriteLock.unlock();
         }
         return true;
     }
 
+    /**
+     * Start a batch: inserts and updates are not committed until the batch
+     * is ended. Batches can be nested, only the outermost one commits.
+     * The batch is owned by the calling thread, writes from other threads wait
+     * until it ends. Changes not committed yet are committed before the batch
+     * starts. Every call must be followed by a call to endBatch() or
+     * rollbackBatch() on the same thread.
+     */
+    public void beginBatch() {
+        mWriteLock.lock();
+        if (mBatchDepth == 0) {
+            // changes before the batch (e.g. waiting for a delayed commit)
+            // must not be rolled back with it
+            try {
+                mConn.commit();
+            } catch (SQLException ex) {
+                LOGGER.log(Level.WARNING, "can't commit", ex);
+            }
+        }
+        mBatchDepth++;
+    }
+
+    /**
+     * End a batch and commit all changes if this is the outermost batch.
+     * If any nested batch was rolled back, all changes are rolled back instead.
+     */
+    public boolean endBatch() {
+        return this.finishBatch(false);
+    }
+
+    /**
+     * End a batch and roll back all changes since the outermost batch
+     * started. If this is a nested batch the rollback happens when the
+     * outermost batch ends.
+     */
+    public void rollbackBatch() {
+        this.finishBatch(true);
+    }
+
+    /**
+     * Run the task in a batch. Changes are committed if the task completes
+     * and rolled back if it throws.
+     */
+    public void runBatch(Runnable task) {
+        this.beginBatch();
+        try {
+            task.run();
+        } catch (RuntimeException | Error ex) {
+            this.rollbackBatch();
+            throw ex;
+        }
+        this.endBatch();
+    }
+
+    private boolean finishBatch(boolean rollback) {
+        if (!mWriteLock.isHeldByCurrentThread() || mBatchDepth == 0) {
+            LOGGER.warning("no batch started by this thread");
+            return false;
+        }
+
+        try {
+            mBatchFailed |= rollback;
+            mBatchDepth--;
+            if (mBatchDepth > 0)
+                return !mBatchFailed;
+
+            boolean failed = mBatchFailed;
+            mBatchFailed = false;
+            if (!failed)
+                return this.commit();
+
+            LOGGER.warning("rolling back batch");
+            try {
+                mConn.rollback();
+            } catch (SQLException ex) {
+                LOGGER.log(Level.WARNING, "can't roll back", ex);
+            }
+            return false;
+        } finally {
+            mWriteLock.unlock();
+        }
+    }
+
+    /**
+     * Group commits: changes outside of batches are committed after a delay
+     * (in milliseconds) together with all other changes in that time. Faster
+     * for many small writes, but changes made during the delay are lost if the
+     * application is killed.
+     */
+    public void setCommitDelay(long delay) {
+        mWriteLock.lock();
+        try {
+            mCommitDelay = delay;
+            if (delay > 0 && mCommitTimer == null)
+                mCommitTimer = new Timer("Database Commit", true);
+        } finally {
+            mWriteLock.unlock();
+        }
+    }
+
+    private void mayCommit() throws SQLException {
+        if (mBatchDepth > 0)
+            return;
+
+        if (mCommitDelay <= 0) {
+            mConn.commit();
+            return;
+        }
+
+        if (mCommitScheduled)
+            return;
+        mCommitScheduled = true;
+        mCommitTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                Database.this.delayedCommit();
+            }
+        }, mCommitDelay);
+    }
+
+    private void delayedCommit() {
+        mWriteLock.lock();
+        try {
+            mCommitScheduled = false;
+            // if in batch: committed when batch ends
+            if (mBatchDepth == 0 && !mConn.isClosed())
+                mConn.commit();
+        } catch (SQLException ex) {
+            LOGGER.log(Level.WARNING, "can't commit", ex);
+        } finally {
+            mWriteLock.unlock();
+        }
+    }
+
+    /**
+     * Commit all changes. Does nothing inside a batch of this thread, the
+     * changes are committed when the batch ends.
+     */
     public boolean commit() {
+        mWriteLock.lock();
         try {
+            if (mBatchDepth > 0)
+                return true;
             mConn.commit();
         } catch (SQLException ex) {
             LOGGER.log(Level.WARNING, "can't commit", ex);
             return false;
+        } finally {
+            mWriteLock.unlock();
         }
         return true;
     }
@@ -30,6 +30,7 @@ import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -225,7 +226,14 @@ public class AttachmentManager implements Runnable {
             return;
 
         long length = file.length();
-        Slot uploadSlot = mClient.getUploadSlot(uploadName, length, mime);
+        Slot uploadSlot;
+        try {
+            // blocking
+            uploadSlot = mClient.requestUploadSlot(uploadName, length, mime).get();
+        } catch (InterruptedException | ExecutionException ex) {
+            LOGGER.log(Level.WARNING, "can't get upload slot", ex);
+            return;
+        }
         if (uploadSlot.uploadURL.toString().isEmpty() ||
                 uploadSlot.downloadURL.toString().isEmpty()) {
             LOGGER.warning("empty slot: "+attachment);
@@ -324,12 +332,14 @@ public class AttachmentManager implements Runnable {
         if (!isImage(mime))
             return;
 
-        BufferedImage image = MediaUtils.readImage(path);
+        BufferedImage image = MediaUtils.readImage(path,
+                THUMBNAIL_DIM.width,
+                THUMBNAIL_DIM.height);
         // the attachment image could be smaller than the thumbnail - nobody cares
 //        if (image.getWidth() <= THUMBNAIL_DIM.width && image.getHeight() <= THUMBNAIL_DIM.height)
 //           return;
 
-        Image thumb = MediaUtils.scaleAsync(image,
+        Image thumb = MediaUtils.scale(image,
                 THUMBNAIL_DIM.width ,
                 THUMBNAIL_DIM.height);
 
@@ -19,6 +19,8 @@
 package org.kontalk.system;
 
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
@@ -32,6 +34,7 @@ import java.util.Observable;
 import java.util.Optional;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -48,6 +51,7 @@ import org.kontalk.crypto.PGPUtils.PGPCoderKey;
 import org.kontalk.crypto.PersonalKey;
 import org.kontalk.misc.JID;
 import org.kontalk.misc.KonException;
+import org.kontalk.misc.Metrics;
 import org.kontalk.misc.ViewEvent;
 import org.kontalk.model.Account;
 import org.kontalk.model.Avatar;
@@ -82,6 +86,9 @@ import org.kontalk.view.View;
 public final class Control {
     private static final Logger LOGGER = Logger.getLogger(Control.class.getName());
 
+    /** Time from connection loss until the connection is usable again. */
+    private static final Metrics.Timer RECONNECT_TIMER = Metrics.timer("net.reconnect");
+
     /** The current application state. */
     public enum Status {
         DISCONNECTING,
@@ -95,8 +102,15 @@ public final class Control {
         ERROR
     }
 
-    /** Interval between retry connection attempts after failure. */
-    private static final int RETRY_TIMER_INTERVAL = 20; // seconds
+    /** Interval before the first retry connection attempt after failure. */
+    private static final int RETRY_BASE_INTERVAL = 5; // seconds
+    /** Upper limit for the interval between retry connection attempts. */
+    private static final int RETRY_MAX_INTERVAL = 300; // seconds
+
+    /** Delay for committing single database writes without UI. */
+    private static final int HEADLESS_COMMIT_DELAY = 500; // milliseconds
+    /** Max time to wait for processing remaining incoming messages on shutdown. */
+    private static final int SHUTDOWN_TIMEOUT = 10000; // milliseconds
 
     private final ViewControl mViewControl;
 
@@ -108,9 +122,17 @@ public final class Control {
     private final RosterHandler mRosterHandler;
     private final AvatarHandler mAvatarHandler;
     private final GroupControl mGroupControl;
+    private final InMessageBatcher mInMessageBatcher;
+    private final KeyRefresher mKeyRefresher;
 
     private boolean mShuttingDown = false;
+    /** Running without UI, view-only work is skipped. */
+    private boolean mHeadless = false;
+    private LocalAPI mLocalAPI = null;
     private Timer mRetryTimer = null;
+    private int mRetryAttempts = 0;
+    /** Time (nanoseconds) the connection got lost, 0 if not lost. */
+    private long mConnectionLostTime = 0;
 
     public Control(Path appDir) throws KonException {
         mViewControl = new ViewControl();
@@ -132,20 +154,44 @@ public final class Control {
         mRosterHandler = new RosterHandler(this, mClient, mModel);
         mAvatarHandler = new AvatarHandler(mClient, mModel);
         mGroupControl = new GroupControl(this, mModel);
+        mInMessageBatcher = InMessageBatcher.create(this, mDB);
+        mKeyRefresher = KeyRefresher.create(this, mClient);
     }
 
     public void launch(boolean ui) {
+        // startup phases, UI is shown before chats are loaded
+        long start = System.currentTimeMillis();
+        if (ui)
+            View.preload();
+        else
+            this.setHeadless();
 
-        mModel.load();
+        mModel.loadContacts();
+        long contactsLoaded = System.currentTimeMillis();
 
+        View view = null;
         if (ui) {
-            View view = View.create(mViewControl, mModel).orElse(null);
+            long viewStart = System.nanoTime();
+            view = View.create(mViewControl, mModel).orElse(null);
             if (view == null) {
                 this.shutDown(true);
                 return; // never reached
             }
-            view.init();
+            Metrics.timer("startup.view").record(viewStart);
         }
+        long viewCreated = System.currentTimeMillis();
+
+        mModel.loadChats();
+        long chatsLoaded = System.currentTimeMillis();
+
+        if (view != null)
+            view.init();
+
+        LOGGER.info("startup (ms): contacts=" + (contactsLoaded - start)
+                + " view=" + (viewCreated - contactsLoaded)
+                + " chats=" + (chatsLoaded - viewCreated)
+                + " total=" + (chatsLoaded - start)
+                + " since JVM start=" + ManagementFactory.getRuntimeMXBean().getUptime());
 
         boolean connect = Config.getInstance().getBoolean(Config.MAIN_CONNECT_STARTUP);
         if (!mModel.account().isPresent()) {
@@ -158,6 +204,29 @@ public final class Control {
             mViewControl.connect();
     }
 
+    /**
+     * Start the local socket API for sending and receiving messages.
+     * @see LocalAPI
+     */
+    public boolean startLocalAPI(int port) {
+        if (mLocalAPI != null) {
+            LOGGER.warning("API already started");
+            return false;
+        }
+        try {
+            mLocalAPI = LocalAPI.create(this, mModel, mDB, port);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "can't start local API on port " + port, ex);
+            return false;
+        }
+        mViewControl.addObserver(mLocalAPI);
+        return true;
+    }
+
+    public boolean isHeadless() {
+        return mHeadless;
+    }
+
     public void shutDown(boolean exit) {
         if (mShuttingDown)
             // we were already here
@@ -166,12 +235,19 @@ public final class Control {
         mShuttingDown = true;
 
         LOGGER.info("Shutting down...");
+        if (mLocalAPI != null)
+            mLocalAPI.close();
         mViewControl.disconnect();
 
         mViewControl.changed(new ViewEvent.StatusChange(Status.SHUTTING_DOWN,
                 EnumSet.noneOf(FeatureDiscovery.Feature.class)));
 
+        // no new messages after disconnecting, save what is left
+        mInMessageBatcher.shutDown(SHUTDOWN_TIMEOUT);
+
         mModel.onShutDown();
+        if (mHeadless)
+            Metrics.export(Model.appDir());
         try {
             mDB.close();
         } catch (RuntimeException ex) {
@@ -186,6 +262,14 @@ public final class Control {
         }
     }
 
+    private void setHeadless() {
+        LOGGER.info("headless profile, commit delay: " + HEADLESS_COMMIT_DELAY + " ms");
+        mHeadless = true;
+        // incoming messages are already saved in batches; status changes,
+        // receipts, contact updates... are committed together
+        mDB.setCommitDelay(HEADLESS_COMMIT_DELAY);
+    }
+
     public RosterHandler getRosterHandler() {
         return mRosterHandler;
     }
@@ -198,35 +282,63 @@ public final class Control {
         return mViewControl;
     }
 
+    Model getModel() {
+        return mModel;
+    }
+
     /* events from network client */
 
-    public void onStatusChange(Status status, EnumSet<FeatureDiscovery.Feature> features) {
+    /**
+     * Connection status changed. If the stream was resumed after connecting,
+     * everything sent in the old stream is still delivered.
+     */
+    public void onStatusChange(Status status, EnumSet<FeatureDiscovery.Feature> features,
+            boolean resumed) {
         mViewControl.changed(new ViewEvent.StatusChange(status, features));
 
         Config config = Config.getInstance();
         if (status == Status.CONNECTED) {
             String[] strings = config.getStringArray(Config.NET_STATUS_LIST);
             mClient.sendUserPresence(strings.length > 0 ? strings[0] : "");
-            // send all pending messages
+            // send all pending messages (not sent yet, if resumed)
             for (Chat chat: mModel.chats())
-                chat.getMessages().getPending().forEach(this::sendMessage);
+                chat.getMessages().getPending().stream()
+                        .filter(m -> !resumed || !mClient.isSentInStream(m))
+                        .forEach(this::sendMessage);
 
             // send public key requests for Kontalk contacts with missing key
-            for (Contact contact : mModel.contacts().getAll(false, false))
-                this.maySendKeyRequest(contact);
+            // (already sent, if resumed)
+            if (!resumed) {
+                for (Contact contact : mModel.contacts().getAll(false, false))
+                    this.maySendKeyRequest(contact);
+            }
 
             // TODO check current user avatar on server and upload if necessary
 
+            if (mConnectionLostTime != 0) {
+                RECONNECT_TIMER.record(mConnectionLostTime);
+                LOGGER.info("connection usable after "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mConnectionLostTime)
+                        + " ms, retry attempts: " + mRetryAttempts);
+                mConnectionLostTime = 0;
+            }
+            mRetryAttempts = 0;
+
         } else if (status == Status.DISCONNECTED || status == Status.FAILED) {
             for (Contact contact : mModel.contacts().getAll(false, false))
                 contact.setOnlineStatus(Contact.Online.UNKNOWN);
         }
 
+        if (status == Status.ERROR && mConnectionLostTime == 0)
+            mConnectionLostTime = System.nanoTime();
+
         if ((status == Status.FAILED || status == Status.ERROR)
                     && config.getBoolean(Config.NET_RETRY_CONNECT)) {
+            final int interval = retryInterval(mRetryAttempts++);
+            LOGGER.info("retry connecting in " + interval + " seconds");
             mRetryTimer = new Timer("Retry Timer", true);
             TimerTask task = new TimerTask() {
-                private int mCountDown = RETRY_TIMER_INTERVAL;
+                private int mCountDown = interval;
 
                 @Override
                 public void run() {
@@ -241,6 +353,17 @@ public final class Control {
         }
     }
 
+    /**
+     * Exponential backoff with jitter: the interval doubles with each attempt
+     * and is randomized between half and full length so that clients do not
+     * reconnect at the same time after a server outage.
+     */
+    private static int retryInterval(int attempt) {
+        int interval = RETRY_BASE_INTERVAL << Math.min(attempt, 16);
+        interval = Math.min(interval, RETRY_MAX_INTERVAL);
+        return interval / 2 + ThreadLocalRandom.current().nextInt(interval / 2 + 1);
+    }
+
     public void onAuthenticated(JID jid) {
         mModel.setUserJID(jid);
     }
@@ -268,52 +391,17 @@ public final class Control {
     /**
      * All-in-one method for a new incoming message (except handling server
      * receipts): Create, save and process the message.
+     * Processing is asynchronous, but in the order messages and message events
+     * are received. The callback is run after the message is committed to the
+     * database.
      */
     public void onNewInMessage(MessageIDs ids,
             Optional<Date> serverDate,
-            MessageContent content) {
+            MessageContent content,
+            Runnable onSaved) {
         LOGGER.info("new incoming message, "+ids);
 
-        Contact sender = this.getOrCreateContact(ids.jid).orElse(null);
-        if (sender == null) {
-            LOGGER.warning("can't get contact for message");
-            return;
-        }
-
-        // decrypt message now to get possible group data
-        ProtoMessage protoMessage = new ProtoMessage(sender, content);
-        if (protoMessage.isEncrypted()) {
-            this.myKey().ifPresent(mk -> Coder.decryptMessage(mk, protoMessage));
-        }
-
-        // NOTE: decryption must be successful to select group chat
-        GroupMetaData groupData = content.getGroupData().orElse(null);
-        Chat chat = groupData != null ?
-                mGroupControl.getGroupChat(groupData, sender, content.getGroupCommand()).orElse(null) :
-                mModel.chats().getOrCreate(sender, ids.xmppThreadID);
-        if (chat == null) {
-            LOGGER.warning("no chat found, message lost: "+protoMessage);
-            return;
-        }
-
-        InMessage newMessage = mModel.createInMessage(
-                protoMessage, chat, ids, serverDate).orElse(null);
-        if (newMessage == null)
-            return;
-
-        GroupCommand com = newMessage.getContent().getGroupCommand().orElse(null);
-        if (com != null) {
-            if (chat instanceof GroupChat) {
-                mGroupControl.getInstanceFor((GroupChat) chat)
-                        .onInMessage(com, sender);
-            } else {
-                LOGGER.warning("group command for non-group chat");
-            }
-        }
-
-        this.processContent(newMessage);
-
-        mViewControl.changed(new ViewEvent.NewMessage(newMessage));
+        mInMessageBatcher.queue(ids, serverDate, content, onSaved);
     }
 
     public void onMessageSent(MessageIDs ids) {
@@ -324,7 +412,12 @@ public final class Control {
         message.setStatus(KonMessage.Status.SENT);
     }
 
+    /** Processed asynchronously, in order with incoming messages. */
     public void onMessageReceived(MessageIDs ids, Date receivedDate) {
+        mInMessageBatcher.queue(() -> this.processMessageReceived(ids, receivedDate));
+    }
+
+    private void processMessageReceived(MessageIDs ids, Date receivedDate) {
         OutMessage message = this.findMessage(ids).orElse(null);
         if (message == null)
             return;
@@ -341,6 +434,7 @@ public final class Control {
 
     /**
      * Inform model (and view) about a received chat state notification.
+     * Processed asynchronously, in order with incoming messages.
      */
     public void onChatStateNotification(MessageIDs ids,
             Optional<Date> serverDate,
@@ -352,6 +446,10 @@ public final class Control {
                 return;
             }
         }
+        mInMessageBatcher.queue(() -> this.processChatState(ids, chatState));
+    }
+
+    private void processChatState(MessageIDs ids, ChatState chatState) {
         Contact contact = mModel.contacts().get(ids.jid).orElse(null);
         if (contact == null) {
             LOGGER.info("can't find contact with jid: "+ids.jid);
@@ -377,17 +475,11 @@ public final class Control {
     }
 
     void onPGPKey(Contact contact, byte[] rawKey) {
-        PGPCoderKey key = PGPUtils.readPublicKey(rawKey).orElse(null);
-        if (key == null) {
-            LOGGER.warning("invalid public PGP key, contact: "+contact);
-            return;
-        }
-
-        if (!key.userID.contains("<"+contact.getJID().string()+">")) {
-            LOGGER.warning("UID does not contain contact JID");
-            return;
-        }
+        // parsed async
+        mKeyRefresher.onKeyData(contact, rawKey);
+    }
 
+    void onPGPKey(Contact contact, PGPCoderKey key) {
         if (key.fingerprint.equals(contact.getFingerprint()))
             // same key
             return;
@@ -454,28 +546,101 @@ public final class Control {
       * save, process and send message.
       */
     boolean createAndSendMessage(Chat chat, MessageContent content) {
+        OutMessage newMessage = this.createOutMessage(chat, content).orElse(null);
+        if (newMessage == null)
+            return false;
+
+        return this.sendMessage(newMessage);
+    }
+
+    /** Create and save a new outgoing message. */
+    Optional<OutMessage> createOutMessage(Chat chat, MessageContent content) {
+        return this.newOutMessage(chat, content).filter(this::addOutMessage);
+    }
+
+    /** Create and save a new outgoing message, see addOutMessage(). */
+    Optional<OutMessage> newOutMessage(Chat chat, MessageContent content) {
         LOGGER.config("chat: "+chat+" content: "+content);
 
         if (!chat.isValid()) {
                 LOGGER.warning("invalid chat");
-                return false;
+                return Optional.empty();
         }
 
         List<Contact> contacts = chat.getValidContacts();
         if (contacts.isEmpty()) {
             LOGGER.warning("can't send message, no (valid) contact(s)");
-            return false;
+            return Optional.empty();
         }
 
-        OutMessage newMessage = mModel.createOutMessage(
-                chat, contacts, content).orElse(null);
-        if (newMessage == null)
+        return Optional.of(mModel.newOutMessage(chat, contacts, content));
+    }
+
+    /** Add a new outgoing message to its chat. Call only after the message was committed. */
+    boolean addOutMessage(OutMessage newMessage) {
+        if (!mModel.addMessage(newMessage))
             return false;
 
-        if (newMessage.getContent().getOutAttachment().isPresent())
+        // preview is only for the view
+        if (!mHeadless && newMessage.getContent().getOutAttachment().isPresent())
             mAttachmentManager.mayCreateImagePreview(newMessage);
 
-        return this.sendMessage(newMessage);
+        return true;
+    }
+
+    /**
+     * Get the chat for a new incoming message, this may create a new chat. The message should
+     * already be decrypted (if possible).
+     */
+    Optional<Chat> getChat(MessageIDs ids, ProtoMessage protoMessage) {
+        Contact sender = protoMessage.getContact();
+
+        // NOTE: decryption must be successful to select group chat
+        MessageContent content = protoMessage.getContent();
+        GroupMetaData groupData = content.getGroupData().orElse(null);
+        Chat chat = groupData != null ?
+                mGroupControl.getGroupChat(groupData, sender, content.getGroupCommand()).orElse(null) :
+                mModel.chats().getOrCreate(sender, ids.xmppThreadID);
+        if (chat == null) {
+            LOGGER.warning("no chat found, message lost: "+protoMessage);
+            return Optional.empty();
+        }
+        return Optional.of(chat);
+    }
+
+    /**
+     * Create and save a new incoming message, see addInMessage(). The view is not notified
+     * about the new message.
+     */
+    Optional<InMessage> createInMessage(MessageIDs ids,
+            Optional<Date> serverDate,
+            ProtoMessage protoMessage,
+            Chat chat) {
+        return mModel.createInMessage(protoMessage, chat, ids, serverDate);
+    }
+
+    /**
+     * Add a new incoming message to its chat and process it. Call only after
+     * the message was committed.
+     */
+    boolean addInMessage(InMessage newMessage) {
+        if (!mModel.addMessage(newMessage))
+            return false;
+
+        Chat chat = newMessage.getChat();
+        GroupCommand com = newMessage.getContent().getGroupCommand().orElse(null);
+        if (com != null) {
+            if (chat instanceof GroupChat) {
+                mGroupControl.getInstanceFor((GroupChat) chat)
+                        .onInMessage(com, newMessage.getContact());
+            } else {
+                LOGGER.warning("group command for non-group chat");
+            }
+        }
+
+        this.processContent(newMessage);
+
+        return true;
     }
 
     boolean sendMessage(OutMessage message) {
@@ -539,8 +704,8 @@ public final class Control {
     }
 
     void maySendKeyRequest(Contact contact) {
-        if (canSendKeyRequest(contact) && !contact.hasKey())
-            this.sendKeyRequest(contact);
+        if (canSendKeyRequest(contact))
+            mKeyRefresher.mayRequest(contact);
     }
 
     void sendKeyRequest(Contact contact) {
@@ -549,7 +714,7 @@ public final class Control {
             return;
         }
 
-        mClient.sendPublicKeyRequest(contact.getJID());
+        mKeyRefresher.request(contact);
     }
 
     Optional<Contact> getOrCreateContact(JID jid) {
@@ -645,8 +810,9 @@ public final class Control {
             this.onSecurityErrors(message);
         }
 
-        message.getContent().getPreview()
-                .ifPresent(p -> mAttachmentManager.savePreview(p, message.getID()));
+        if (!mHeadless)
+            message.getContent().getPreview()
+                    .ifPresent(p -> mAttachmentManager.savePreview(p, message.getID()));
 
         if (message.getContent().getInAttachment().isPresent()) {
             this.download(message);
@@ -737,6 +903,8 @@ public final class Control {
             // this should not be necessary
             if (mRetryTimer != null)
                 mRetryTimer.cancel();
+            mRetryAttempts = 0;
+            mConnectionLostTime = 0;
 
             mChatStateManager.imGone();
             mClient.disconnect();
@@ -0,0 +1,264 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.kontalk.system;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.kontalk.crypto.Coder;
+import org.kontalk.crypto.PersonalKey;
+import org.kontalk.misc.ViewEvent;
+import org.kontalk.model.Contact;
+import org.kontalk.model.chat.Chat;
+import org.kontalk.model.message.InMessage;
+import org.kontalk.model.message.MessageContent;
+import org.kontalk.model.message.ProtoMessage;
+import org.kontalk.persistence.Database;
+import org.kontalk.util.ClientUtils.MessageIDs;
+
+/**
+ * Ingestion of incoming messages and message events in batches.
+ *
+ * Messages and events (receipts, chat states) are queued in the order they were received and
+ * processed by one thread. Everything that is waiting in the queue is processed as one batch:
+ * decryption runs in parallel, messages are saved and events are handled in order in one
+ * database transaction (a group command ends the transaction, the chats of following messages
+ * depend on it) and the view is notified once per chat. Messages are added to their
+ * chats and processed (group commands, attachments) and callbacks of messages (e.g. for
+ * sending a delivery receipt) run only after the transaction was committed.
+ * A single message is processed immediately, so batches only form when messages arrive faster
+ * than they can be handled, e.g. the flood of offline messages after login.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+final class InMessageBatcher implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(InMessageBatcher.class.getName());
+
+    private static final int MAX_BATCH_SIZE = 100;
+
+    private static final Task STOP = new Task(null, Optional.empty(), null, null, null);
+
+    private final Control mControl;
+    private final Database mDB;
+
+    private final LinkedBlockingQueue<Task> mQueue = new LinkedBlockingQueue<>();
+
+    private Thread mThread = null;
+
+    private static final class Task {
+        final MessageIDs ids;
+        final Optional<Date> serverDate;
+        final MessageContent content;
+        /** Run after the message was committed. */
+        final Runnable onSaved;
+        /** Event to handle instead of a message. */
+        final Runnable event;
+
+        ProtoMessage protoMessage = null;
+        Chat chat = null;
+
+        Task(MessageIDs ids, Optional<Date> serverDate, MessageContent content,
+                Runnable onSaved, Runnable event) {
+            this.ids = ids;
+            this.serverDate = serverDate;
+            this.content = content;
+            this.onSaved = onSaved;
+            this.event = event;
+        }
+
+        boolean isMessage() {
+            return event == null;
+        }
+    }
+
+    private InMessageBatcher(Control control, Database db) {
+        mControl = control;
+        mDB = db;
+    }
+
+    static InMessageBatcher create(Control control, Database db) {
+        InMessageBatcher batcher = new InMessageBatcher(control, db);
+
+        Thread thread = new Thread(batcher, "Message Ingestion");
+        thread.setDaemon(true);
+        batcher.mThread = thread;
+        thread.start();
+
+        return batcher;
+    }
+
+    void queue(MessageIDs ids, Optional<Date> serverDate, MessageContent content,
+            Runnable onSaved) {
+        this.offer(new Task(ids, serverDate, content, onSaved, null));
+    }
+
+    /** Handle an event in order with the queued messages. */
+    void queue(Runnable event) {
+        this.offer(new Task(null, Optional.empty(), null, null, event));
+    }
+
+    private void offer(Task task) {
+        boolean added = mQueue.offer(task);
+        if (!added) {
+            LOGGER.warning("can't add message to queue");
+        }
+    }
+
+    /**
+     * Process everything that is already queued and stop the processing
+     * thread. Waits at most the given time (in milliseconds).
+     */
+    void shutDown(long timeout) {
+        this.offer(STOP);
+        try {
+            mThread.join(timeout);
+        } catch (InterruptedException ex) {
+            LOGGER.log(Level.WARNING, "interrupted while waiting", ex);
+            Thread.currentThread().interrupt();
+        }
+        if (mThread.isAlive())
+            LOGGER.warning("still processing after "+timeout+" ms, remaining: "+mQueue.size());
+    }
+
+    @Override
+    public void run() {
+        List<Task> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        boolean stop = false;
+        while (!stop) {
+            try {
+                // blocking
+                batch.add(mQueue.take());
+            } catch (InterruptedException ex) {
+                LOGGER.log(Level.WARNING, "interrupted while waiting ", ex);
+                return;
+            }
+            mQueue.drainTo(batch, MAX_BATCH_SIZE - 1);
+
+            int stopIndex = batch.indexOf(STOP);
+            if (stopIndex >= 0) {
+                // tasks queued after stopping are dropped
+                batch.subList(stopIndex, batch.size()).clear();
+                stop = true;
+            }
+
+            if (!batch.isEmpty()) {
+                try {
+                    this.process(batch);
+                } catch (RuntimeException ex) {
+                    LOGGER.log(Level.WARNING, "can't process batch", ex);
+                }
+            }
+            batch.clear();
+        }
+        LOGGER.info("stopped");
+    }
+
+    private void process(List<Task> batch) {
+        if (batch.size() > 1)
+            LOGGER.info("processing batch of "+batch.size()+" messages and events");
+
+        // get senders in order, this may create new contacts
+        for (Task task : batch) {
+            if (!task.isMessage())
+                continue;
+            Contact sender = mControl.getOrCreateContact(task.ids.jid).orElse(null);
+            if (sender == null) {
+                LOGGER.warning("can't get contact for message, IDs: "+task.ids);
+                continue;
+            }
+            task.protoMessage = new ProtoMessage(sender, task.content);
+        }
+
+        // decrypt now to get possible group data, order does not matter here
+        List<ProtoMessage> encrypted = new ArrayList<>();
+        for (Task task : batch) {
+            if (task.protoMessage != null && task.protoMessage.isEncrypted())
+                encrypted.add(task.protoMessage);
+        }
+        if (!encrypted.isEmpty()) {
+            PersonalKey myKey = mControl.myKey().orElse(null);
+            if (myKey != null) {
+                if (encrypted.size() == 1)
+                    Coder.decryptMessage(myKey, encrypted.get(0));
+                else
+                    encrypted.parallelStream().forEach(pm -> Coder.decryptMessage(myKey, pm));
+            }
+        }
+
+        // group commands change the members that are allowed to send to a group: only the
+        // messages up to the next group command can be assigned to chats in advance
+        int start = 0;
+        while (start < batch.size()) {
+            int end = start;
+            while (end < batch.size()) {
+                Task task = batch.get(end++);
+                if (task.protoMessage == null)
+                    continue;
+                // outside of the transaction, this may create new chats
+                task.chat = mControl.getChat(task.ids, task.protoMessage).orElse(null);
+                if (task.protoMessage.getContent().getGroupCommand().isPresent())
+                    break;
+            }
+            this.save(batch.subList(start, end));
+            start = end;
+        }
+    }
+
+    private void save(List<Task> tasks) {
+        // save messages and handle events in order, in one transaction; rolled back if
+        // anything unexpected happens
+        List<InMessage> newMessages = new ArrayList<>();
+        mDB.runBatch(() -> {
+            for (Task task : tasks) {
+                if (!task.isMessage()) {
+                    task.event.run();
+                    continue;
+                }
+                if (task.chat == null)
+                    continue;
+
+                mControl.createInMessage(task.ids, task.serverDate, task.protoMessage, task.chat)
+                        .ifPresent(newMessages::add);
+            }
+        });
+
+        // messages are stored now, only now they are added to the model (a message not
+        // committed must not be found when it is delivered again)
+        Map<Chat, InMessage> newestMessages = new LinkedHashMap<>();
+        for (InMessage message : newMessages) {
+            if (mControl.addInMessage(message))
+                newestMessages.put(message.getChat(), message);
+        }
+
+        for (Task task : tasks) {
+            if (task.onSaved != null)
+                task.onSaved.run();
+        }
+
+        // one notification for each chat
+        newestMessages.values().forEach(m ->
+                mControl.getViewControl().changed(new ViewEvent.NewMessage(m)));
+    }
+}
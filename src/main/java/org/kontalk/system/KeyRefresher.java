@@ -0,0 +1,181 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.system;
+
+import java.util.Date;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.kontalk.client.Client;
+import org.kontalk.crypto.PGPUtils;
+import org.kontalk.crypto.PGPUtils.PGPCoderKey;
+import org.kontalk.model.Contact;
+
+/**
+ * Public key requests for contacts and processing of received keys.
+ *
+ * Requests are queued and sent by one thread with a bounded number of requests
+ * waiting for a response, so that many requests (e.g. after login with a large
+ * roster) are pipelined without flooding the connection. Received keys are
+ * parsed and validated on a separate thread pool, not on the listener thread.
+ * Valid keys are applied to their contacts by one thread in the order they
+ * were received, so an older key never replaces a newer one.
+ * The time of the last successful request is saved for each contact; missing
+ * keys are not requested again until the check interval elapsed.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+final class KeyRefresher implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(KeyRefresher.class.getName());
+
+    /** Minimum time between two requests for a missing key. */
+    private static final long CHECK_INTERVAL = TimeUnit.HOURS.toMillis(24);
+    /** Maximum number of requests waiting for a response. */
+    private static final int MAX_IN_FLIGHT = 8;
+
+    private final Control mControl;
+    private final Client mClient;
+
+    private final LinkedBlockingQueue<Contact> mQueue = new LinkedBlockingQueue<>();
+    private final Set<Contact> mQueued = ConcurrentHashMap.newKeySet();
+    private final Semaphore mWindow = new Semaphore(MAX_IN_FLIGHT);
+    private final ExecutorService mParser = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+            r -> {
+                Thread thread = new Thread(r, "Key Parser");
+                thread.setDaemon(true);
+                return thread;
+            });
+    private final ExecutorService mUpdater = Executors.newSingleThreadExecutor(
+            r -> {
+                Thread thread = new Thread(r, "Key Updates");
+                thread.setDaemon(true);
+                return thread;
+            });
+    /** Last key update in receive order. Guarded by this. */
+    private CompletableFuture<Void> mLastUpdate = CompletableFuture.completedFuture(null);
+
+    private KeyRefresher(Control control, Client client) {
+        mControl = control;
+        mClient = client;
+    }
+
+    static KeyRefresher create(Control control, Client client) {
+        KeyRefresher refresher = new KeyRefresher(control, client);
+
+        Thread thread = new Thread(refresher, "Key Requests");
+        thread.setDaemon(true);
+        thread.start();
+
+        return refresher;
+    }
+
+    /** Request the key of contact if it is missing and not checked recently. */
+    void mayRequest(Contact contact) {
+        if (contact.hasKey())
+            return;
+
+        long lastCheck = contact.getKeyChecked().map(Date::getTime).orElse(0L);
+        if (System.currentTimeMillis() - lastCheck < CHECK_INTERVAL) {
+            LOGGER.config("key checked recently, contact: "+contact);
+            return;
+        }
+
+        this.request(contact);
+    }
+
+    /** Request the key of contact. Duplicate requests in queue are dropped. */
+    void request(Contact contact) {
+        if (!mQueued.add(contact))
+            return;
+
+        boolean added = mQueue.offer(contact);
+        if (!added) {
+            LOGGER.warning("can't add contact to queue");
+            mQueued.remove(contact);
+        }
+    }
+
+    /**
+     * Parse and validate a received key. The result is passed to control, after
+     * all keys received before.
+     */
+    void onKeyData(Contact contact, byte[] rawKey) {
+        CompletableFuture<Optional<PGPCoderKey>> parsed =
+                CompletableFuture.supplyAsync(() -> parse(contact, rawKey), mParser);
+        synchronized (this) {
+            mLastUpdate = mLastUpdate
+                    .thenCombineAsync(parsed, (v, key) -> {
+                        key.ifPresent(k -> mControl.onPGPKey(contact, k));
+                        return (Void) null;
+                    }, mUpdater)
+                    .exceptionally(ex -> {
+                        LOGGER.log(Level.WARNING, "can't update key, contact: "+contact, ex);
+                        return null;
+                    });
+        }
+    }
+
+    private static Optional<PGPCoderKey> parse(Contact contact, byte[] rawKey) {
+        PGPCoderKey key = PGPUtils.readPublicKey(rawKey).orElse(null);
+        if (key == null) {
+            LOGGER.warning("invalid public PGP key, contact: "+contact);
+            return Optional.empty();
+        }
+
+        if (!key.userID.contains("<"+contact.getJID().string()+">")) {
+            LOGGER.warning("UID does not contain contact JID");
+            return Optional.empty();
+        }
+
+        return Optional.of(key);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            Contact contact;
+            try {
+                // blocking
+                contact = mQueue.take();
+                mWindow.acquire();
+            } catch (InterruptedException ex) {
+                LOGGER.log(Level.WARNING, "interrupted while waiting ", ex);
+                return;
+            }
+            mQueued.remove(contact);
+
+            mClient.sendPublicKeyRequest(contact.getJID()).whenComplete((r, ex) -> {
+                mWindow.release();
+                if (ex == null)
+                    // response is processed by public key listener
+                    contact.setKeyChecked(new Date());
+            });
+        }
+    }
+}
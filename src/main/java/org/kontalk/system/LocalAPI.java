@@ -0,0 +1,455 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.system;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bouncycastle.util.encoders.Hex;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.kontalk.misc.JID;
+import org.kontalk.misc.Metrics;
+import org.kontalk.misc.ViewEvent;
+import org.kontalk.model.Contact;
+import org.kontalk.model.Model;
+import org.kontalk.model.chat.Chat;
+import org.kontalk.model.message.InMessage;
+import org.kontalk.model.message.KonMessage;
+import org.kontalk.model.message.MessageContent;
+import org.kontalk.model.message.OutMessage;
+import org.kontalk.persistence.Database;
+
+/**
+ * Local socket API for sending and receiving messages, for running without UI.
+ *
+ * Clients connect to the loopback interface and exchange JSON objects, one per
+ * line (UTF-8).
+ *
+ * The first request of a client must authenticate with the random token that
+ * is written to the token file in the application directory on start. Only
+ * the owner can read this file. The connection is closed if authentication
+ * fails.
+ * Request:
+ * {"cmd":"auth","token":"[token]"}
+ * Response:
+ * {"cmd":"auth","ok":true}
+ * Request:
+ * {"cmd":"send","to":"[jid]","text":"[text]"}
+ * Response:
+ * {"cmd":"send","to":"[jid]","ok":true,"id":"[xmpp id]"}
+ * Request:
+ * {"cmd":"metrics"}
+ * Response:
+ * {"cmd":"metrics","ok":true,"metrics":{"[name]":"[value]",...}}
+ *
+ * Events, sent to all clients:
+ * {"event":"message","from":"[jid]","chat":[chat id],"id":"[xmpp id]","date":[ms],"text":"[text]"}
+ * {"event":"status","status":"[connection status]"}
+ *
+ * All requests waiting are handled together: their messages are saved in one
+ * database transaction before sending. If saving fails, the response of each
+ * request is not ok and nothing is sent.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+final class LocalAPI implements Observer {
+    private static final Logger LOGGER = Logger.getLogger(LocalAPI.class.getName());
+
+    private static final int MAX_BATCH_SIZE = 500;
+
+    private static final String TOKEN_FILENAME = "api_token";
+    private static final int TOKEN_LENGTH = 32; // bytes
+
+    private final Control mControl;
+    private final Model mModel;
+    private final Database mDB;
+    private final ServerSocket mServerSocket;
+    private final byte[] mToken;
+    private final Path mTokenFile;
+
+    private final Set<Connection> mConnections = new CopyOnWriteArraySet<>();
+    private final LinkedBlockingQueue<Request> mRequests = new LinkedBlockingQueue<>();
+    /** Newest message delivered for each chat. Only accessed by notifying thread. */
+    private final Map<Chat, KonMessage> mDelivered = new HashMap<>();
+
+    private static final class Request {
+        final Connection connection;
+        final JSONObject json;
+
+        Request(Connection connection, JSONObject json) {
+            this.connection = connection;
+            this.json = json;
+        }
+    }
+
+    private LocalAPI(Control control, Model model, Database db, ServerSocket serverSocket,
+            String token, Path tokenFile) {
+        mControl = control;
+        mModel = model;
+        mDB = db;
+        mServerSocket = serverSocket;
+        mToken = token.getBytes(StandardCharsets.UTF_8);
+        mTokenFile = tokenFile;
+
+        // messages already there are not delivered
+        for (Chat chat : mModel.chats().getAll())
+            chat.getMessages().getLast().ifPresent(m -> mDelivered.put(chat, m));
+    }
+
+    static LocalAPI create(Control control, Model model, Database db, int port)
+            throws IOException {
+        byte[] random = new byte[TOKEN_LENGTH];
+        new SecureRandom().nextBytes(random);
+        String token = Hex.toHexString(random);
+        Path tokenFile = writeToken(Model.appDir().resolve(TOKEN_FILENAME), token);
+
+        ServerSocket serverSocket;
+        try {
+            serverSocket = new ServerSocket(port, 10, InetAddress.getLoopbackAddress());
+        } catch (IOException ex) {
+            Files.deleteIfExists(tokenFile);
+            throw ex;
+        }
+        LocalAPI api = new LocalAPI(control, model, db, serverSocket, token, tokenFile);
+
+        startThread(api::accept, "Local API");
+        startThread(api::processRequests, "Local API Requests");
+
+        LOGGER.info("listening on port " + serverSocket.getLocalPort()+", token file: "+tokenFile);
+        return api;
+    }
+
+    /** Write the token to a new file that only the owner can read. */
+    private static Path writeToken(Path file, String token) throws IOException {
+        // old file may be readable by others
+        Files.deleteIfExists(file);
+        if (Files.getFileStore(file.getParent()).supportsFileAttributeView("posix")) {
+            Set<PosixFilePermission> perms = EnumSet.of(
+                    PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE);
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(perms));
+        } else {
+            Files.createFile(file);
+            File f = file.toFile();
+            boolean succ = f.setReadable(false, false) && f.setReadable(true, true) &&
+                    f.setWritable(false, false) && f.setWritable(true, true);
+            if (!succ)
+                LOGGER.warning("can't restrict permissions of token file");
+        }
+        Files.write(file, token.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    void close() {
+        try {
+            mServerSocket.close();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "can't close server socket", ex);
+        }
+        mConnections.forEach(Connection::close);
+        try {
+            Files.deleteIfExists(mTokenFile);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "can't delete token file", ex);
+        }
+    }
+
+    private boolean isValidToken(Object token) {
+        // constant time
+        return token instanceof String &&
+                MessageDigest.isEqual(mToken, ((String) token).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void update(Observable o, Object arg) {
+        if (arg instanceof ViewEvent.NewMessage) {
+            // only the newest message of a batch is notified for each chat
+            Chat chat = ((ViewEvent.NewMessage) arg).message.getChat();
+            KonMessage last = mDelivered.get(chat);
+            List<KonMessage> messages = last == null ?
+                    new ArrayList<>(chat.getMessages().getAll()) :
+                    chat.getMessages().getAfter(last);
+            if (messages.isEmpty())
+                return;
+            mDelivered.put(chat, messages.get(messages.size() - 1));
+
+            for (KonMessage message : messages) {
+                if (message instanceof InMessage)
+                    this.broadcast(messageEvent((InMessage) message));
+            }
+        } else if (arg instanceof ViewEvent.StatusChange) {
+            JSONObject json = new JSONObject();
+            json.put("event", "status");
+            json.put("status", ((ViewEvent.StatusChange) arg).status.name().toLowerCase());
+            this.broadcast(json.toJSONString());
+        }
+    }
+
+    private void broadcast(String line) {
+        mConnections.forEach(c -> c.queue(line));
+    }
+
+    private void accept() {
+        while (!mServerSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException ex) {
+                if (!mServerSocket.isClosed())
+                    LOGGER.log(Level.WARNING, "can't accept connection", ex);
+                return;
+            }
+            LOGGER.info("new connection");
+            // added to connections after authentication
+            Connection connection = new Connection(socket);
+            startThread(connection::read, "Local API Reader");
+            startThread(connection::write, "Local API Writer");
+        }
+    }
+
+    private void processRequests() {
+        List<Request> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (true) {
+            try {
+                // blocking
+                batch.add(mRequests.take());
+            } catch (InterruptedException ex) {
+                LOGGER.log(Level.WARNING, "interrupted while waiting ", ex);
+                return;
+            }
+            mRequests.drainTo(batch, MAX_BATCH_SIZE - 1);
+
+            try {
+                this.process(batch);
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "can't process batch", ex);
+            }
+            batch.clear();
+        }
+    }
+
+    private void process(List<Request> batch) {
+        // chats first, this may create new contacts and chats
+        List<JSONObject> responses = new ArrayList<>(batch.size());
+        List<Chat> chats = new ArrayList<>(batch.size());
+        for (Request request : batch) {
+            JSONObject response = new JSONObject();
+            response.put("cmd", request.json.get("cmd"));
+            responses.add(response);
+            if ("metrics".equals(request.json.get("cmd"))) {
+                chats.add(null);
+                response.put("ok", true);
+                response.put("metrics", new JSONObject(Metrics.snapshot()));
+                continue;
+            }
+            response.put("to", request.json.get("to"));
+            response.put("ok", false);
+            chats.add(this.getChat(request.json).orElse(null));
+        }
+
+        // save all messages in one transaction; nothing is added to the model
+        // before it was committed
+        List<OutMessage> messages = new ArrayList<>(batch.size());
+        try {
+            mDB.runBatch(() -> {
+                for (int i = 0; i < batch.size(); i++) {
+                    Chat chat = chats.get(i);
+                    messages.add(chat == null ? null :
+                            mControl.newOutMessage(chat, MessageContent.plainText(
+                                    (String) batch.get(i).json.get("text"))).orElse(null));
+                }
+            });
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "can't save messages", ex);
+            messages.clear();
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            OutMessage message = i < messages.size() ? messages.get(i) : null;
+            if (message != null && mControl.addOutMessage(message)) {
+                JSONObject response = responses.get(i);
+                response.put("ok", true);
+                response.put("id", message.getXMPPID());
+                mControl.sendMessage(message);
+            }
+            batch.get(i).connection.queue(responses.get(i).toJSONString());
+        }
+    }
+
+    private Optional<Chat> getChat(JSONObject json) {
+        Object cmd = json.get("cmd");
+        Object to = json.get("to");
+        Object text = json.get("text");
+        if (!"send".equals(cmd) || !(to instanceof String) || !(text instanceof String)) {
+            LOGGER.warning("invalid request: " + json);
+            return Optional.empty();
+        }
+
+        JID jid = JID.bare((String) to);
+        if (!jid.isValid()) {
+            LOGGER.warning("invalid JID: " + to);
+            return Optional.empty();
+        }
+        Contact contact = mControl.getOrCreateContact(jid).orElse(null);
+        if (contact == null)
+            return Optional.empty();
+
+        return Optional.of(mModel.chats().getOrCreate(contact));
+    }
+
+    private static String messageEvent(InMessage message) {
+        JSONObject json = new JSONObject();
+        json.put("event", "message");
+        json.put("from", message.getSender().map(c -> c.getJID().string()).orElse(""));
+        json.put("chat", message.getChat().getID());
+        json.put("id", message.getXMPPID());
+        json.put("date", message.getDate().getTime());
+        json.put("text", message.getContent().getText());
+        return json.toJSONString();
+    }
+
+    private static void startThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private final class Connection {
+        private final Socket mSocket;
+        private final LinkedBlockingQueue<String> mOut = new LinkedBlockingQueue<>();
+        /** Only accessed by reader thread. */
+        private boolean mAuthenticated = false;
+
+        Connection(Socket socket) {
+            mSocket = socket;
+        }
+
+        void queue(String line) {
+            mOut.offer(line);
+        }
+
+        void read() {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    mSocket.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().isEmpty())
+                        continue;
+                    Object json = JSONValue.parse(line);
+                    if (!(json instanceof JSONObject)) {
+                        LOGGER.warning("invalid JSON: " + line);
+                        continue;
+                    }
+                    if (!mAuthenticated) {
+                        if (!this.authenticate((JSONObject) json))
+                            break;
+                        continue;
+                    }
+                    mRequests.offer(new Request(this, (JSONObject) json));
+                }
+            } catch (IOException ex) {
+                LOGGER.log(Level.INFO, "connection closed", ex);
+            }
+            this.close();
+        }
+
+        private boolean authenticate(JSONObject json) throws IOException {
+            mAuthenticated = "auth".equals(json.get("cmd")) &&
+                    LocalAPI.this.isValidToken(json.get("token"));
+            JSONObject response = new JSONObject();
+            response.put("cmd", "auth");
+            response.put("ok", mAuthenticated);
+            if (mAuthenticated) {
+                this.queue(response.toJSONString());
+                mConnections.add(this);
+            } else {
+                LOGGER.warning("authentication failed");
+                // nothing else is written to this connection and it is closed
+                // right after, so written directly
+                OutputStream out = mSocket.getOutputStream();
+                out.write((response.toJSONString() + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                mSocket.shutdownOutput();
+            }
+            return mAuthenticated;
+        }
+
+        void write() {
+            List<String> lines = new ArrayList<>();
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    mSocket.getOutputStream(), StandardCharsets.UTF_8))) {
+                while (!mSocket.isClosed()) {
+                    // blocking
+                    lines.add(mOut.take());
+                    if (mSocket.isClosed())
+                        break;
+                    mOut.drainTo(lines);
+                    for (String line : lines)
+                        writer.write(line + "\n");
+                    // one flush for everything waiting
+                    writer.flush();
+                    lines.clear();
+                }
+            } catch (IOException | InterruptedException ex) {
+                LOGGER.log(Level.INFO, "can't write", ex);
+            }
+            this.close();
+        }
+
+        void close() {
+            mConnections.remove(this);
+            try {
+                mSocket.close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "can't close socket", ex);
+            }
+            // wake up writer
+            mOut.offer("");
+        }
+    }
+}
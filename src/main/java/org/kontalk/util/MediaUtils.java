@@ -19,8 +19,12 @@
 package org.kontalk.util;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.awt.image.ImageObserver;
 import java.io.BufferedInputStream;
@@ -34,6 +38,8 @@ import java.net.URLConnection;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.Optional;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -174,6 +180,51 @@ public class MediaUtils {
         return Optional.empty();
     }
 
+    /** Read image for scaling it down to (at least) width/height later. */
+    public static BufferedImage readImage(Path path, int width, int height) {
+        BufferedImage img = readImage(path.toFile(), width, height).orElse(null);
+        return img != null ?
+                img :
+                new BufferedImage(20, 20, BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Read image for scaling it down to (at least) width/height later.
+     * For large images only every n-th pixel is decoded, the returned image is
+     * still at least twice as large as width/height.
+     */
+    public static Optional<BufferedImage> readImage(File file, int width, int height) {
+        if (!file.exists()) {
+            LOGGER.warning("image file does not exist: "+file);
+            return Optional.empty();
+        }
+
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = in != null ?
+                    ImageIO.getImageReaders(in) :
+                    Collections.emptyIterator();
+            if (!readers.hasNext()) {
+                LOGGER.warning("no reader for image, path: "+file.getPath());
+                return Optional.empty();
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int factor = Math.max(1, Math.min(
+                        reader.getWidth(0) / (2 * Math.max(1, width)),
+                        reader.getHeight(0) / (2 * Math.max(1, height))));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(factor, factor, 0, 0);
+                return Optional.ofNullable(reader.read(0, param));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "can't read image, path: "+file.getPath(), ex);
+        }
+        return Optional.empty();
+    }
+
     public static Optional<BufferedImage> readImage(byte[] imgData) {
         try {
             return Optional.ofNullable(ImageIO.read(new ByteArrayInputStream(imgData)));
@@ -230,7 +281,7 @@ public class MediaUtils {
 
         double scale = Math.sqrt(maxPixels / (iw * ih * 1.0));
 
-        return toBufferedImage(scaleImage(image, (int) (iw * scale), (int) (ih * scale)));
+        return scaleSteps(image, (int) (iw * scale), (int) (ih * scale));
     }
 
     /**
@@ -238,7 +289,45 @@ public class MediaUtils {
      * Blocking.
      */
     public static BufferedImage scale(Image image, int width, int height) {
-        return toBufferedImage(scaleAsync(image, width, height));
+        if (!(image instanceof BufferedImage))
+            return toBufferedImage(scaleAsync(image, width, height));
+
+        BufferedImage bImage = (BufferedImage) image;
+        int iw = bImage.getWidth();
+        int ih = bImage.getHeight();
+        if (iw <= width && ih <= height)
+            return bImage;
+
+        double scale = Math.min(width / (iw * 1.0), height / (ih * 1.0));
+        return scaleSteps(bImage, (int) (iw * scale), (int) (ih * scale));
+    }
+
+    /**
+     * Scale image with bilinear interpolation, halving the size in each step
+     * until the target size is reached. Quality is comparable to area
+     * averaging, but it is much faster. Result has no alpha channel.
+     */
+    private static BufferedImage scaleSteps(BufferedImage image, int width, int height) {
+        width = Math.max(1, width);
+        height = Math.max(1, height);
+
+        BufferedImage current = image;
+        int w = image.getWidth();
+        int h = image.getHeight();
+        do {
+            w = Math.max(width, w / 2);
+            h = Math.max(height, h / 2);
+
+            BufferedImage next = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = next.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(current, 0, 0, w, h, null);
+            g.dispose();
+            current = next;
+        } while (w != width || h != height);
+
+        return current;
     }
 
     private static BufferedImage toBufferedImage(Image image) {
@@ -18,6 +18,7 @@
 
 package org.kontalk.view;
 
+import javax.swing.SwingUtilities;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.FontMetrics;
@@ -26,9 +27,17 @@ import java.awt.RenderingHints;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Objects;
-import org.apache.commons.lang.ObjectUtils;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
 import org.kontalk.model.Avatar;
 import org.kontalk.model.chat.Chat;
 import org.kontalk.model.Contact;
@@ -38,35 +47,210 @@ import org.kontalk.util.Tr;
 
 /**
  * Static functions for loading avatar pictures.
+ *
+ * Avatar pictures are decoded once and kept in a LRU cache with a limit on the
+ * total image size. All size variants of one picture are derived from the
+ * decoded source. Generated letter images are used as fallback and as
+ * placeholder while a picture is loading. All functions must be called on the
+ * EDT.
+ *
  * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
  */
 final class AvatarLoader {
+    private static final Logger LOGGER = Logger.getLogger(AvatarLoader.class.getName());
 
     private static final Color LETTER_COLOR = new Color(255, 255, 255);
     private static final Color FALLBACK_COLOR = new Color(220, 220, 220);
     private static final Color GROUP_COLOR = new Color(160, 160, 160);
 
-    private static final Map<Item, AvatarImg> CACHE = new HashMap<>();
+    /** Maximum size of all cached avatar pictures in bytes (uncompressed). */
+    private static final long MAX_CACHE_BYTES = 8 * 1024 * 1024;
+    private static final int MAX_LETTER_IMAGES = 256;
+
+    private static final Map<Avatar, Mipmap> CACHE = new LinkedHashMap<>(64, 0.75f, true);
+    private static long CACHE_BYTES = 0;
+
+    private static final Map<Letter, AvatarImg> LETTER_CACHE =
+            new LinkedHashMap<Letter, AvatarImg>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Letter, AvatarImg> eldest) {
+                    return this.size() > MAX_LETTER_IMAGES;
+                }
+            };
+
+    /** Avatar last loaded for a contact (by ID), to detect replaced pictures. */
+    private static final Map<Integer, Avatar> CURRENT = new HashMap<>();
+
+    /**
+     * Callbacks for pictures currently loading, a picture is only loaded once.
+     * Equal callbacks (e.g. from rendering the same item again) are called once.
+     */
+    private static final Map<Avatar, Set<Runnable>> LOADING = new HashMap<>();
+
+    private static final ExecutorService LOADER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Avatar Loader");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /**
+     * Drop the cached picture of a contact when its avatar was updated or
+     * deleted (the contact list forwards avatar changes of all contacts).
+     */
+    static final ObserverTrait AVATAR_OBSERVER = (o, arg) -> {
+        if (arg instanceof Contact)
+            invalidate((Contact) arg);
+    };
+
+    private AvatarLoader() {}
+
+    /**
+     * Return the avatar image for a chat. If the picture is not loaded yet a
+     * placeholder is returned, the picture is loaded in background and
+     * 'onLoaded' is called on the EDT afterwards.
+     */
+    static AvatarImg load(Chat chat, int size, Runnable onLoaded) {
+        if (chat.isGroupChat())
+            // nice to have: group picture
+            // or use number of contacts here?
+            return letterImage(new Letter(labelToLetter(chat.getSubject()), GROUP_COLOR, size));
+
+        return load(((SingleChat) chat).getMember().getContact(), size, onLoaded);
+    }
 
-    static AvatarImg load(Chat chat, int size) {
-        return load(new Item(chat, size));
+    /** Like {@link #load(Chat, int, Runnable)} but for a contact. */
+    static AvatarImg load(Contact contact, int size, Runnable onLoaded) {
+        return load(contact, size, onLoaded, true);
     }
 
+    /** Return the avatar image for a contact. Blocking. */
     static AvatarImg load(Contact contact, int size) {
-        return load(new Item(contact, size));
+        return load(contact, size, () -> {}, false);
     }
 
     static AvatarImg loadFallback(int size) {
-        return load(new Item(size));
+        return letterImage(new Letter(fallbackLetter(), FALLBACK_COLOR, size));
     }
 
-    private AvatarLoader() {}
+    private static AvatarImg load(Contact contact, int size, Runnable onLoaded,
+            boolean async) {
+        // usually already done on the avatar change
+        Avatar avatar = invalidate(contact);
+        if (avatar == null)
+            return letterImage(contact, size);
+
+        Mipmap mipmap = CACHE.get(avatar);
+        if (mipmap == null && !async) {
+            mipmap = new Mipmap(avatar);
+            put(avatar, mipmap);
+        }
+        if (mipmap != null)
+            return image(contact, avatar, mipmap, size);
+
+        Set<Runnable> callbacks = LOADING.get(avatar);
+        if (callbacks == null) {
+            callbacks = new LinkedHashSet<>();
+            LOADING.put(avatar, callbacks);
+            LOADER.execute(() -> {
+                Mipmap loaded = new Mipmap(avatar);
+                SwingUtilities.invokeLater(() -> onLoaded(avatar, loaded));
+            });
+        }
+        callbacks.add(onLoaded);
+        return letterImage(contact, size);
+    }
+
+    private static void onLoaded(Avatar avatar, Mipmap mipmap) {
+        Set<Runnable> callbacks = LOADING.remove(avatar);
+        if (callbacks == null)
+            // invalidated while loading
+            return;
+
+        put(avatar, mipmap);
+        callbacks.forEach(Runnable::run);
+    }
+
+    /**
+     * Return the current avatar of a contact and drop the previous picture if
+     * it was replaced or deleted.
+     */
+    private static Avatar invalidate(Contact contact) {
+        Avatar avatar = contact.getDisplayAvatar().orElse(null);
+        Avatar old = avatar != null ?
+                CURRENT.put(contact.getID(), avatar) :
+                CURRENT.remove(contact.getID());
+        if (old != null && !old.equals(avatar))
+            invalidate(old);
+        return avatar;
+    }
+
+    private static void invalidate(Avatar avatar) {
+        LOADING.remove(avatar);
+        Mipmap mipmap = CACHE.remove(avatar);
+        if (mipmap != null)
+            CACHE_BYTES -= mipmap.bytes();
+    }
+
+    private static AvatarImg image(Contact contact, Avatar avatar, Mipmap mipmap, int size) {
+        long bytes = mipmap.bytes();
+        BufferedImage img = mipmap.variant(size);
+        if (img == null)
+            return letterImage(contact, size);
+
+        CACHE_BYTES += mipmap.bytes() - bytes;
+        if (CACHE_BYTES > MAX_CACHE_BYTES)
+            evict(avatar);
+        return new AvatarImg(img, false);
+    }
+
+    private static void put(Avatar avatar, Mipmap mipmap) {
+        Mipmap old = CACHE.put(avatar, mipmap);
+        if (old != null)
+            CACHE_BYTES -= old.bytes();
+        CACHE_BYTES += mipmap.bytes();
+
+        evict(avatar);
+    }
 
-    private static AvatarImg load(Item item) {
-        if (!CACHE.containsKey(item)) {
-            CACHE.put(item, item.createImage());
+    /** Evict least recently used, but keep the given one. */
+    private static void evict(Avatar keep) {
+        Iterator<Map.Entry<Avatar, Mipmap>> it = CACHE.entrySet().iterator();
+        while (CACHE_BYTES > MAX_CACHE_BYTES && it.hasNext()) {
+            Map.Entry<Avatar, Mipmap> eldest = it.next();
+            if (eldest.getKey().equals(keep))
+                continue;
+            CACHE_BYTES -= eldest.getValue().bytes();
+            it.remove();
+            LOGGER.config("evicted: "+eldest.getKey().getID());
         }
-        return CACHE.get(item);
+    }
+
+    private static AvatarImg letterImage(Contact contact, int size) {
+        Color color;
+        if (contact.isDeleted()) {
+            color = FALLBACK_COLOR;
+        } else {
+            int colorcode = hash(contact.getID());
+            int hue = Math.abs(colorcode) % 360;
+            color = Color.getHSBColor(hue / 360.0f, 0.9f, 1);
+        }
+        return letterImage(new Letter(labelToLetter(contact.getName()), color, size));
+    }
+
+    private static AvatarImg letterImage(Letter letter) {
+        AvatarImg img = LETTER_CACHE.get(letter);
+        if (img == null) {
+            img = fallback(letter.mLetter, letter.mColor, letter.mSize);
+            LETTER_CACHE.put(letter, img);
+        }
+        return img;
+    }
+
+    private static String labelToLetter(String label) {
+        return label.length() >= 1 ?
+                label.substring(0, 1).toUpperCase() :
+                fallbackLetter();
     }
 
     static class AvatarImg {
@@ -80,79 +264,63 @@ final class AvatarLoader {
         }
     }
 
-    private static class Item {
-        private final int mSize;
-
-        private final Avatar mAvatar;
-
-        private final String mLetter;
-        private final Color mColor;
-
-        private Item(int size) {
-            mSize = size;
-            mAvatar = null;
-            mLetter = fallbackLetter();
-            mColor = FALLBACK_COLOR;
+    /**
+     * Size variants of one avatar picture. The decoded source is limited to
+     * the largest avatar size in the view, smaller variants are scaled down
+     * from the next larger existing one.
+     */
+    private static class Mipmap {
+        private static final int MAX_SIZE = View.AVATAR_PROFILE_SIZE;
+
+        /** Images by size; empty if picture could not be loaded. */
+        private final TreeMap<Integer, BufferedImage> mLevels = new TreeMap<>();
+
+        // not on EDT
+        private Mipmap(Avatar avatar) {
+            BufferedImage img = avatar.loadImage().orElse(null);
+            if (img == null)
+                return;
+
+            if (img.getWidth() > MAX_SIZE || img.getHeight() > MAX_SIZE)
+                img = MediaUtils.scale(img, MAX_SIZE, MAX_SIZE);
+            mLevels.put(Math.max(img.getWidth(), img.getHeight()), img);
         }
 
-        private Item(Contact contact, int size) {
-            mSize = size;
-            mAvatar = contact.getDisplayAvatar().orElse(null);
-
-            if (mAvatar == null) {
-                String name = contact.getName();
-                mLetter = labelToLetter(name);
-                if (contact.isDeleted()) {
-                    mColor = FALLBACK_COLOR;
-                } else {
-                    int colorcode = hash(contact.getID());
-                    int hue = Math.abs(colorcode) % 360;
-                    mColor = Color.getHSBColor(hue / 360.0f, 0.9f, 1);
-                }
-            } else {
-                // not used
-                mLetter = "";
-                mColor = new Color(0);
-            }
-        }
+        private BufferedImage variant(int size) {
+            if (mLevels.isEmpty())
+                return null;
 
-        private Item(Chat chat, int size) {
-            mSize = size;
+            BufferedImage img = mLevels.get(size);
+            if (img != null)
+                return img;
+
+            Map.Entry<Integer, BufferedImage> source = mLevels.ceilingEntry(size);
+            if (source == null)
+                // picture is smaller than requested, use the largest
+                source = mLevels.lastEntry();
 
-            String l;
-            if (chat.isGroupChat()) {
-                // nice to have: group picture
-                mAvatar = null;
-                // or use number of contacts here?
-                l = chat.getSubject();
-                mColor = GROUP_COLOR;
-            } else {
-                Contact c = ((SingleChat) chat).getMember().getContact();
-                Item i = new Item(c, size);
-                mAvatar = i.mAvatar;
-                l = i.mLetter;
-                mColor = i.mColor;
-            }
-            mLetter = labelToLetter(l);
+            img = MediaUtils.scale(source.getValue(), size, size);
+            mLevels.put(size, img);
+            return img;
         }
 
-        private String labelToLetter(String label) {
-            return label.length() >= 1 ?
-                    label.substring(0, 1).toUpperCase() :
-                    fallbackLetter();
+        private long bytes() {
+            long bytes = 0;
+            for (BufferedImage img : mLevels.values())
+                bytes += (long) img.getWidth() * img.getHeight() * 4;
+            return bytes;
         }
+    }
 
-        private AvatarImg createImage() {
-            if (mAvatar != null) {
-                BufferedImage img = mAvatar.loadImage().orElse(null);
-                if (img != null) {
-                    return new AvatarImg(
-                            MediaUtils.scale(img, mSize, mSize),
-                            false);
-                }
-            }
+    private static class Letter {
+        private final String mLetter;
+        private final Color mColor;
+        private final int mSize;
 
-            return fallback(mLetter, mColor, mSize);
+        private Letter(String letter, Color color, int size) {
+            mLetter = letter;
+            mColor = color;
+            mSize = size;
         }
 
         @Override
@@ -160,19 +328,18 @@ final class AvatarLoader {
             if (o == this)
                 return true;
 
-            if (!(o instanceof Item))
+            if (!(o instanceof Letter))
                 return false;
 
-            Item oItem = (Item) o;
-            return mSize == oItem.mSize &&
-                    ObjectUtils.equals(mAvatar, oItem.mAvatar) &&
-                    mLetter.equals(oItem.mLetter) &&
-                    mColor.equals(oItem.mColor);
+            Letter oLetter = (Letter) o;
+            return mSize == oLetter.mSize &&
+                    mLetter.equals(oLetter.mLetter) &&
+                    mColor.equals(oLetter.mColor);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(mSize, mAvatar, mLetter, mColor);
+            return Objects.hash(mSize, mLetter, mColor);
         }
     }
 
@@ -24,8 +24,11 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
 
 import com.alee.extended.panel.GroupPanel;
 import com.alee.extended.panel.GroupingType;
@@ -55,11 +58,14 @@ final class ChatListView extends ListView<Chat> {
                 new FlyweightChatItem(),
                 new FlyweightChatItem(),
                 ListSelectionModel.SINGLE_SELECTION,
-                false,
-                true);
+                false);
 
         mChatList = chatList;
 
+        // render chat again when avatar picture is loaded
+        ((FlyweightChatItem) mRenderItem).mOnAvatarLoaded = this::renderAgain;
+        ((FlyweightChatItem) mEditorItem).mOnAvatarLoaded = this::renderAgain;
+
         this.updateOnEDT(null);
     }
 
@@ -79,7 +85,7 @@ final class ChatListView extends ListView<Chat> {
         KonMessage m = c1.getMessages().getLast().orElse(null);
         KonMessage oM = c2.getMessages().getLast().orElse(null);
         return m != null && oM != null ?
-                - m.getDate().compareTo(oM.getDate()) :
+                - Long.compare(m.getTime(), oM.getTime()) :
                 - Integer.compare(c1.getID(), c2.getID());
     }
 
@@ -148,6 +154,22 @@ final class ChatListView extends ListView<Chat> {
                 + "</body></html>";
     }
 
+    @Override
+    Optional<List<String>> searchKeys(Chat value) {
+        List<String> keys = new ArrayList<>();
+        keys.add(value.getSubject());
+        for (Contact contact : value.getAllContacts()) {
+            keys.add(contact.getName());
+            keys.add(contact.getJID().string());
+        }
+        return Optional.of(keys);
+    }
+
+    @Override
+    Optional<Date> relativeTime(Chat value) {
+        return value.getMessages().getLast().map(KonMessage::getDate);
+    }
+
     @Override
     protected void onRenameEvent() {
         Chat chat = this.getSelectedValue().orElse(null);
@@ -168,6 +190,8 @@ final class ChatListView extends ListView<Chat> {
         private final WebLabel mStatusLabel;
         private final WebLabel mChatStateLabel;
 
+        private Function<Chat, Runnable> mOnAvatarLoaded = c -> () -> {};
+
         FlyweightChatItem() {
             this.setLayout(new BorderLayout(View.GAP_DEFAULT, 0));
             this.setMargin(View.MARGIN_DEFAULT);
@@ -206,7 +230,7 @@ final class ChatListView extends ListView<Chat> {
                     Color.WHITE);
 
             // avatar
-            mAvatar.setAvatarImage(value);
+            mAvatar.setAvatarImage(value, mOnAvatarLoaded.apply(value));
 
             // title
             mTitleLabel.setText(Utils.chatTitle(value));
@@ -22,6 +22,7 @@ import javax.swing.Icon;
 import javax.swing.JFileChooser;
 import javax.swing.JViewport;
 import javax.swing.SwingUtilities;
+import java.awt.Adjustable;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Component;
@@ -104,6 +105,7 @@ final class ChatView extends WebPanel implements ObserverTrait {
     private Background mDefaultBG;
 
     private boolean mScrollDown = false;
+    private boolean mPrefetching = false;
     private boolean mAttSupported = false;
 
     ChatView(View view) {
@@ -158,8 +160,11 @@ final class ChatView extends WebPanel implements ObserverTrait {
                 // scrolling down WHILE rendering until the final bottom is reached
                 if (e.getValueIsAdjusting())
                     mScrollDown = false;
-                if (mScrollDown)
+                if (mScrollDown) {
                     e.getAdjustable().setValue(e.getAdjustable().getMaximum());
+                } else if (e.getValue() <= e.getAdjustable().getVisibleAmount()) {
+                    ChatView.this.prefetchOlder(e.getAdjustable());
+                }
             }
         });
         mScrollPane.setViewport(new WebViewport() {
@@ -291,6 +296,27 @@ final class ChatView extends WebPanel implements ObserverTrait {
         }
     }
 
+    /** Load older messages when scrolled near the top and keep scroll position. */
+    private void prefetchOlder(Adjustable adjustable) {
+        if (mPrefetching)
+            return;
+        MessageList view = this.currentMessageListOrNull();
+        if (view == null)
+            return;
+
+        int oldMax = adjustable.getMaximum();
+        mPrefetching = true;
+        if (!view.loadOlder()) {
+            mPrefetching = false;
+            return;
+        }
+        // wait for layout of new rows
+        SwingUtilities.invokeLater(() -> {
+            adjustable.setValue(adjustable.getValue() + adjustable.getMaximum() - oldMax);
+            mPrefetching = false;
+        });
+    }
+
     void setScrollDown() {
         // does still not work
 //        SwingUtilities.invokeLater(new Runnable() {
@@ -848,23 +848,27 @@ final class ComponentUtils {
             };
         }
 
-        /** Set image preview. */
-        void setAttachment(Path imagePath, Path linkPath) {
-            this.setAttachment("", imagePath, linkPath);
+        /**
+         * Set image preview. The image is loaded in background, 'onImageLoaded'
+         * is called when loading is done and the panel should be rendered again.
+         */
+        void setAttachment(Path imagePath, Path linkPath, Runnable onImageLoaded) {
+            this.setAttachment("", imagePath, linkPath, onImageLoaded);
         }
 
         /** Set link text. */
         void setAttachment(String text, Path linkPath) {
-            this.setAttachment(text, null, linkPath);
+            this.setAttachment(text, null, linkPath, null);
         }
 
-        private void setAttachment(String text, Path imagePath, Path linkPath) {
+        private void setAttachment(String text, Path imagePath, Path linkPath,
+                Runnable onImageLoaded) {
             mFile = linkPath.toFile();
 
             mAttLabel.setIcon(imagePath == null ?
                     null :
                     // file should be present and should be an image, show it
-                    ImageLoader.imageIcon(imagePath));
+                    ImageLoader.imageIcon(imagePath, onImageLoaded));
 
             mAttLabel.setLink(text, Utils.createLinkRunnable(linkPath));
         }
@@ -973,18 +977,30 @@ final class ComponentUtils {
 
         final int mSize;
 
+        private Object mValue = null;
+
         AvatarImage(int size) {
             mSize = size;
 
             this.setRound(0);
         }
 
-        void setAvatarImage(Contact c) {
-            this.setAvatarImg(AvatarLoader.load(c, mSize));
+        /** Show avatar and update again when picture is loaded. */
+        void setAvatarImage(Chat c) {
+            mValue = c;
+            this.setAvatarImage(c, () -> {
+                if (mValue == c)
+                    this.setAvatarImage(c, () -> {});
+            });
+        }
+
+        /** Show avatar; 'onLoaded' is called when picture is loaded. */
+        void setAvatarImage(Contact c, Runnable onLoaded) {
+            this.setAvatarImg(AvatarLoader.load(c, mSize, onLoaded));
         }
 
-        void setAvatarImage(Chat c) {
-            this.setAvatarImg(AvatarLoader.load(c, mSize));
+        void setAvatarImage(Chat c, Runnable onLoaded) {
+            this.setAvatarImg(AvatarLoader.load(c, mSize, onLoaded));
         }
 
         void setAvatarImg(AvatarImg avatarImg) {
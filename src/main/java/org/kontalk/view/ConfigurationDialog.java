@@ -29,6 +29,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
+import java.nio.file.Path;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
@@ -43,6 +44,7 @@ import com.alee.laf.button.WebButton;
 import com.alee.laf.checkbox.WebCheckBox;
 import com.alee.laf.combobox.WebComboBox;
 import com.alee.laf.label.WebLabel;
+import com.alee.laf.optionpane.WebOptionPane;
 import com.alee.laf.panel.WebPanel;
 import com.alee.laf.rootpane.WebDialog;
 import com.alee.laf.separator.WebSeparator;
@@ -53,6 +55,7 @@ import com.alee.laf.text.WebTextField;
 import com.alee.managers.tooltip.TooltipManager;
 import org.kontalk.crypto.PersonalKey;
 import org.kontalk.misc.KonException;
+import org.kontalk.misc.Metrics;
 import org.kontalk.model.Account;
 import org.kontalk.model.Model;
 import org.kontalk.persistence.Config;
@@ -89,11 +92,13 @@ final class ConfigurationDialog extends WebDialog {
         final AccountPanel accountPanel = new AccountPanel();
         final PrivacyPanel privacyPanel = new PrivacyPanel();
         final ViewPanel viewPanel = new ViewPanel();
+        final PerformancePanel performancePanel = new PerformancePanel();
         tabbedPane.addTab(Tr.tr("Main"), mainPanel);
         tabbedPane.addTab(Tr.tr("Network"), networkPanel);
         tabbedPane.addTab(Tr.tr("Account"), accountPanel);
         tabbedPane.addTab(Tr.tr("Privacy"), privacyPanel);
         tabbedPane.addTab(Tr.tr("View"), viewPanel);
+        tabbedPane.addTab(Tr.tr("Performance"), performancePanel);
 
         this.add(tabbedPane, BorderLayout.CENTER);
 
@@ -114,6 +119,7 @@ final class ConfigurationDialog extends WebDialog {
                 privacyPanel.saveConfiguration();
                 networkPanel.saveConfiguration();
                 viewPanel.saveConfiguration();
+                performancePanel.saveConfiguration();
 
                 // better save twice than never
                 mConf.saveToFile();
@@ -478,6 +484,88 @@ final class ConfigurationDialog extends WebDialog {
         }
     }
 
+    private class PerformancePanel extends WebPanel {
+
+        private final WebTextArea mMetricsArea;
+        private final WebCheckBox mWatchdogBox;
+
+        PerformancePanel() {
+            this.setMargin(View.MARGIN_BIG);
+
+            GroupPanel groupPanel = new GroupPanel(View.GAP_DEFAULT, false);
+            groupPanel.add(new WebLabel(Tr.tr("Performance Metrics")).setBoldFont());
+            groupPanel.add(new WebSeparator(true, true));
+            mWatchdogBox = createCheckBox(Tr.tr("Detect UI freezes"),
+                    Tr.tr("Record where the user interface is blocked for more than")
+                            + " " + EDTWatchdog.DEFAULT_THRESHOLD + " ms",
+                    EDTWatchdog.instance().isPresent());
+            groupPanel.add(new GroupPanel(mWatchdogBox, new WebSeparator()));
+            this.add(groupPanel, BorderLayout.NORTH);
+
+            mMetricsArea = new WebTextArea();
+            mMetricsArea.setEditable(false);
+            mMetricsArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN,
+                    mMetricsArea.getFont().getSize()));
+            this.add(new ComponentUtils.ScrollPane(mMetricsArea), BorderLayout.CENTER);
+
+            WebButton refreshButton = new WebButton(Tr.tr("Refresh"));
+            refreshButton.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    PerformancePanel.this.refresh();
+                }
+            });
+            WebButton exportButton = new WebButton(Tr.tr("Export"));
+            exportButton.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    PerformancePanel.this.export();
+                }
+            });
+            GroupPanel buttonPanel = new GroupPanel(View.GAP_DEFAULT,
+                    refreshButton, exportButton);
+            buttonPanel.setLayout(new FlowLayout(FlowLayout.TRAILING));
+            this.add(buttonPanel, BorderLayout.SOUTH);
+
+            this.refresh();
+        }
+
+        private void refresh() {
+            String text = Metrics.snapshotText();
+            EDTWatchdog watchdog = EDTWatchdog.instance().orElse(null);
+            if (watchdog != null)
+                text += "\n" + watchdog.report();
+            mMetricsArea.setText(text);
+            mMetricsArea.setCaretPosition(0);
+        }
+
+        private void export() {
+            Path file = Metrics.export(Model.appDir()).orElse(null);
+            Path report = EDTWatchdog.instance()
+                    .flatMap(w -> w.writeReport(Model.appDir())).orElse(null);
+            WebOptionPane.showMessageDialog(this,
+                    file != null ?
+                            Tr.tr("Metrics saved to:") + " " + file +
+                                    (report != null ? "\n" + report : "") :
+                            Tr.tr("Can't save metrics file"),
+                    Tr.tr("Export"),
+                    file != null ?
+                            WebOptionPane.INFORMATION_MESSAGE :
+                            WebOptionPane.WARNING_MESSAGE);
+        }
+
+        private void saveConfiguration() {
+            boolean enabled = mWatchdogBox.isSelected();
+            mConf.setProperty(Config.VIEW_EDT_WATCHDOG,
+                    enabled ? EDTWatchdog.DEFAULT_THRESHOLD : 0);
+            EDTWatchdog watchdog = EDTWatchdog.instance().orElse(null);
+            if (enabled && watchdog == null)
+                EDTWatchdog.install(EDTWatchdog.DEFAULT_THRESHOLD);
+            else if (!enabled && watchdog != null)
+                watchdog.uninstall();
+        }
+    }
+
     private static WebCheckBox createCheckBox(String title, String tooltip, boolean selected) {
         WebCheckBox checkBox = new WebCheckBox(Tr.tr(title));
         checkBox.setAnimated(false);
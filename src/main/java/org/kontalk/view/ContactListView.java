@@ -26,8 +26,11 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
 
 import com.alee.extended.panel.GroupPanel;
 import com.alee.extended.panel.GroupingType;
@@ -57,11 +60,14 @@ final class ContactListView extends ListView<Contact> {
                 new FlyweightContactItem(),
                 new FlyweightContactItem(),
                 ListSelectionModel.SINGLE_SELECTION,
-                true,
                 true);
 
         mModel = model;
 
+        // render contact again when avatar picture is loaded
+        ((FlyweightContactItem) mRenderItem).mOnAvatarLoaded = this::renderAgain;
+        ((FlyweightContactItem) mEditorItem).mOnAvatarLoaded = this::renderAgain;
+
         // actions triggered by mouse events
         this.addMouseListener(new MouseAdapter() {
             @Override
@@ -84,6 +90,10 @@ final class ContactListView extends ListView<Contact> {
 
     @Override
     protected void updateOnEDT(Object arg) {
+        if (arg instanceof Contact)
+            // avatar change, the item is rendered again on its own
+            return;
+
         boolean hideBlocked = Config.getInstance()
                 .getBoolean(Config.VIEW_HIDE_BLOCKED);
         this.sync(Utils.allContacts(mModel.contacts(), !hideBlocked));
@@ -189,6 +199,18 @@ final class ContactListView extends ListView<Contact> {
         return html;
     }
 
+    @Override
+    Optional<List<String>> searchKeys(Contact value) {
+        return Optional.of(Arrays.asList(value.getName(), value.getJID().string()));
+    }
+
+    @Override
+    Optional<Date> relativeTime(Contact value) {
+        return value.getOnline() == Contact.Online.YES ?
+                Optional.empty() :
+                value.getLastSeen();
+    }
+
     @Override
     protected void onRenameEvent() {
         Contact contact = this.getSelectedValue().orElse(null);
@@ -204,6 +226,8 @@ final class ContactListView extends ListView<Contact> {
         private final WebLabel mNameLabel;
         private final WebLabel mStatusLabel;
 
+        private Function<Contact, Runnable> mOnAvatarLoaded = c -> () -> {};
+
         FlyweightContactItem() {
             //this.setPaintFocus(true);
             this.setLayout(new BorderLayout(View.GAP_DEFAULT, 0));
@@ -230,7 +254,7 @@ final class ContactListView extends ListView<Contact> {
         @Override
         protected void render(Contact value, int listWidth, boolean isSelected, boolean isLast) {
             // avatar
-            mAvatar.setAvatarImage(value);
+            mAvatar.setAvatarImage(value, mOnAvatarLoaded.apply(value));
 
             // name
             String name = Utils.displayName(value);
@@ -0,0 +1,65 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.view;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.kontalk.misc.Metrics;
+
+/**
+ * Latency of model updates from notification until they are processed on the
+ * Event Dispatch Thread (waiting in event queue + processing).
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+public final class EDTLatency {
+    private static final Logger LOGGER = Logger.getLogger(EDTLatency.class.getName());
+
+    /** Updates taking longer than this are logged. */
+    private static final long SLOW_THRESHOLD = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final Metrics.Timer TIMER = Metrics.timer("view.edt_latency");
+
+    private EDTLatency() {}
+
+    /**
+     * Record one update.
+     * @param posted time of notification, as returned by {@link System#nanoTime()}
+     */
+    static void record(long posted, Object source) {
+        long latency = System.nanoTime() - posted;
+        TIMER.record(posted);
+
+        if (latency > SLOW_THRESHOLD)
+            LOGGER.config("slow update: " + TimeUnit.NANOSECONDS.toMillis(latency)
+                    + " ms, source: " + source.getClass().getSimpleName());
+    }
+
+    public static long count() {
+        return TIMER.count();
+    }
+
+    public static double averageMillis() {
+        return TIMER.averageMillis();
+    }
+
+    public static double maxMillis() {
+        return TIMER.maxMillis();
+    }
+}
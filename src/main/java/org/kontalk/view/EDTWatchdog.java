@@ -0,0 +1,292 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.kontalk.view;
+
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.kontalk.misc.Metrics;
+
+/**
+ * Opt-in watchdog for the Event Dispatch Thread.
+ *
+ * Installed as event queue, the duration of every dispatched event is
+ * measured. A monitor thread captures the stack of the EDT if an event takes
+ * longer than the threshold. Stalls are aggregated by call site (the first
+ * frame of our own code) and can be written to a report file.
+ *
+ * Nested event loops (e.g. a modal dialog) are not a stall: while waiting
+ * for the next event or dispatching a nested event the outer event is not
+ * measured. The time it spent before and after the nested loop is added up.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+final class EDTWatchdog extends EventQueue {
+    private static final Logger LOGGER = Logger.getLogger(EDTWatchdog.class.getName());
+
+    static final String REPORT_FILENAME = "edt_stalls.txt";
+    static final int DEFAULT_THRESHOLD = 200;
+
+    private static final Metrics.Timer DISPATCH_TIMER = Metrics.timer("view.edt_dispatch");
+    private static final Metrics.Counter STALL_COUNTER = Metrics.counter("view.edt_stalls");
+
+    private static final int MAX_REPORT_FRAMES = 25;
+
+    private static EDTWatchdog INSTANCE = null;
+
+    private final long mThreshold;
+    private final Thread mMonitor;
+    private final Date mStarted = new Date();
+
+    /** Innermost event in dispatch, null if idle. */
+    private volatile Dispatch mCurrent = null;
+    private volatile Thread mEDT = null;
+    private volatile boolean mStopped = false;
+
+    /** Stalls by call site. Guarded by itself. */
+    private final Map<String, Stall> mStalls = new HashMap<>();
+
+    private static final class Dispatch {
+        /** Start of current (unnested) part of dispatching, as returned by {@link System#nanoTime()}. */
+        volatile long start;
+        /** Time (nanoseconds) spent in previous parts, before nested loops. */
+        volatile long elapsed = 0;
+        /** Stack captured by monitor, null if not (yet) stalled. */
+        volatile StackTraceElement[] stack = null;
+
+        Dispatch(long start) {
+            this.start = start;
+        }
+
+        /** Time spent dispatching this event, without nested loops. */
+        long busy(long now) {
+            return elapsed + now - start;
+        }
+
+        /** Nested loop starts. */
+        void pause(long now) {
+            elapsed += now - start;
+        }
+
+        /** Nested loop returned. */
+        void resume(long now) {
+            start = now;
+        }
+    }
+
+    private static final class Stall {
+        final String site;
+        int count = 0;
+        long total = 0;
+        long max = 0;
+        StackTraceElement[] stack;
+
+        Stall(String site) {
+            this.site = site;
+        }
+    }
+
+    private EDTWatchdog(long thresholdMillis) {
+        mThreshold = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        long interval = Math.max(thresholdMillis / 4, 10);
+        mMonitor = new Thread(() -> this.monitor(interval), "EDT Watchdog");
+        mMonitor.setDaemon(true);
+    }
+
+    /**
+     * Install the watchdog as event queue of the default toolkit.
+     * @param thresholdMillis events taking longer than this are stalls
+     */
+    static synchronized EDTWatchdog install(long thresholdMillis) {
+        if (INSTANCE != null) {
+            LOGGER.warning("already installed");
+            return INSTANCE;
+        }
+
+        LOGGER.info("installing, threshold (ms): " + thresholdMillis);
+        INSTANCE = new EDTWatchdog(thresholdMillis);
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(INSTANCE);
+        INSTANCE.mMonitor.start();
+        return INSTANCE;
+    }
+
+    static synchronized Optional<EDTWatchdog> instance() {
+        return Optional.ofNullable(INSTANCE);
+    }
+
+    /** Remove from event queue stack, collected stalls are kept. */
+    synchronized void uninstall() {
+        if (mStopped)
+            return;
+
+        mStopped = true;
+        mMonitor.interrupt();
+        this.pop();
+        synchronized (EDTWatchdog.class) {
+            if (INSTANCE == this)
+                INSTANCE = null;
+        }
+    }
+
+    @Override
+    protected void dispatchEvent(AWTEvent event) {
+        mEDT = Thread.currentThread();
+        Dispatch outer = mCurrent;
+        long start = System.nanoTime();
+        if (outer != null)
+            outer.pause(start);
+        Dispatch dispatch = new Dispatch(start);
+        mCurrent = dispatch;
+        try {
+            super.dispatchEvent(event);
+        } finally {
+            long end = System.nanoTime();
+            long busy = dispatch.busy(end);
+            mCurrent = outer;
+            if (outer != null)
+                // outer event continues now
+                outer.resume(end);
+
+            DISPATCH_TIMER.record(end - busy);
+            StackTraceElement[] stack = dispatch.stack;
+            if (stack != null)
+                this.stalled(busy, stack, event);
+        }
+    }
+
+    @Override
+    public AWTEvent getNextEvent() throws InterruptedException {
+        // not null if called by nested event loop
+        Dispatch waiting = mCurrent;
+        mCurrent = null;
+        if (waiting != null)
+            waiting.pause(System.nanoTime());
+        try {
+            return super.getNextEvent();
+        } finally {
+            if (waiting != null) {
+                waiting.resume(System.nanoTime());
+                mCurrent = waiting;
+            }
+        }
+    }
+
+    private void monitor(long intervalMillis) {
+        while (!mStopped) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException ex) {
+                return;
+            }
+
+            Dispatch dispatch = mCurrent;
+            Thread edt = mEDT;
+            if (dispatch == null || edt == null || dispatch.stack != null)
+                continue;
+
+            if (dispatch.busy(System.nanoTime()) > mThreshold)
+                dispatch.stack = edt.getStackTrace();
+        }
+    }
+
+    private void stalled(long duration, StackTraceElement[] stack, AWTEvent event) {
+        STALL_COUNTER.increment();
+        String site = site(stack);
+        LOGGER.warning("EDT stall: " + TimeUnit.NANOSECONDS.toMillis(duration)
+                + " ms at " + site + ", event: " + event.getClass().getSimpleName());
+
+        synchronized (mStalls) {
+            Stall stall = mStalls.computeIfAbsent(site, Stall::new);
+            stall.count++;
+            stall.total += duration;
+            if (duration >= stall.max) {
+                stall.max = duration;
+                stall.stack = stack;
+            }
+        }
+    }
+
+    /** First frame of our code, excluding this class, or top frame. */
+    private static String site(StackTraceElement[] stack) {
+        return Arrays.stream(stack)
+                .filter(e -> e.getClassName().startsWith("org.kontalk.") &&
+                        !e.getClassName().equals(EDTWatchdog.class.getName()))
+                .findFirst()
+                .map(StackTraceElement::toString)
+                .orElse(stack.length > 0 ? stack[0].toString() : "unknown");
+    }
+
+    /** Stalls by call site, longest total time first, with stack of longest stall. */
+    String report() {
+        List<Stall> stalls;
+        synchronized (mStalls) {
+            stalls = new ArrayList<>(mStalls.values());
+        }
+        stalls.sort(Comparator.comparingLong((Stall s) -> s.total).reversed());
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("EDT stalls over ").append(TimeUnit.NANOSECONDS.toMillis(mThreshold))
+                .append(" ms since ").append(mStarted).append('\n');
+        sb.append(String.format("events: %d, avg: %.3f ms, stalls: %d%n",
+                DISPATCH_TIMER.count(), DISPATCH_TIMER.averageMillis(),
+                stalls.stream().mapToInt(s -> s.count).sum()));
+        for (Stall stall : stalls) {
+            sb.append(String.format("%n%d stall(s), total %d ms, max %d ms: %s%n",
+                    stall.count,
+                    TimeUnit.NANOSECONDS.toMillis(stall.total),
+                    TimeUnit.NANOSECONDS.toMillis(stall.max),
+                    stall.site));
+            int frames = Math.min(stall.stack.length, MAX_REPORT_FRAMES);
+            for (int i = 0; i < frames; i++)
+                sb.append("    at ").append(stall.stack[i]).append('\n');
+            if (stall.stack.length > frames)
+                sb.append("    ...\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the report to a file in the directory, overwriting an existing one.
+     * @return the file written, empty on error
+     */
+    Optional<Path> writeReport(Path dir) {
+        Path file = dir.resolve(REPORT_FILENAME);
+        try {
+            Files.write(file, this.report().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "can't write report", ex);
+            return Optional.empty();
+        }
+        return Optional.of(file);
+    }
+}
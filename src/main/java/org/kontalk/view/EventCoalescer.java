@@ -0,0 +1,131 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.view;
+
+import javax.swing.SwingUtilities;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Observable;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.kontalk.misc.Metrics;
+
+/**
+ * Delivery of model notifications to view observers on the EDT.
+ *
+ * Notifications from other threads are queued and delivered in one batch on
+ * the next run of the EDT. Equal notifications (same observer, observable and
+ * argument) waiting in the queue are delivered only once, so a burst of
+ * changes (e.g. when receiving many messages) results in one update per
+ * observer and change type.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+public final class EventCoalescer {
+    private static final Logger LOGGER = Logger.getLogger(EventCoalescer.class.getName());
+
+    private static final LongAdder POSTED = new LongAdder();
+    private static final LongAdder DELIVERED = new LongAdder();
+
+    static {
+        Metrics.gauge("view.events_posted", POSTED::sum);
+        Metrics.gauge("view.events_delivered", DELIVERED::sum);
+    }
+
+    /** Pending events with time they were first posted. Guarded by itself. */
+    private static final Map<Event, Long> PENDING = new LinkedHashMap<>();
+    private static boolean FLUSH_SCHEDULED = false;
+
+    private EventCoalescer() {}
+
+    static void post(ObserverTrait target, Observable o, Object arg) {
+        POSTED.increment();
+        synchronized (PENDING) {
+            PENDING.putIfAbsent(new Event(target, o, arg), System.nanoTime());
+            if (FLUSH_SCHEDULED)
+                return;
+            FLUSH_SCHEDULED = true;
+        }
+        SwingUtilities.invokeLater(EventCoalescer::flush);
+    }
+
+    private static void flush() {
+        List<Map.Entry<Event, Long>> batch;
+        synchronized (PENDING) {
+            batch = new ArrayList<>(PENDING.entrySet());
+            PENDING.clear();
+            FLUSH_SCHEDULED = false;
+        }
+
+        for (Map.Entry<Event, Long> entry : batch) {
+            Event e = entry.getKey();
+            DELIVERED.increment();
+            try {
+                e.target.updateOnEDT(e.o, e.arg);
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "update failed, target: " + e.target, ex);
+            }
+            EDTLatency.record(entry.getValue(), e.target);
+        }
+    }
+
+    /** Number of notifications posted from outside the EDT. */
+    public static long posted() {
+        return POSTED.sum();
+    }
+
+    /** Number of notifications delivered, posted minus coalesced (and pending). */
+    public static long delivered() {
+        return DELIVERED.sum();
+    }
+
+    private static final class Event {
+        final ObserverTrait target;
+        final Observable o;
+        final Object arg;
+
+        Event(ObserverTrait target, Observable o, Object arg) {
+            this.target = target;
+            this.o = o;
+            this.arg = arg;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this)
+                return true;
+
+            if (!(obj instanceof Event))
+                return false;
+
+            Event e = (Event) obj;
+            return target == e.target && o == e.o && Objects.equals(arg, e.arg);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(target),
+                    System.identityHashCode(o), arg);
+        }
+    }
+}
@@ -18,37 +18,132 @@
 
 package org.kontalk.view;
 
+import javax.swing.ImageIcon;
+import javax.swing.SwingUtilities;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
 import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
-import javax.swing.ImageIcon;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
 import org.kontalk.system.AttachmentManager;
 import org.kontalk.util.MediaUtils;
 
 /**
  * Static utility functions for loading images in Swing.
+ *
+ * Images are decoded and scaled in background, a placeholder is returned
+ * until the image is ready. Loaded images are kept in a LRU cache with a limit
+ * on the total image size. All functions must be called on the EDT.
+ *
  * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
  */
 class ImageLoader {
+    private static final Logger LOGGER = Logger.getLogger(ImageLoader.class.getName());
 
-    private static final Map<Path, ImageIcon> CACHE = new HashMap<>();
+    /** Maximum size of all cached images in bytes (uncompressed). */
+    private static final long MAX_CACHE_BYTES = 32 * 1024 * 1024;
+
+    private static final ImageIcon PLACEHOLDER = createPlaceholder();
+
+    private static final Map<Path, ImageIcon> CACHE = new LinkedHashMap<>(64, 0.75f, true);
+    private static long CACHE_BYTES = 0;
+
+    /**
+     * Callbacks for images currently loading, a path is only loaded once.
+     * Equal callbacks (e.g. from rendering the same item again) are called once.
+     */
+    private static final Map<Path, Set<Runnable>> LOADING = new HashMap<>();
+
+    private static final ExecutorService LOADER = Executors.newFixedThreadPool(2, r -> {
+        Thread thread = new Thread(r, "Image Loader");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
 
     private ImageLoader() {}
 
-    static ImageIcon imageIcon(Path path) {
-        if (CACHE.containsKey(path))
-            return CACHE.get(path);
+    /**
+     * Return the cached image or a placeholder if the image is not loaded yet.
+     * In the latter case the image is loaded in background and 'onLoaded' is
+     * called on the EDT afterwards.
+     */
+    static ImageIcon imageIcon(Path path, Runnable onLoaded) {
+        ImageIcon icon = CACHE.get(path);
+        if (icon != null)
+            return icon;
+
+        Set<Runnable> callbacks = LOADING.get(path);
+        if (callbacks != null) {
+            // already loading
+            callbacks.add(onLoaded);
+            return PLACEHOLDER;
+        }
 
-        ImageIcon imageIcon = load(path);
-        CACHE.put(path, imageIcon);
-        return imageIcon;
+        callbacks = new LinkedHashSet<>();
+        callbacks.add(onLoaded);
+        LOADING.put(path, callbacks);
+        LOADER.execute(() -> {
+            ImageIcon loaded = load(path);
+            SwingUtilities.invokeLater(() -> onLoaded(path, loaded));
+        });
+        return PLACEHOLDER;
+    }
+
+    private static void onLoaded(Path path, ImageIcon icon) {
+        put(path, icon);
+
+        Set<Runnable> callbacks = LOADING.remove(path);
+        if (callbacks != null)
+            callbacks.forEach(Runnable::run);
+    }
+
+    private static void put(Path path, ImageIcon icon) {
+        ImageIcon old = CACHE.put(path, icon);
+        if (old != null)
+            CACHE_BYTES -= bytes(old);
+        CACHE_BYTES += bytes(icon);
+
+        // evict least recently used, but keep the new one
+        Iterator<Map.Entry<Path, ImageIcon>> it = CACHE.entrySet().iterator();
+        while (CACHE_BYTES > MAX_CACHE_BYTES && CACHE.size() > 1) {
+            Map.Entry<Path, ImageIcon> eldest = it.next();
+            CACHE_BYTES -= bytes(eldest.getValue());
+            it.remove();
+            LOGGER.config("evicted: "+eldest.getKey());
+        }
+    }
+
+    private static long bytes(ImageIcon icon) {
+        return (long) icon.getIconWidth() * icon.getIconHeight() * 4;
     }
 
     private static ImageIcon load(Path path) {
         return new ImageIcon(
                 MediaUtils.scale(
-                        MediaUtils.readImage(path),
+                        MediaUtils.readImage(path,
+                                AttachmentManager.THUMBNAIL_DIM.width,
+                                AttachmentManager.THUMBNAIL_DIM.height),
                         AttachmentManager.THUMBNAIL_DIM.width,
                         AttachmentManager.THUMBNAIL_DIM.height));
     }
+
+    private static ImageIcon createPlaceholder() {
+        int size = AttachmentManager.THUMBNAIL_DIM.height / 2;
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(new Color(0, 0, 0, 24));
+        g.fillRect(0, 0, size, size);
+        g.dispose();
+        return new ImageIcon(image);
+    }
 }
@@ -42,15 +42,15 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
 import java.lang.reflect.ParameterizedType;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
-import java.util.HashSet;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Optional;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.TimeUnit;
 
 import com.alee.laf.menu.WebPopupMenu;
 import com.alee.laf.panel.WebPanel;
@@ -60,6 +60,7 @@ import com.alee.managers.language.data.TooltipWay;
 import com.alee.managers.tooltip.TooltipManager;
 import com.alee.managers.tooltip.WebCustomTooltip;
 import org.apache.commons.lang.ArrayUtils;
+import org.kontalk.misc.Metrics;
 import org.kontalk.misc.Searchable;
 
 /**
@@ -74,6 +75,8 @@ import org.kontalk.misc.Searchable;
 abstract class ListView<V extends Observable & Searchable>
         extends WebTable implements ObserverTrait, Comparator<V> {
 
+    private static final Metrics.Timer UPDATE_TIMER = Metrics.timer("view.list_update");
+
     private final Class mVClass;
     final View mView;
     private final DefaultTableModel mModel;
@@ -84,8 +87,17 @@ abstract class ListView<V extends Observable & Searchable>
     /** Flyweight item that is used by cell editor. */
     protected final FlyweightItem mEditorItem;
 
+    /** Model row of all values in the table model, for fast lookup. */
+    private final Map<V, Integer> mRows = new HashMap<>();
+    /** Scheduled refresh time of items showing a relative time. */
+    private final Map<V, Long> mRefreshTimes = new HashMap<>();
+
+    /** Search index over all values in the table model. */
+    private final SearchIndex<V> mIndex = new SearchIndex<>();
     /** The current search string. */
     private String mSearch = "";
+    /** Values matching the current search, or null if there is no search. */
+    private Set<V> mMatches = null;
 
     private WebCustomTooltip mTip = null;
 
@@ -94,8 +106,7 @@ abstract class ListView<V extends Observable & Searchable>
     ListView(View view,
              FlyweightItem renderItem, FlyweightItem editorItem,
              int selectionMode,
-             boolean filterSelected,
-             boolean activateTimer) {
+             boolean filterSelected) {
 
         // damn Java
         mVClass = (Class<V>) ((ParameterizedType) getClass()
@@ -132,7 +143,7 @@ abstract class ListView<V extends Observable & Searchable>
             public boolean include(Entry<? extends DefaultTableModel, ? extends Integer> entry) {
                 V v = (V) entry.getValue(0);
                 return (!filterSelected && v.equals(ListView.this.getSelectedValue().orElse(null)))
-                               || v.contains(mSearch);
+                               || mMatches == null || mMatches.contains(v);
             }
         };
         mRowSorter.setRowFilter(rowFilter);
@@ -196,19 +207,6 @@ abstract class ListView<V extends Observable & Searchable>
             }
         });
 
-        if (activateTimer) {
-            Timer aTimer = new Timer();
-            // update periodically values to be up-to-date with 'last seen' text
-            TimerTask statusTask = new TimerTask() {
-                @Override
-                public void run() {
-                    ListView.this.update(null, null);
-                }
-            };
-            long timerInterval = TimeUnit.SECONDS.toMillis(60);
-            aTimer.schedule(statusTask, timerInterval, timerInterval);
-        }
-
         // actions triggered by selection
         this.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
             @Override
@@ -258,23 +256,43 @@ abstract class ListView<V extends Observable & Searchable>
 
     @SuppressWarnings("unchecked")
     boolean sync(Set<V> values) {
-        Set<V> oldValues = new HashSet<>();
         // remove old
+        int firstRemoved = -1;
         for (int i=0; i < mModel.getRowCount(); i++) {
             V value = (V) mModel.getValueAt(i, 0);
             if (!values.contains(value)) {
+                if (firstRemoved < 0)
+                    firstRemoved = i;
                 value.deleteObserver(this);
                 mModel.removeRow(i);
+                mRows.remove(value);
+                mRefreshTimes.remove(value);
+                mIndex.remove(value);
+                if (mMatches != null)
+                    mMatches.remove(value);
                 i--;
-            } else {
-                oldValues.add(value);
             }
         }
+        // rows after a removed one moved up
+        if (firstRemoved >= 0) {
+            for (int i = firstRemoved; i < mModel.getRowCount(); i++)
+                mRows.put((V) mModel.getValueAt(i, 0), i);
+        }
 
         // add new
+        return this.addItems(values);
+    }
+
+    /**
+     * Add values that are not already in the list, without touching the
+     * existing ones. The row sorter inserts each new row at its sorted position.
+     */
+    boolean addItems(Collection<V> values) {
         boolean added = false;
         for (V v: values) {
-            if (!oldValues.contains(v)) {
+            if (!mRows.containsKey(v)) {
+                mRows.put(v, mModel.getRowCount());
+                this.reindex(v);
                 mModel.addRow(new Object[]{v});
                 v.addObserver(this);
                 added = true;
@@ -285,6 +303,61 @@ abstract class ListView<V extends Observable & Searchable>
 
     void clearItems() {
         mModel.setRowCount(0);
+        mRows.clear();
+        mRefreshTimes.clear();
+        mIndex.clear();
+        if (mMatches != null)
+            mMatches.clear();
+    }
+
+    /**
+     * The texts an item is found by when searching, lower-cased or not. Must
+     * match what {@link Searchable#contains(String)} is checking. If empty the
+     * item is not indexed.
+     */
+    Optional<List<String>> searchKeys(V value) {
+        return Optional.empty();
+    }
+
+    /** Add or update value in search index and current search result. */
+    private void reindex(V value) {
+        mIndex.put(value, this.searchKeys(value));
+        if (mMatches == null)
+            return;
+
+        if (mIndex.matches(value, mSearch))
+            mMatches.add(value);
+        else
+            mMatches.remove(value);
+    }
+
+    /** The date an item displays as relative time text, if any. */
+    Optional<Date> relativeTime(V value) {
+        return Optional.empty();
+    }
+
+    /** Render item again when its relative time text changes. */
+    private void scheduleRefresh(V value) {
+        Date date = this.relativeTime(value).orElse(null);
+        if (date == null) {
+            mRefreshTimes.remove(value);
+            return;
+        }
+
+        long time = RelativeTimeRefresher.nextChange(date.getTime(),
+                System.currentTimeMillis());
+        Long oldTime = mRefreshTimes.put(value, time);
+        if (oldTime != null && oldTime == time)
+            return;
+
+        RelativeTimeRefresher.schedule(time, () -> {
+            Long current = mRefreshTimes.get(value);
+            if (current == null || current != time)
+                // rescheduled or removed
+                return;
+            mRefreshTimes.remove(value);
+            this.updateItemRendering(value);
+        });
     }
 
     V getDisplayedValueAt(int row) {
@@ -340,35 +413,58 @@ abstract class ListView<V extends Observable & Searchable>
     }
 
     void filterItems(String search) {
+        if (search.isEmpty()) {
+            mMatches = null;
+        } else {
+            // narrow down previous result if possible
+            boolean narrow = mMatches != null && search.contains(mSearch);
+            mMatches = mIndex.search(search,
+                    narrow ? Optional.of(mMatches) : Optional.empty());
+        }
         mSearch = search;
         mRowSorter.sort();
     }
 
     @Override
-    public void update(Observable o, Object arg) {
-        if (SwingUtilities.isEventDispatchThread()) {
-            this.updateOnEDT(o, arg);
-            return;
-        }
-        SwingUtilities.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                ListView.this.updateOnEDT(o, arg);
-            }
-        });
+    public void updateOnEDT(Observable o, Object arg) {
+        long start = System.nanoTime();
+        this.processUpdate(o, arg);
+        UPDATE_TIMER.record(start);
     }
 
-    @SuppressWarnings("unchecked")
-    @Override
-    public void updateOnEDT(Observable o, Object arg) {
-        if (o == null || mVClass.isAssignableFrom(o.getClass())) {
+    private void processUpdate(Observable o, Object arg) {
+        if (o == null) {
             // render everything again (and update sorting)
+            mRows.keySet().forEach(this::reindex);
             updateRowRendering(0, this.getRowCount() -1);
             return;
         }
+        if (mVClass.isAssignableFrom(o.getClass())) {
+            // render only the changed item again (and update sorting)
+            this.updateItemRendering(o);
+            return;
+        }
         this.updateOnEDT(arg);
     }
 
+    @SuppressWarnings("unchecked")
+    void updateItemRendering(Object value) {
+        Integer row = mRows.get(value);
+        if (row == null)
+            return;
+
+        this.reindex((V) value);
+        mModel.fireTableRowsUpdated(row, row);
+    }
+
+    /**
+     * Callback for rendering an item again, e.g. after an image was loaded.
+     * Callbacks for the same item are equal, loaders keep only one of them.
+     */
+    Runnable renderAgain(V value) {
+        return new RenderAgain(value);
+    }
+
     void updateRowRendering(int from, int to) {
         from = Math.max(0, from);
         to = Math.max(0, to);
@@ -378,6 +474,40 @@ abstract class ListView<V extends Observable & Searchable>
 
     abstract protected void updateOnEDT(Object arg);
 
+    private final class RenderAgain implements Runnable {
+        private final V mValue;
+
+        private RenderAgain(V value) {
+            mValue = value;
+        }
+
+        private ListView<?> list() {
+            return ListView.this;
+        }
+
+        @Override
+        public void run() {
+            ListView.this.updateItemRendering(mValue);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this)
+                return true;
+
+            if (!(o instanceof ListView<?>.RenderAgain))
+                return false;
+
+            ListView<?>.RenderAgain r = (ListView<?>.RenderAgain) o;
+            return r.list() == ListView.this && r.mValue.equals(mValue);
+        }
+
+        @Override
+        public int hashCode() {
+            return mValue.hashCode();
+        }
+    }
+
     // WebLaf's tooltipmanager blocks mouse events, we need to invoke the tooltip manually.
     // Catch the event when a tooltip should be shown and create a own one.
     @Override
@@ -432,10 +562,14 @@ abstract class ListView<V extends Observable & Searchable>
     private class TableRenderer extends WebTableCellRenderer {
         // return for each item (value) in the list/table the component to
         // render - which is the updated render item
+        @SuppressWarnings("unchecked")
         @Override
         public Component getTableCellRendererComponent(JTable table,
                 Object value, boolean isSelected, boolean hasFocus,
                 int row, int column) {
+            if (value != null)
+                // only displayed items are refreshed
+                ListView.this.scheduleRefresh((V) value);
             return updateFlyweight(mRenderItem, table, value, row, isSelected);
         }
     }
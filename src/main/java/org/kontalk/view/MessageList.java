@@ -28,16 +28,13 @@ import javax.swing.ListSelectionModel;
 import javax.swing.SwingUtilities;
 import javax.swing.TransferHandler;
 import javax.swing.text.AbstractDocument;
-import javax.swing.text.BadLocationException;
 import javax.swing.text.BoxView;
 import javax.swing.text.ComponentView;
 import javax.swing.text.Element;
 import javax.swing.text.IconView;
 import javax.swing.text.LabelView;
 import javax.swing.text.ParagraphView;
-import javax.swing.text.Style;
 import javax.swing.text.StyleConstants;
-import javax.swing.text.StyledDocument;
 import javax.swing.text.StyledEditorKit;
 import javax.swing.text.ViewFactory;
 import java.awt.BorderLayout;
@@ -51,9 +48,14 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.nio.file.Path;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -84,6 +86,7 @@ import org.kontalk.persistence.Config;
 import org.kontalk.util.Tr;
 import org.kontalk.view.ChatView.Background;
 import org.kontalk.view.ComponentUtils.AttachmentPanel;
+import org.kontalk.view.StyledTextCache.StyledText;
 
 /**
  * View all messages of one chat in a left/right MIM style list.
@@ -103,6 +106,24 @@ final class MessageList extends ListView<KonMessage> {
     private static final Icon CRYPT_WARNING_ICON = Utils.getIcon("ic_msg_crypt_warning.png");
 
     private static final WrapEditorKit FIX_WRAP_KIT = new WrapEditorKit();
+    /** Number of newest messages shown initially. */
+    private static final int INITIAL_WINDOW = 100;
+    /** Number of older messages loaded when scrolling to the top. */
+    private static final int PAGE_SIZE = 100;
+    /** Granularity of list width changes that trigger a new text layout. */
+    private static final int WIDTH_BUCKET = 8;
+    private static final int MAX_LAYOUT_CACHE_SIZE = 5000;
+    /**
+     * Size of text panes, styled text layout is expensive. Shared by all
+     * lists, EDT only.
+     */
+    private static final Map<LayoutKey, Dimension> LAYOUT_CACHE =
+            new LinkedHashMap<LayoutKey, Dimension>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<LayoutKey, Dimension> eldest) {
+                    return this.size() > MAX_LAYOUT_CACHE_SIZE;
+                }
+            };
     private static final WebPopupMenu TEXT_COPY_MENU = Utils.createCopyMenu(false);
 
     private final ChatView mChatView;
@@ -110,6 +131,16 @@ final class MessageList extends ListView<KonMessage> {
 
     private Background mBackground = null;
 
+    // window of messages in list, all messages between oldest and newest are shown
+    private KonMessage mOldest = null;
+    private KonMessage mNewest = null;
+
+    // when searching: older messages found so far are also in list, more are
+    // added page by page when scrolling up
+    private String mOlderSearch = "";
+    private KonMessage mOldestFound = null;
+    private boolean mAllFound = false;
+
     MessageList(View view, ChatView chatView, Chat chat) {
         // render and editor item are equal (but not the same!)
         super(view,
@@ -117,8 +148,7 @@ final class MessageList extends ListView<KonMessage> {
                 new MessageListFlyWeightItem(view),
                 // allow multiple selections for "copy" action
                 ListSelectionModel.MULTIPLE_INTERVAL_SELECTION,
-                true,
-                false);
+                true);
 
         mChatView = chatView;
         mChat = chat;
@@ -134,6 +164,10 @@ final class MessageList extends ListView<KonMessage> {
         // menu or default ctrl+c shortcut
         this.setTransferHandler(new CopyTransferHandler(mView));
 
+        // render message again when preview image is loaded
+        ((MessageListFlyWeightItem) mRenderItem).mOnImageLoaded = this::renderAgain;
+        ((MessageListFlyWeightItem) mEditorItem).mOnImageLoaded = this::renderAgain;
+
         this.updateOnEDT(null);
     }
 
@@ -156,8 +190,7 @@ final class MessageList extends ListView<KonMessage> {
         }
 
         // check for new messages to add
-        if ((arg == null || arg == Chat.ViewChange.NEW_MESSAGE) &&
-                this.getModel().getRowCount() < mChat.getMessages().size()) {
+        if (arg == null || arg == Chat.ViewChange.NEW_MESSAGE) {
             this.insertMessages();
         }
 
@@ -176,13 +209,95 @@ final class MessageList extends ListView<KonMessage> {
     }
 
     private void insertMessages() {
-        boolean newAdded = this.sync(mChat.getMessages().getAll());
+        // NOTE: new messages are always created with the current date, they
+        // are newer than everything in list
+        List<KonMessage> newMessages = mNewest == null ?
+                mChat.getMessages().getNewest(INITIAL_WINDOW) :
+                mChat.getMessages().getAfter(mNewest);
+        if (newMessages.isEmpty())
+            return;
+
+        if (mOldest == null)
+            mOldest = newMessages.get(0);
+        mNewest = newMessages.get(newMessages.size() - 1);
+
+        this.prefetchTexts(newMessages);
+        boolean newAdded = this.addItems(newMessages);
         if (newAdded) {
             //this.scrollToRow(this.getRowCount() -1);
             mChatView.setScrollDown();
         }
     }
 
+    /**
+     * Extend the window of shown messages with older messages, or add more
+     * older found messages when searching.
+     * @return true if older messages were added
+     */
+    boolean loadOlder() {
+        if (!mOlderSearch.isEmpty())
+            return this.addFound();
+
+        if (mOldest == null)
+            return false;
+
+        List<KonMessage> older = mChat.getMessages().getBefore(mOldest, PAGE_SIZE);
+        if (older.isEmpty())
+            return false;
+
+        mOldest = older.get(0);
+        this.prefetchTexts(older);
+        return this.addItems(older);
+    }
+
+    /** Add the next page of messages older than the window that match the search. */
+    private boolean addFound() {
+        if (mAllFound || mOldest == null)
+            return false;
+
+        List<KonMessage> found = mChat.getMessages().searchBefore(
+                mOldestFound != null ? mOldestFound : mOldest, mOlderSearch, PAGE_SIZE);
+        mAllFound = found.size() < PAGE_SIZE;
+        if (found.isEmpty())
+            return false;
+
+        mOldestFound = found.get(0);
+        this.prefetchTexts(found);
+        return this.addItems(found);
+    }
+
+    /** Style message texts in background before they are rendered. */
+    private void prefetchTexts(List<KonMessage> messages) {
+        // newest first, they are shown first
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            KonMessage message = messages.get(i);
+            String text = messageToString(message, mView, false);
+            String meName = meName(message, text);
+            if (!meName.isEmpty())
+                text = text.substring(View.THE_ME_COMMAND.length());
+            StyledTextCache.prefetch(message.getID(), meName, text,
+                    message.getContent().getGroupCommand().isPresent());
+        }
+    }
+
+    @Override
+    void filterItems(String search) {
+        if (!mOlderSearch.equals(search)) {
+            if (search.isEmpty() && mOldestFound != null)
+                // only the window again
+                this.sync(new HashSet<>(mChat.getMessages().getBetween(mOldest, mNewest)));
+
+            // search in all messages, not only in window
+            mOlderSearch = search;
+            mOldestFound = null;
+            mAllFound = false;
+            if (!search.isEmpty())
+                this.addFound();
+        }
+
+        super.filterItems(search);
+    }
+
     private void setBackground(Chat.ViewSettings s) {
         // simply overwrite
         mBackground = mChatView.createBGOrNull(s);
@@ -263,7 +378,7 @@ final class MessageList extends ListView<KonMessage> {
     @Override
     public int compare(KonMessage o1, KonMessage o2) {
         int idComp = Integer.compare(o1.getID(), o2.getID());
-        int dateComp = o1.getDate().compareTo(o2.getDate());
+        int dateComp = Long.compare(o1.getTime(), o2.getTime());
         return (idComp == 0 || dateComp == 0) ? idComp : dateComp;
     }
 
@@ -293,8 +408,11 @@ final class MessageList extends ListView<KonMessage> {
 
         private final AttachmentPanel mAttPanel;
 
-        private final LinkUtils.Linkifier mLinkifier;
-        private final Style mMeCommandStyle;
+
+        private int mTextFontSize;
+        /** Text currently in the document of the text pane. */
+        private StyledText mShownText = null;
+        private Function<KonMessage, Runnable> mOnImageLoaded = m -> () -> {};
 
         MessageListFlyWeightItem(View view) {
             mView = view;
@@ -346,11 +464,6 @@ final class MessageList extends ListView<KonMessage> {
             // right click menu
             mTextPane.setComponentPopupMenu(TEXT_COPY_MENU);
 
-            // text styling
-            mLinkifier = new LinkUtils.Linkifier(mTextPane.getStyledDocument());
-            mMeCommandStyle = mTextPane.addStyle(null, null);
-            StyleConstants.setForeground(mMeCommandStyle, View.GREEN);
-
             // attachment
             mAttPanel = new AttachmentPanel();
 
@@ -418,6 +531,7 @@ final class MessageList extends ListView<KonMessage> {
                     textFontSize = View.FONT_SIZE_SMALL;
                     timeFontSize = View.FONT_SIZE_TINY;
             }
+            mTextFontSize = textFontSize;
             mDateLabel.setFontSize(textFontSize);
             mTextPane.setFontSize(textFontSize);
             mTimeLabel.setFontSize(timeFontSize);
@@ -477,26 +591,16 @@ final class MessageList extends ListView<KonMessage> {
 
             // text in text area
             String text = messageToString(value, mView, false);
-            if (value.getContent().getGroupCommand().isPresent()) {
-                mTextPane.setText(text);
-                mTextPane.setFontStyle(false, true);
-            } else {
-                mTextPane.setFontStyle(false, value.isEncrypted());
-                StyledDocument document = mTextPane.getStyledDocument();
-                try {
-                    document.remove(0, document.getLength());
-                    // output implementation of the "/me" command, XEP-0245
-                    if (text.startsWith(View.THE_ME_COMMAND)) {
-                        Contact sender = value.getSender().orElse(null);
-                        // NOTE: not updated if sender name changes, people have to live with it
-                        String meName = (sender == null ? Tr.tr("Me") : sender.getName()) + " ";
-                        document.insertString(0, meName, mMeCommandStyle);
-                        text = text.substring(View.THE_ME_COMMAND.length());
-                    }
-                    mLinkifier.linkify(text);
-                } catch (BadLocationException ex) {
-                    LOGGER.log(Level.WARNING, "can't set styled document text", ex);
-                }
+            String meName = meName(value, text);
+            if (!meName.isEmpty())
+                text = text.substring(View.THE_ME_COMMAND.length());
+            mTextPane.setFontStyle(false, hasGroupCommand || value.isEncrypted());
+            StyledText styledText = StyledTextCache.get(value.getID(), meName,
+                    text, hasGroupCommand);
+            if (styledText != mShownText) {
+                // the pane keeps its document, only the content changes
+                styledText.show(mTextPane.getStyledDocument());
+                mShownText = styledText;
             }
 
             // hide area if there is no text
@@ -653,7 +757,8 @@ final class MessageList extends ListView<KonMessage> {
                         .map(p -> p.getImagePath(value.getID())).orElse(null);
                 Path linkPath = att.getFilePath();
                 if (imagePath != null && !imagePath.toString().isEmpty())
-                    mAttPanel.setAttachment(imagePath, linkPath);
+                    mAttPanel.setAttachment(imagePath, linkPath,
+                            mOnImageLoaded.apply(value));
                 else
                     mAttPanel.setAttachment(linkPath.getFileName().toString(), linkPath);
 
@@ -679,23 +784,15 @@ final class MessageList extends ListView<KonMessage> {
                 mAttPanel.setStatus(statusText);
             }
 
-            // resetting size
-            mTextPane.setSize(Short.MAX_VALUE, Short.MAX_VALUE);
-            mTextPane.setPreferredSize(null);
-
-            // calculate preferred width
             // NOTE: on the very first call the list width is zero (?)
-            int maxWidth = (int)(listWidth * 0.8);
-            mTextPane.setSize(Short.MAX_VALUE, Short.MAX_VALUE);
-            //mTextPane.setText(content); // already done
-            int prefWidth = mTextPane.getPreferredSize().width;
-
-            // calculate preferred height now with fixed width
-            int width = Math.min(prefWidth, maxWidth);
-            mTextPane.setSize(width, Short.MAX_VALUE);
-            int height = mTextPane.getPreferredSize().height;
-
-            Dimension prefSize = new Dimension(width, height);
+            int maxWidth = (int)(listWidth * 0.8) / WIDTH_BUCKET * WIDTH_BUCKET;
+            LayoutKey key = new LayoutKey(value.getID(), text, meName,
+                    hasGroupCommand || value.isEncrypted(), maxWidth, mTextFontSize);
+            Dimension prefSize = LAYOUT_CACHE.get(key);
+            if (prefSize == null) {
+                prefSize = this.layoutTextPane(maxWidth);
+                LAYOUT_CACHE.put(key, prefSize);
+            }
 
             mTextPane.setSize(prefSize);
             // textArea does not need this but textPane does, and editorPane
@@ -710,6 +807,62 @@ final class MessageList extends ListView<KonMessage> {
             mWritingPanel.setUndecorated(!showWriting);
             mWritingLabel.setText(showWriting ? Tr.tr("is writing…") : "");
         }
+
+        private Dimension layoutTextPane(int maxWidth) {
+            // resetting size
+            mTextPane.setSize(Short.MAX_VALUE, Short.MAX_VALUE);
+            mTextPane.setPreferredSize(null);
+
+            // calculate preferred width
+            int prefWidth = mTextPane.getPreferredSize().width;
+
+            // calculate preferred height now with fixed width
+            int width = Math.min(prefWidth, maxWidth);
+            mTextPane.setSize(width, Short.MAX_VALUE);
+            int height = mTextPane.getPreferredSize().height;
+
+            return new Dimension(width, height);
+        }
+    }
+
+    /** Everything the size of a message text pane depends on. */
+    private static final class LayoutKey {
+        private final int mMessageID;
+        // the shown content, the text of a message can change
+        private final String mText;
+        private final String mMeName;
+        private final boolean mStyled;
+        private final int mWidth;
+        private final int mFontSize;
+
+        LayoutKey(int messageID, String text, String meName, boolean styled,
+                int width, int fontSize) {
+            mMessageID = messageID;
+            mText = text;
+            mMeName = meName;
+            mStyled = styled;
+            mWidth = width;
+            mFontSize = fontSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this)
+                return true;
+
+            if (!(o instanceof LayoutKey))
+                return false;
+
+            LayoutKey k = (LayoutKey) o;
+            return mMessageID == k.mMessageID && mStyled == k.mStyled &&
+                    mWidth == k.mWidth && mFontSize == k.mFontSize &&
+                    mText.equals(k.mText) && mMeName.equals(k.mMeName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mMessageID, mText, mMeName, mStyled, mWidth, mFontSize);
+        }
     }
 
     private static String getFromString(InMessage message) {
@@ -802,6 +955,17 @@ final class MessageList extends ListView<KonMessage> {
         }
     }
 
+    /** Sender name if text is a "/me" command, else empty. */
+    private static String meName(KonMessage message, String text) {
+        if (message.getContent().getGroupCommand().isPresent() ||
+                !text.startsWith(View.THE_ME_COMMAND))
+            return "";
+
+        Contact sender = message.getSender().orElse(null);
+        // NOTE: not updated if sender name changes, people have to live with it
+        return (sender == null ? Tr.tr("Me") : sender.getName()) + " ";
+    }
+
     private static String messageToString(KonMessage message, View view, boolean copy) {
         String pre = "";
         if (copy) {
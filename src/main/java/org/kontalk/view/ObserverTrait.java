@@ -15,7 +15,7 @@ public interface ObserverTrait extends Observer {
             this.updateOnEDT(o, arg);
             return;
         }
-        SwingUtilities.invokeLater(() -> ObserverTrait.this.updateOnEDT(o, arg));
+        EventCoalescer.post(this, o, arg);
     }
 
     void updateOnEDT(Observable o, Object arg);
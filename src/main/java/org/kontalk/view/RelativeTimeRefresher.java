@@ -0,0 +1,123 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.view;
+
+import javax.swing.Timer;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.ocpsoft.prettytime.TimeUnit;
+import org.ocpsoft.prettytime.units.JustNow;
+
+/**
+ * One shared timer for refreshing relative time texts ("5 minutes ago") in
+ * all views.
+ *
+ * Views schedule an action for the moment the displayed text of an item will
+ * change, instead of refreshing everything periodically. EDT only.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+final class RelativeTimeRefresher {
+
+    private static final PriorityQueue<Task> QUEUE = new PriorityQueue<>();
+    private static final Timer TIMER = new Timer(0, e -> RelativeTimeRefresher.runDue());
+    static {
+        TIMER.setRepeats(false);
+    }
+
+    private RelativeTimeRefresher() {}
+
+    /** Run action on EDT at given time (milliseconds since epoch). */
+    static void schedule(long time, Runnable action) {
+        QUEUE.add(new Task(time, action));
+        if (QUEUE.peek().time == time)
+            restart();
+    }
+
+    /**
+     * Time when the relative time text for a date will change next.
+     *
+     * Follows PrettyTime: the largest unit that fits the age is used (with
+     * "moments ago" for the first minutes) and the number is rounded, it is
+     * rounded up if more than half a unit is left over.
+     */
+    static long nextChange(long date, long now) {
+        if (now <= date)
+            // shown as in the future ("from now") until it is past
+            return date + 1;
+
+        long age = now - date;
+        List<TimeUnit> units = Utils.PRETTY_TIME.getUnits();
+        for (int i = 0; i < units.size(); i++) {
+            TimeUnit unit = units.get(i);
+            long millis = Math.abs(unit.getMillisPerUnit());
+            boolean isLast = i == units.size() - 1;
+            long quantity = Math.abs(unit.getMaxQuantity());
+            if (quantity == 0 && !isLast)
+                quantity = units.get(i + 1).getMillisPerUnit() / millis;
+            // the next unit is used from this age on
+            long end = isLast ? Long.MAX_VALUE : millis * quantity;
+            if (age >= end)
+                continue;
+
+            if (unit instanceof JustNow)
+                // no number shown
+                return date + end;
+
+            // less than one unit is shown as one
+            long shown = Math.max(1, age / millis);
+            long roundUp = shown * millis + millis / 2 + 1;
+            if (age >= roundUp)
+                roundUp += millis;
+            return date + Math.min(roundUp, end);
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private static void runDue() {
+        long now = System.currentTimeMillis();
+        while (!QUEUE.isEmpty() && QUEUE.peek().time <= now)
+            QUEUE.poll().action.run();
+
+        if (!QUEUE.isEmpty())
+            restart();
+    }
+
+    private static void restart() {
+        long delay = QUEUE.peek().time - System.currentTimeMillis();
+        TIMER.setInitialDelay((int) Math.max(0, Math.min(delay, Integer.MAX_VALUE)));
+        TIMER.restart();
+    }
+
+    private static final class Task implements Comparable<Task> {
+        final long time;
+        final Runnable action;
+
+        Task(long time, Runnable action) {
+            this.time = time;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Task o) {
+            return Long.compare(time, o.time);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.view;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.kontalk.misc.Searchable;
+
+/**
+ * Trigram index for searching items of a list by substring.
+ *
+ * Items are indexed by their (lower-cased) search keys, a query matches an item
+ * if one of its keys contains the query. Items without keys are not indexed
+ * and matched with {@link Searchable#contains(String)}. Not thread-safe.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+final class SearchIndex<V extends Searchable> {
+
+    private static final int N = 3;
+
+    private final Map<V, List<String>> mKeys = new HashMap<>();
+    private final Map<String, Set<V>> mPostings = new HashMap<>();
+    private final Set<V> mUnindexed = new HashSet<>();
+
+    /** Add or update an item. */
+    void put(V value, Optional<List<String>> optKeys) {
+        this.remove(value);
+
+        List<String> keys = optKeys.orElse(null);
+        if (keys == null) {
+            mUnindexed.add(value);
+            return;
+        }
+
+        List<String> lowerKeys = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            String lowerKey = key.toLowerCase();
+            lowerKeys.add(lowerKey);
+            for (String gram : grams(lowerKey))
+                mPostings.computeIfAbsent(gram, k -> new HashSet<>()).add(value);
+        }
+        mKeys.put(value, lowerKeys);
+    }
+
+    void remove(V value) {
+        if (mUnindexed.remove(value))
+            return;
+
+        List<String> keys = mKeys.remove(value);
+        if (keys == null)
+            return;
+
+        for (String key : keys) {
+            for (String gram : grams(key)) {
+                Set<V> values = mPostings.get(gram);
+                if (values != null && values.remove(value) && values.isEmpty())
+                    mPostings.remove(gram);
+            }
+        }
+    }
+
+    void clear() {
+        mKeys.clear();
+        mPostings.clear();
+        mUnindexed.clear();
+    }
+
+    boolean matches(V value, String query) {
+        List<String> keys = mKeys.get(value);
+        if (keys == null)
+            return value.contains(query);
+
+        for (String key : keys) {
+            if (key.contains(query))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Return all items matching the (lower-cased) query. If 'candidates' is
+     * given only these are considered, e.g. the result of a previous query
+     * that is a substring of this one. The candidate set is narrowed in place
+     * and returned.
+     */
+    Set<V> search(String query, Optional<Set<V>> candidates) {
+        if (candidates.isPresent()) {
+            Set<V> result = candidates.get();
+            result.removeIf(value -> !this.matches(value, query));
+            return result;
+        }
+
+        Set<V> result = new HashSet<>();
+        for (V value : this.indexedCandidates(query)) {
+            if (this.matches(value, query))
+                result.add(value);
+        }
+        for (V value : mUnindexed) {
+            if (value.contains(query))
+                result.add(value);
+        }
+        return result;
+    }
+
+    private Collection<V> indexedCandidates(String query) {
+        if (query.length() < N)
+            return mKeys.keySet();
+
+        // intersect, starting with the smallest set
+        List<Set<V>> sets = new ArrayList<>();
+        for (String gram : grams(query)) {
+            Set<V> values = mPostings.get(gram);
+            if (values == null)
+                return Collections.emptySet();
+            sets.add(values);
+        }
+        sets.sort((s1, s2) -> Integer.compare(s1.size(), s2.size()));
+
+        Set<V> result = new HashSet<>(sets.get(0));
+        for (int i = 1; i < sets.size() && !result.isEmpty(); i++)
+            result.retainAll(sets.get(i));
+        return result;
+    }
+
+    private static Set<String> grams(String s) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + N <= s.length(); i++)
+            grams.add(s.substring(i, i + N));
+        return grams;
+    }
+}
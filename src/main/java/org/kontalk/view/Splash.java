@@ -0,0 +1,61 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.view;
+
+import javax.swing.BorderFactory;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JWindow;
+import javax.swing.SwingConstants;
+import java.awt.BorderLayout;
+import java.awt.Color;
+
+import org.kontalk.Kontalk;
+import org.kontalk.util.Tr;
+
+/**
+ * Lightweight window shown while the application is starting.
+ *
+ * Only uses plain Swing, it is shown before the look and feel is installed.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+final class Splash extends JWindow {
+
+    Splash() {
+        JPanel panel = new JPanel(new BorderLayout(0, View.GAP_DEFAULT));
+        panel.setBackground(Color.WHITE);
+        panel.setBorder(BorderFactory.createCompoundBorder(
+                BorderFactory.createLineBorder(Color.LIGHT_GRAY),
+                BorderFactory.createEmptyBorder(View.MARGIN_BIG, View.MARGIN_BIG * 2,
+                        View.MARGIN_BIG, View.MARGIN_BIG * 2)));
+
+        JLabel logoLabel = new JLabel(Utils.getIcon("kontalk.png"));
+        panel.add(logoLabel, BorderLayout.CENTER);
+
+        JLabel textLabel = new JLabel("Kontalk " + Kontalk.VERSION + " - " +
+                Tr.tr("Starting…"), SwingConstants.CENTER);
+        textLabel.setForeground(Color.GRAY);
+        panel.add(textLabel, BorderLayout.SOUTH);
+
+        this.setContentPane(panel);
+        this.pack();
+        this.setLocationRelativeTo(null);
+    }
+}
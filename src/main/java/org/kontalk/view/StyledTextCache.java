@@ -0,0 +1,198 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.view;
+
+import javax.swing.SwingUtilities;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.Element;
+import javax.swing.text.Style;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache for styled message texts.
+ *
+ * Link detection and styling is done once per message text. The result is
+ * immutable, a text pane shows it by copying the styled text runs into its
+ * own document (text panes change the default style of their document, a
+ * document must not be shared). Styled texts can be created in background
+ * before they are needed. All functions must be called on the EDT.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+final class StyledTextCache {
+    private static final Logger LOGGER = Logger.getLogger(StyledTextCache.class.getName());
+
+    private static final int MAX_CACHE_SIZE = 500;
+
+    private static final Map<Key, StyledText> CACHE =
+            new LinkedHashMap<Key, StyledText>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, StyledText> eldest) {
+                    return this.size() > MAX_CACHE_SIZE;
+                }
+            };
+
+    /** Styled texts currently created in background. */
+    private static final Set<Key> PENDING = new HashSet<>();
+
+    private static final ExecutorService STYLER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Text Styler");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private StyledTextCache() {}
+
+    /**
+     * Return the styled text for a message text. Created on calling thread if
+     * not in cache.
+     *
+     * @param meName sender name for "/me" command, or empty
+     * @param plain no styling (and link detection) if true
+     */
+    static StyledText get(int messageID, String meName, String text, boolean plain) {
+        Key key = new Key(messageID, meName, text, plain);
+        StyledText styledText = CACHE.get(key);
+        if (styledText == null) {
+            styledText = create(key);
+            CACHE.put(key, styledText);
+        }
+        return styledText;
+    }
+
+    /** Create the styled text for a message text in background. */
+    static void prefetch(int messageID, String meName, String text, boolean plain) {
+        Key key = new Key(messageID, meName, text, plain);
+        if (CACHE.containsKey(key) || !PENDING.add(key))
+            return;
+
+        STYLER.execute(() -> {
+            StyledText styledText = create(key);
+            SwingUtilities.invokeLater(() -> {
+                PENDING.remove(key);
+                CACHE.putIfAbsent(key, styledText);
+            });
+        });
+    }
+
+    private static StyledText create(Key key) {
+        // styled in a temporary document
+        DefaultStyledDocument doc = new DefaultStyledDocument();
+        try {
+            if (key.mPlain) {
+                doc.insertString(0, key.mText, null);
+            } else {
+                // output implementation of the "/me" command, XEP-0245
+                if (!key.mMeName.isEmpty()) {
+                    Style meCommandStyle = doc.addStyle(null, null);
+                    StyleConstants.setForeground(meCommandStyle, View.GREEN);
+                    doc.insertString(0, key.mMeName, meCommandStyle);
+                }
+                new LinkUtils.Linkifier(doc).linkify(key.mText);
+            }
+        } catch (BadLocationException ex) {
+            LOGGER.log(Level.WARNING, "can't set styled document text", ex);
+        }
+        return new StyledText(doc);
+    }
+
+    /** Text runs with their character attributes. Immutable. */
+    static final class StyledText {
+        private final String[] mTexts;
+        private final AttributeSet[] mAttributes;
+
+        private StyledText(StyledDocument doc) {
+            List<String> texts = new ArrayList<>();
+            List<AttributeSet> attributes = new ArrayList<>();
+            int pos = 0;
+            while (pos < doc.getLength()) {
+                Element elem = doc.getCharacterElement(pos);
+                int end = Math.min(elem.getEndOffset(), doc.getLength());
+                try {
+                    texts.add(doc.getText(pos, end - pos));
+                } catch (BadLocationException ex) {
+                    LOGGER.log(Level.WARNING, "can't get styled document text", ex);
+                    break;
+                }
+                attributes.add(elem.getAttributes().copyAttributes());
+                pos = end;
+            }
+            mTexts = texts.toArray(new String[0]);
+            mAttributes = attributes.toArray(new AttributeSet[0]);
+        }
+
+        /** Replace the content of a document with this text. */
+        void show(StyledDocument doc) {
+            try {
+                doc.remove(0, doc.getLength());
+                for (int i = 0; i < mTexts.length; i++)
+                    doc.insertString(doc.getLength(), mTexts[i], mAttributes[i]);
+            } catch (BadLocationException ex) {
+                LOGGER.log(Level.WARNING, "can't set styled document text", ex);
+            }
+        }
+    }
+
+    private static final class Key {
+        private final int mMessageID;
+        private final String mMeName;
+        private final String mText;
+        private final boolean mPlain;
+
+        Key(int messageID, String meName, String text, boolean plain) {
+            mMessageID = messageID;
+            mMeName = meName;
+            mText = text;
+            mPlain = plain;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this)
+                return true;
+
+            if (!(o instanceof Key))
+                return false;
+
+            Key k = (Key) o;
+            return mMessageID == k.mMessageID && mPlain == k.mPlain &&
+                    mMeName.equals(k.mMeName) && mText.equals(k.mText);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mMessageID, mMeName, mText, mPlain);
+        }
+    }
+}
@@ -32,7 +32,14 @@ import java.awt.Toolkit;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.cert.CertificateException;
@@ -40,10 +47,13 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -78,6 +88,8 @@ final class Utils {
 
     static final String IMG_DIR =  "img";
 
+    private static final Map<String, Icon> ICONS = new ConcurrentHashMap<>();
+
     static final DateFormat SHORT_DATE_FORMAT = new SimpleDateFormat("HH:mm");
     static final DateFormat MID_DATE_FORMAT = new SimpleDateFormat("EEE, d MMM HH:mm");
     static final DateFormat LONG_DATE_FORMAT = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss");
@@ -163,7 +175,36 @@ final class Utils {
     /* images */
 
     static Icon getIcon(String fileName) {
-        return new ImageIcon(getImage(fileName));
+        // creating the icon is blocking, only do it once
+        return ICONS.computeIfAbsent(fileName, f -> new ImageIcon(getImage(f)));
+    }
+
+    /** Load all UI icons into cache. Blocking, not called on EDT. */
+    static void preloadIcons() {
+        URL dirURL = ClassLoader.getSystemResource(IMG_DIR);
+        if (dirURL == null) {
+            LOGGER.warning("can't find image directory");
+            return;
+        }
+        try {
+            URI uri = dirURL.toURI();
+            if ("jar".equals(uri.getScheme())) {
+                try (FileSystem fs = FileSystems.newFileSystem(uri, Collections.emptyMap())) {
+                    preloadIcons(fs.getPath(IMG_DIR));
+                }
+            } else {
+                preloadIcons(Paths.get(uri));
+            }
+        } catch (URISyntaxException | IOException | FileSystemAlreadyExistsException ex) {
+            LOGGER.log(Level.WARNING, "can't preload icons", ex);
+        }
+    }
+
+    private static void preloadIcons(Path dir) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "ic_*.png")) {
+            for (Path path : stream)
+                getIcon(path.getFileName().toString());
+        }
     }
 
     static Image getImage(String fileName) {
@@ -116,6 +116,21 @@ public final class View implements ObserverTrait {
 
     static final String THE_ME_COMMAND = "/me ";
 
+    /** Classes loaded in background on startup. */
+    private static final String[] PRELOAD_CLASSES = {
+        "com.alee.laf.WebLookAndFeel",
+        "com.alee.laf.rootpane.WebFrame",
+        "com.alee.laf.table.WebTable",
+        "com.alee.laf.scroll.WebScrollPane",
+        "com.alee.laf.text.WebTextField",
+        "com.alee.laf.text.WebTextPane",
+        "com.alee.laf.tabbedpane.WebTabbedPane",
+        "com.alee.extended.statusbar.WebStatusBar",
+        "com.alee.extended.panel.GroupPanel"
+    };
+
+    private static Splash SPLASH = null;
+
     private final ViewControl mControl;
     private final Model mModel;
 
@@ -174,6 +189,7 @@ public final class View implements ObserverTrait {
 
         // register observer
         mModel.contacts().addObserver(mContactListView);
+        mModel.contacts().addObserver(AvatarLoader.AVATAR_OBSERVER);
         mModel.chats().addObserver(mChatListView);
         mModel.chats().addObserver(mChatView);
         mModel.chats().addObserver(mTrayManager);
@@ -183,6 +199,43 @@ public final class View implements ObserverTrait {
         this.statusChanged(Control.Status.DISCONNECTED, EnumSet.noneOf(FeatureDiscovery.Feature.class));
 
         mMainFrame.setVisible(true);
+
+        if (SPLASH != null) {
+            SPLASH.dispose();
+            SPLASH = null;
+        }
+    }
+
+    /**
+     * Show splash window and start loading UI resources in background. Call
+     * before creating the view.
+     */
+    public static void preload() {
+        int watchdogThreshold = Config.getInstance().getInt(Config.VIEW_EDT_WATCHDOG);
+        if (watchdogThreshold > 0)
+            EDTWatchdog.install(watchdogThreshold);
+
+        SwingUtilities.invokeLater(() -> {
+            SPLASH = new Splash();
+            SPLASH.setVisible(true);
+        });
+
+        Thread thread = new Thread(() -> {
+            long start = System.currentTimeMillis();
+            ClassLoader loader = View.class.getClassLoader();
+            for (String className : PRELOAD_CLASSES) {
+                try {
+                    // load only, initialization is done on EDT
+                    Class.forName(className, false, loader);
+                } catch (ClassNotFoundException ex) {
+                    LOGGER.warning("can't preload class: "+className);
+                }
+            }
+            Utils.preloadIcons();
+            LOGGER.config("preloading done, took (ms): "+(System.currentTimeMillis() - start));
+        }, "View Preloader");
+        thread.setDaemon(true);
+        thread.start();
     }
 
     public static Optional<View> create(ViewControl control, Model model) {
@@ -300,6 +353,7 @@ public final class View implements ObserverTrait {
                 //    trayIcon.setImage(updatedImage);
                 break;
             case SHUTTING_DOWN:
+                EDTWatchdog.instance().ifPresent(w -> w.writeReport(Model.appDir()));
                 mMainFrame.save();
                 mChatListView.save();
                 mTrayManager.removeTray();
@@ -0,0 +1,153 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.kontalk.bench;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.net.InetAddress;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.ConnectionConfiguration;
+import org.jivesoftware.smack.filter.MessageTypeFilter;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.jxmpp.jid.impl.JidCreate;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Smoke test of the stub server used by the load test: a plain Smack
+ * connection logs in, receives offline and live bursts and sends a message.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+public class StubServerTest {
+
+    private static final String DOMAIN = "stub.kontalk.org";
+    private static final String USER = "tester";
+    private static final int BURST = 500;
+    private static final long TIMEOUT = 30; // seconds
+
+    private StubServer mServer;
+    private XMPPTCPConnection mConn;
+
+    private final Set<String> mReceived = ConcurrentHashMap.newKeySet();
+    private volatile CountDownLatch mLatch;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new StubServer(DOMAIN, USER);
+
+        XMPPTCPConnectionConfiguration config = XMPPTCPConnectionConfiguration.builder()
+                .setXmppDomain(DOMAIN)
+                .setHostAddress(InetAddress.getLoopbackAddress())
+                .setPort(mServer.getPort())
+                .setSecurityMode(ConnectionConfiguration.SecurityMode.required)
+                // self-signed certificate of stub server
+                .setCustomSSLContext(trustAllContext())
+                .setHostnameVerifier((hostname, session) -> true)
+                .performSaslAnonymousAuthentication()
+                .setResource("test")
+                .build();
+        mConn = new XMPPTCPConnection(config);
+        mConn.addAsyncStanzaListener(stanza -> {
+            if (((Message) stanza).getBody() != null && mReceived.add(stanza.getStanzaId()))
+                mLatch.countDown();
+        }, MessageTypeFilter.CHAT);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mConn.disconnect();
+        mServer.close();
+    }
+
+    @Test
+    public void testBursts() throws Exception {
+        // offline messages, sent right after login
+        mLatch = new CountDownLatch(BURST);
+        mServer.setOnAvailable(messages("offline", BURST));
+        mConn.connect().login();
+        assertTrue(mServer.awaitAvailable(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(USER + "@" + DOMAIN + "/test", mServer.getBoundJID());
+        assertTrue("offline messages received: " + mReceived.size(),
+                mLatch.await(TIMEOUT, TimeUnit.SECONDS));
+
+        // live burst
+        mLatch = new CountDownLatch(BURST);
+        mServer.send(messages("live", BURST));
+        assertTrue("live messages received: " + (mReceived.size() - BURST),
+                mLatch.await(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(2 * BURST, mReceived.size());
+    }
+
+    @Test
+    public void testSend() throws Exception {
+        mConn.connect().login();
+        assertTrue(mServer.awaitAvailable(TIMEOUT, TimeUnit.SECONDS));
+
+        Message message = new Message(JidCreate.entityBareFrom("bob@" + DOMAIN), "hello");
+        message.setType(Message.Type.chat);
+        mConn.sendStanza(message);
+
+        StubServer.Sent sent = mServer.takeSent(TIMEOUT, TimeUnit.SECONDS);
+        assertNotNull(sent);
+        assertEquals(message.getStanzaId(), sent.id);
+        assertEquals("bob@" + DOMAIN, sent.to);
+    }
+
+    private static List<String> messages(String prefix, int count) {
+        List<String> stanzas = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            stanzas.add("<message type='chat' id='" + prefix + i + "'"
+                    + " from='sender" + (i % 10) + "@" + DOMAIN + "/load'"
+                    + " to='" + USER + "@" + DOMAIN + "/test'>"
+                    + "<body>message " + i + "</body></message>");
+        }
+        return stanzas;
+    }
+
+    private static SSLContext trustAllContext() throws Exception {
+        TrustManager trustAll = new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {}
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {}
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        };
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, new TrustManager[]{trustAll}, new SecureRandom());
+        return context;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.kontalk.view;
+
+import javax.swing.SwingUtilities;
+import java.awt.SecondaryLoop;
+import java.awt.Toolkit;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.kontalk.misc.Metrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs with the headless AWT toolkit, only the event queue is used.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+public class EDTWatchdogTest {
+
+    private static final long THRESHOLD = 50;
+
+    private EDTWatchdog mWatchdog;
+
+    @BeforeClass
+    public static void setUpClass() {
+        System.setProperty("java.awt.headless", "true");
+        // initializing the JFR event class on the EDT would be a stall
+        Metrics.timer("test.warmup").record(System.nanoTime());
+    }
+
+    @Before
+    public void setUp() {
+        mWatchdog = EDTWatchdog.install(THRESHOLD);
+    }
+
+    @After
+    public void tearDown() {
+        mWatchdog.uninstall();
+    }
+
+    @Test
+    public void testStallCaptured() throws Exception {
+        SwingUtilities.invokeAndWait(EDTWatchdogTest::blockingTask);
+        SwingUtilities.invokeAndWait(EDTWatchdogTest::blockingTask);
+        // fast events are no stalls
+        for (int i = 0; i < 100; i++)
+            SwingUtilities.invokeAndWait(() -> {});
+
+        String report = mWatchdog.report();
+        assertTrue(report, report.contains("2 stall(s)"));
+        assertTrue(report, report.contains("EDTWatchdogTest.blockingTask"));
+    }
+
+    @Test
+    public void testNestedLoopNoStall() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            // like a modal dialog: events are dispatched while this one waits
+            SecondaryLoop loop = Toolkit.getDefaultToolkit().getSystemEventQueue()
+                    .createSecondaryLoop();
+            new Thread(() -> {
+                sleep(4 * THRESHOLD);
+                loop.exit();
+            }).start();
+            loop.enter();
+        });
+        SwingUtilities.invokeAndWait(() -> {});
+
+        String report = mWatchdog.report();
+        assertTrue(report, report.contains("stalls: 0"));
+    }
+
+    @Test
+    public void testNestedLoopTimeAddedUp() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            // each part is below the threshold, together above
+            sleep(THRESHOLD * 3 / 4);
+            SecondaryLoop loop = Toolkit.getDefaultToolkit().getSystemEventQueue()
+                    .createSecondaryLoop();
+            new Thread(() -> {
+                sleep(2 * THRESHOLD);
+                loop.exit();
+            }).start();
+            loop.enter();
+            sleep(THRESHOLD * 3 / 4);
+        });
+        SwingUtilities.invokeAndWait(() -> {});
+
+        String report = mWatchdog.report();
+        assertTrue(report, report.contains("1 stall(s)"));
+    }
+
+    @Test
+    public void testWriteReport() throws Exception {
+        SwingUtilities.invokeAndWait(EDTWatchdogTest::blockingTask);
+        SwingUtilities.invokeAndWait(() -> {});
+
+        Path dir = Files.createTempDirectory("kontalk_test");
+        try {
+            Path file = mWatchdog.writeReport(dir).orElse(null);
+            assertEquals(dir.resolve(EDTWatchdog.REPORT_FILENAME), file);
+            String content = new String(Files.readAllBytes(file), "UTF-8");
+            assertTrue(content.contains("1 stall(s)"));
+        } finally {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+
+    @Test
+    public void testUninstall() throws Exception {
+        mWatchdog.uninstall();
+        assertFalse(EDTWatchdog.instance().isPresent());
+        assertFalse(Toolkit.getDefaultToolkit().getSystemEventQueue() instanceof EDTWatchdog);
+        // events are still dispatched
+        SwingUtilities.invokeAndWait(() -> {});
+    }
+
+    private static void blockingTask() {
+        sleep(4 * THRESHOLD);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.view;
+
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.ocpsoft.prettytime.PrettyTime;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the computed change times against the texts of PrettyTime.
+ *
+ * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
+ */
+public class RelativeTimeRefresherTest {
+
+    private static final long DATE = 1_500_000_000_000L;
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(20 * 365);
+
+    private static String text(long date, long now) {
+        return new PrettyTime(new Date(now), Locale.ENGLISH).format(new Date(date));
+    }
+
+    private static void assertNextChange(long date, long now) {
+        long next = RelativeTimeRefresher.nextChange(date, now);
+        assertTrue("age " + (now - date), next > now);
+        String text = text(date, now);
+        assertEquals("age " + (now - date), text, text(date, next - 1));
+        assertNotEquals("age " + (now - date), text, text(date, next));
+    }
+
+    @Test
+    public void testEveryChange() {
+        long now = DATE;
+        int changes = 0;
+        while (now - DATE < MAX_AGE) {
+            assertNextChange(DATE, now);
+            now = RelativeTimeRefresher.nextChange(DATE, now);
+            changes++;
+        }
+        // minutes, hours, days, weeks, months, years, decades
+        assertTrue(changes > 100);
+    }
+
+    @Test
+    public void testRandomAges() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            long age = (long) (Math.pow(random.nextDouble(), 4) * MAX_AGE);
+            assertNextChange(DATE, DATE + age);
+        }
+    }
+
+    @Test
+    public void testHalfUnit() {
+        long minute = TimeUnit.MINUTES.toMillis(1);
+        // "10 minutes ago" until more than ten and a half minutes passed
+        assertEquals(DATE + 10 * minute + minute / 2 + 1,
+                RelativeTimeRefresher.nextChange(DATE, DATE + 10 * minute));
+        assertEquals("10 minutes ago", text(DATE, DATE + 10 * minute + minute / 2));
+        assertEquals("11 minutes ago", text(DATE, DATE + 10 * minute + minute / 2 + 1));
+    }
+}